@@ -52,6 +52,8 @@ public class Attribute extends BasicNode
     private String rawValue;
     private String value;
     private char quoteChar;
+    /** Where the value of a compact attribute starts in the source */
+    private int valueOffset;
     
     /** Create an attribute from a Token.
      * 
@@ -105,6 +107,53 @@ public class Attribute extends BasicNode
         setNamespace (null);
     }
     
+    /** Create a compact attribute from a part of <code>source</code>.
+     * 
+     *  <p>The part must include the space before the name and end with the closing quote.
+     *  Only the name is created immediately; the value is taken from the source when it's needed.
+     */
+    public Attribute (XMLSource source, int startOffset, int endOffset)
+    {
+        super (Type.ATTRIBUTE, source, startOffset, endOffset);
+        
+        int pos = startOffset;
+        while (pos < endOffset && Character.isWhitespace (source.charAt (pos)))
+            pos ++;
+        
+        if (pos != startOffset && (pos != startOffset + 1 || source.charAt (startOffset) != ' '))
+            this.preSpace = source.substring (startOffset, pos);
+        
+        int start = pos;
+        while (pos < endOffset)
+        {
+            char c = source.charAt (pos);
+            if (Character.isWhitespace (c) || c == '=')
+                break;
+            
+            pos ++;
+        }
+        
+        this.name = source.substring (start, pos);
+        
+        start = pos;
+        while (pos < endOffset)
+        {
+            char c = source.charAt (pos);
+            if (!(Character.isWhitespace (c) || c == '=') )
+                break;
+            
+            pos ++;
+        }
+        
+        if (pos != start + 1 || source.charAt (start) != '=')
+            this.equalsSpace = source.substring (start, pos);
+        
+        this.quoteChar = source.charAt (pos);
+        this.valueOffset = pos + 1;
+        
+        setNamespace (null);
+    }
+    
     /** Create an attribute with a certain name and value.
      *
      *  <p>The quote to use is determined automatically depending on the content of the value
@@ -164,11 +213,17 @@ public class Attribute extends BasicNode
     public void setName (String name)
     {
         this.name = name;
+        changed ();
     }
     
     /** Return the value of the attribute */
     public String getValue ()
     {
+        if (value == null && isCompactNode ())
+        {
+            rawValue = getSource ().substring (valueOffset, getEndOffset () - 1);
+            value = XMLUtils.unescapeXMLAttributeValue (rawValue);
+        }
         return value;
     }
     
@@ -179,6 +234,17 @@ public class Attribute extends BasicNode
         
         this.value = value;
         this.rawValue = null;
+        changed ();
+    }
+    
+    @Override
+    protected long copyText ()
+    {
+        if (value != null || !isCompactNode ())
+            return 0;
+        
+        getValue ();
+        return rawValue.length () + (value == rawValue ? 0 : value.length ());
     }
     
     public Namespace getNamespace ()
@@ -192,6 +258,7 @@ public class Attribute extends BasicNode
             namespace = Namespace.NO_NAMESPACE;
         
         this.namespace = namespace;
+        changed ();
     }
     
     public int getQuoteChar ()
@@ -202,6 +269,7 @@ public class Attribute extends BasicNode
     public Attribute setQuoteChar (char quoteChar)
     {
         this.quoteChar = checkQuoteChar (getValue (), quoteChar);
+        changed ();
         return this;
     }
 
@@ -218,6 +286,7 @@ public class Attribute extends BasicNode
             throw new IllegalArgumentException ("Space prefix must not contain anything besides whitespace: "+TextUtils.escapeJavaString(preSpace));
         
         this.preSpace = preSpace;
+        changed ();
         return this;
     }
     
@@ -234,6 +303,7 @@ public class Attribute extends BasicNode
             throw new IllegalArgumentException ("Space around equals sign must not contain anything besides whitespace: "+TextUtils.escapeJavaString(equalsSpace));
         
         this.equalsSpace = equalsSpace;
+        changed ();
         return this;
     }
     
@@ -276,7 +346,9 @@ public class Attribute extends BasicNode
         String s = new String (buffer);
         writer.write (this, s);
         if (rawValue != null)
-            writer.write (this, rawValue);
+            writer.writeEscapedAttributeValue (this, rawValue);
+        else if (value == null)
+            writer.writeEscapedAttributeValue (this, getSource ().substring (valueOffset, getEndOffset () - 1));
         else
             writer.writeAttributeValue (this, getValue (), quoteChar);
         writer.write (this, s);
@@ -287,7 +359,7 @@ public class Attribute extends BasicNode
     @Override
     public Attribute createClone ()
     {
-        return new Attribute (name, value);
+        return new Attribute (name, getValue ());
     }
     
     @Override
@@ -301,8 +373,9 @@ public class Attribute extends BasicNode
         this.name = other.name;
         this.preSpace = other.preSpace;
         this.quoteChar = other.quoteChar;
-        this.value = other.value;
+        this.value = other.getValue ();
         this.rawValue = other.rawValue;
+        changed ();
         
         return this;
     }
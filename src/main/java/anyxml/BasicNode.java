@@ -45,8 +45,14 @@ import anyxml.XMLTokenizer.Type;
 public class BasicNode implements Node
 {
     private Token token;
+    /** The source of a compact node */
+    private XMLSource source;
+    private int startOffset;
+    private int endOffset;
     private Type type;
     private String value;
+    /** The node which contains this one; it's told about changes */
+    private NodeWithChildren owner;
     
     public BasicNode (Token token)
     {
@@ -67,6 +73,23 @@ public class BasicNode implements Node
         this.type = type;
         this.value = text;
     }
+    
+    /** Create a compact node which keeps only the offsets into <code>source</code>.
+     * 
+     *  <p>The text of the node is taken from the source when it is needed.
+     */
+    public BasicNode (Type type, XMLSource source, int startOffset, int endOffset)
+    {
+        if (type == null)
+            throw new NullPointerException ("type is null");
+        if (source == null)
+            throw new NullPointerException ("source is null");
+        
+        this.type = type;
+        this.source = source;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+    }
 
     // protected so Attribute and Element can be extended and the
     // type can be set to CUSTOM_ATTRIBUTE/ELEMENT.
@@ -80,27 +103,56 @@ public class BasicNode implements Node
         return type;
     }
     
-    /** Get the token (mainly for error handling) */
+    /** Get the token (mainly for error handling).
+     * 
+     *  <p>Compact nodes don't keep their token; a new one is created for each call.
+     */
     public Token getToken ()
     {
+        if (token == null && source != null)
+        {
+            Token t = new Token ();
+            t.setSource (source);
+            t.setType (type);
+            t.setStartOffset (startOffset);
+            t.setEndOffset (endOffset);
+            return t;
+        }
+        
         return token;
     }
     
+    /** The source from which this node was parsed or <code>null</code> */
+    public XMLSource getSource ()
+    {
+        return token == null ? source : token.getSource ();
+    }
+    
+    /** Does this node only keep offsets into its source? */
+    public boolean isCompactNode ()
+    {
+        return source != null;
+    }
+    
     /** The start offset of the node in the XML source or -1 */
     public int getStartOffset ()
     {
-        return token == null ? -1 : token.getStartOffset ();
+        if (token != null)
+            return token.getStartOffset ();
+        return source == null ? -1 : startOffset;
     }
     
     public int getEndOffset ()
     {
-        return token == null ? -1 : token.getEndOffset ();
+        if (token != null)
+            return token.getEndOffset ();
+        return source == null ? -1 : endOffset;
     }
     
     public String getValue ()
     {
         if (value == null)
-            return token.getText ();
+            return token == null ? source.substring (startOffset, endOffset) : token.getText ();
             
         return value;
     }
@@ -108,6 +160,59 @@ public class BasicNode implements Node
     public void setValue (String value)
     {
         this.value = value;
+        changed ();
+    }
+    
+    /** Is the value still the text between the offsets of this node in its source? */
+    boolean isSourceValue ()
+    {
+        return value == null && getSource () != null;
+    }
+    
+    void setOwner (NodeWithChildren owner)
+    {
+        this.owner = owner;
+    }
+    
+    /** Subclasses must call this when the XML of the node changes */
+    protected void changed ()
+    {
+        if (owner != null)
+            owner.markModified ();
+    }
+    
+    /** Copy the text which this node needs out of its source and drop the references to the source and the token.
+     * 
+     *  <p>Use this when the node is kept much longer than the (big) source from which it was parsed.
+     *  Afterwards, the node has no token and no offsets anymore.
+     *  
+     *  @return the size in bytes (2 per character) of the text which was copied out of the source.
+     *      This is what the node costs now; whether the source itself can be garbage collected
+     *      depends on who else references it.
+     */
+    public long releaseSource ()
+    {
+        XMLSource source = getSource ();
+        if (source == null)
+            return 0;
+        
+        long copied = copyText ();
+        this.token = null;
+        this.source = null;
+        return 2L * copied;
+    }
+    
+    /** Called by {@link #releaseSource()} to copy all strings which are still taken from the source.
+     * 
+     *  @return the number of characters which were copied
+     */
+    protected long copyText ()
+    {
+        if (value != null)
+            return 0;
+        
+        value = token == null ? source.substring (startOffset, endOffset) : token.getText ();
+        return value.length ();
     }
     
     /** Append the content of this node to <code>writer</code> */
@@ -158,8 +263,12 @@ public class BasicNode implements Node
         BasicNode other = (BasicNode)orig;
         
         this.token = other.token;
+        this.source = other.source;
+        this.startOffset = other.startOffset;
+        this.endOffset = other.endOffset;
         this.type = other.type;
         this.value = other.value;
+        changed ();
         
         return this;
     }
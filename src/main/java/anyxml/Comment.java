@@ -41,6 +41,12 @@ public class Comment extends BasicNode implements TextNode
         super (token);
     }
     
+    /** Create a compact comment from a part of <code>source</code> */
+    public Comment (XMLSource source, int startOffset, int endOffset)
+    {
+        super (Type.COMMENT, source, startOffset, endOffset);
+    }
+    
     public Comment (String text)
     {
         super (Type.COMMENT, null);
@@ -214,47 +214,19 @@ public class Document extends NodeWithChildren implements Parent
         return getChild (path, null);
     }
     
+    /** Find an element by a path like <code>project/dependencies/dependency[1]</code>.
+     * 
+     *  <p>The path always starts at the document, i.e. the first name must match the root element.
+     *  
+     *  @param ns The namespace of the result or <code>null</code> for any namespace
+     *  @see PathExpression
+     */
     public Element getChild (String path, Namespace ns)
     {
         if (getRootElement () == null)
             return null;
-
-        if (path.startsWith ("/"))
-            path = path.substring (1);
-        
-        int pos = path.indexOf ('/');
-        if (pos == -1)
-        {
-            if (ns == null)
-            {
-                pos = path.indexOf (':');
-            }
-            
-            if (path.equals (getRootElement ().getName ())
-                && (ns == null || ns.equals (getRootElement ().getNamespace ()))
-            )
-                return getRootElement ();
-            else
-                return null;
-        }
         
-        String name = path.substring (0, pos);
-        int pos2 = name.indexOf (':');
-        Namespace ns2 = null;
-        if (pos2 != -1)
-        {
-            String prefix = name.substring (0, pos2);
-            name = name.substring (pos2 + 1);
-            ns2 = getNamespaces ().getNamespace (prefix);
-            if (ns2 == null)
-                throw new XMLParseException ("Namespace prefix '"+prefix+"' is not defined");
-        }
-        if (!name.equals (getRootElement ().getName ())
-            || (ns2 != null && !ns2.equals (getRootElement ().getNamespace ()))
-        )
-            return null;
-        
-        return getRootElement ().getChild (path.substring (pos+1), ns);
+        return PathExpression.compile (path).evaluate (this, ns);
     }
     
     public Type getType ()
@@ -338,6 +310,12 @@ public class Document extends NodeWithChildren implements Parent
         createXMLDeclaration ().setStandalone (standalone);
     }
 
+    /** The changes since the document was parsed as patches against its source */
+    public EditJournal createEditJournal ()
+    {
+        return new EditJournal (this);
+    }
+    
     @Override
     public Document toXML (XMLWriter writer) throws IOException
     {
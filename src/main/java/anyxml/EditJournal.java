@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The changes of a parsed document as a list of patches against its source.
+ * 
+ * <p>Elements know if they were changed after they were parsed (see
+ * {@link NodeWithChildren#isVerbatim()}; this includes lists of child nodes which
+ * were changed with <code>sort()</code> or <code>removeIf()</code>). The journal only walks down into changed
+ * elements and compares their output with the source, so the patches are as small
+ * as possible and the time to create them depends on the size of the changes
+ * instead of the size of the document.
+ * 
+ * <p>{@link #apply(File)} writes the changes into the file which was parsed. Only the
+ * part of the file after the first change is written. When the changes don't change
+ * the size of the file, nothing after the last change is written either.
+ * 
+ * <p>The journal is a snapshot; create a new one after changing the document.
+ * 
+ * @see anyxml.SourcePatch
+ */
+public class EditJournal
+{
+    private final static int CHUNK_SIZE = 64 * 1024;
+    
+    private final Document doc;
+    private final XMLSource source;
+    private final List<SourcePatch> patches = new ArrayList<SourcePatch> ();
+    
+    /** The output of <code>writer</code> since the last call of <code>flush()</code> */
+    private final StringBuilder output = new StringBuilder ();
+    private final XMLWriter writer = new XMLWriter (new Writer () {
+        @Override
+        public void write (char[] cbuf, int off, int len)
+        {
+            output.append (cbuf, off, len);
+        }
+        
+        @Override
+        public void flush ()
+        {
+            // Nothing to do
+        }
+        
+        @Override
+        public void close ()
+        {
+            // Nothing to do
+        }
+    });
+    
+    public EditJournal (Document doc)
+    {
+        if (doc == null)
+            throw new IllegalArgumentException ("doc is null");
+        
+        Element root = doc.getRootElement ();
+        source = (root == null ? null : root.getSource ());
+        if (source == null)
+            throw new IllegalArgumentException ("The document wasn't parsed");
+        
+        this.doc = doc;
+        try
+        {
+            diff (doc, 0, source.length ());
+        }
+        catch (IOException e)
+        {
+            throw new XMLParseException ("Error serializing "+doc, e);
+        }
+    }
+    
+    /** The source against which the patches were created */
+    public XMLSource getSource ()
+    {
+        return source;
+    }
+    
+    /** The patches in the order in which they appear in the source; they don't overlap */
+    public List<SourcePatch> getPatches ()
+    {
+        return Collections.unmodifiableList (patches);
+    }
+    
+    /** Turn the source between <code>contentStart</code> and <code>contentEnd</code> into the current children of <code>parent</code> */
+    private void diff (NodeWithChildren parent, int contentStart, int contentEnd) throws IOException
+    {
+        // Elements which still occupy their place in the source are patched or left alone;
+        // the nodes between them are written and compared with the source
+        int cursor = contentStart;
+        for (Node n: parent.getNodes ())
+        {
+            if (n instanceof Element)
+            {
+                Element e = (Element)n;
+                if (e.getSource () == source && e.getStartOffset () >= cursor
+                        && e.getEndOffset () > e.getStartOffset () && e.getEndOffset () <= contentEnd)
+                {
+                    replace (cursor, e.getStartOffset (), flush ());
+                    if (!e.isVerbatim ())
+                        diff (e);
+                    cursor = e.getEndOffset ();
+                    continue;
+                }
+            }
+            else if (isUnchangedText (n, cursor, contentEnd))
+            {
+                // Usually the whitespace between elements; there is no need to look at the source
+                BasicNode b = (BasicNode)n;
+                replace (cursor, b.getStartOffset (), flush ());
+                cursor = b.getEndOffset ();
+                continue;
+            }
+            
+            n.toXML (writer);
+        }
+        
+        replace (cursor, contentEnd, flush ());
+    }
+    
+    /** Is <code>n</code> a text or comment which is still the same as its place in the source? */
+    private boolean isUnchangedText (Node n, int cursor, int contentEnd)
+    {
+        if (n.getClass () != Text.class && n.getClass () != Comment.class)
+            return false;
+        
+        BasicNode b = (BasicNode)n;
+        return b.isSourceValue () && b.getSource () == source
+            && b.getStartOffset () >= cursor && b.getEndOffset () <= contentEnd;
+    }
+    
+    /** Turn the source of <code>e</code> into its current form */
+    private void diff (Element e) throws IOException
+    {
+        int start = e.getStartOffset ();
+        int end = e.getEndOffset ();
+        int contentStart = findStartTagEnd (start, end);
+        int contentEnd = findEndTagStart (contentStart, end);
+        
+        if (contentEnd < 0 || writer.isCompact (e))
+        {
+            e.toXML (writer);
+            replace (start, end, flush ());
+            return;
+        }
+        
+        writer.writeBeginElement (e);
+        replace (start, contentStart, flush ());
+        
+        diff (e, contentStart, contentEnd);
+        
+        writer.writeEndElement (e);
+        replace (contentEnd, end, flush ());
+    }
+    
+    /** The offset after the '&gt;' of the start tag which begins at <code>start</code> */
+    private int findStartTagEnd (int start, int end)
+    {
+        int pos = start + 1;
+        while (pos < end)
+        {
+            char c = source.charAt (pos ++);
+            if (c == '>')
+                return pos;
+            
+            // Attribute values can contain '>'
+            if (c == '"' || c == '\'')
+            {
+                while (pos < end && source.charAt (pos) != c)
+                    pos ++;
+                pos ++;
+            }
+        }
+        return end;
+    }
+    
+    /** The offset of the end tag or -1 if the element is empty in the source (i.e. ends with "/&gt;") */
+    private int findEndTagStart (int contentStart, int end)
+    {
+        if (source.charAt (contentStart - 2) == '/')
+            return -1;
+        
+        int pos = end - 1;
+        while (pos >= contentStart && source.charAt (pos) != '<')
+            pos --;
+        return pos;
+    }
+    
+    /** Get the output since the last call */
+    private String flush () throws IOException
+    {
+        writer.flush ();
+        if (output.length () == 0)
+            return "";
+        
+        String s = output.toString ();
+        output.setLength (0);
+        return s;
+    }
+    
+    /** Add a patch if <code>text</code> is different from the source between <code>start</code> and <code>end</code> */
+    private void replace (int start, int end, String text)
+    {
+        int length = end - start;
+        if (length == 0 && text.length () == 0)
+            return;
+        
+        // Only the part which differs goes into the patch
+        int max = Math.min (length, text.length ());
+        int prefix = 0;
+        while (prefix < max && source.charAt (start + prefix) == text.charAt (prefix))
+            prefix ++;
+        if (prefix == length && prefix == text.length ())
+            return;
+        
+        max -= prefix;
+        int suffix = 0;
+        while (suffix < max && source.charAt (end - 1 - suffix) == text.charAt (text.length () - 1 - suffix))
+            suffix ++;
+        
+        // Don't split surrogate pairs
+        if (prefix > 0 && Character.isHighSurrogate (text.charAt (prefix - 1)))
+            prefix --;
+        if (suffix > 0 && Character.isLowSurrogate (text.charAt (text.length () - suffix)))
+            suffix --;
+        
+        patches.add (new SourcePatch (start + prefix, length - prefix - suffix, text.substring (prefix, text.length () - suffix)));
+    }
+    
+    /** The source with all patches applied. This is the same as <code>doc.toXML()</code>. */
+    public String apply ()
+    {
+        StringBuilder result = new StringBuilder (source.length ());
+        int pos = 0;
+        for (SourcePatch p: patches)
+        {
+            append (result, pos, p.getOffset ());
+            result.append (p.getReplacement ());
+            pos = p.getEndOffset ();
+        }
+        append (result, pos, source.length ());
+        return result.toString ();
+    }
+    
+    private void append (StringBuilder result, int start, int end)
+    {
+        while (start < end)
+        {
+            int len = Math.min (end - start, CHUNK_SIZE);
+            result.append (source.substring (start, start + len));
+            start += len;
+        }
+    }
+    
+    /**
+     * Write the changes into the file which was parsed.
+     * 
+     * <p>The encoding of an <code>XMLMappedFileSource</code> is used; otherwise,
+     * the encoding is taken from the XML declaration of the document.
+     * 
+     * @return the new size of the file
+     * @see #apply(FileChannel, String)
+     */
+    public long apply (File file) throws IOException
+    {
+        String encoding;
+        if (source instanceof XMLMappedFileSource)
+            encoding = ((XMLMappedFileSource)source).getJavaEncoding ();
+        else
+            encoding = doc.getEncoding ();
+        
+        RandomAccessFile raf = new RandomAccessFile (file, "rw");
+        try
+        {
+            return apply (raf.getChannel (), encoding);
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+    
+    /**
+     * Write the changes into a channel which contains the bytes from which the source was decoded.
+     * 
+     * <p>The bytes of all patches are created before the channel is changed, so characters
+     * which can't be encoded leave the channel alone. When the source is an
+     * <code>XMLMappedFileSource</code> for the same file, it must not be used anymore afterwards.
+     * 
+     * @param encoding The XML or Java name of the encoding of the channel
+     * @return the new size of the channel
+     */
+    public long apply (FileChannel channel, String encoding) throws IOException
+    {
+        if (patches.isEmpty ())
+            return channel.size ();
+        
+        Charset charset = XMLByteWriter.charsetFor (encoding);
+        CharsetEncoder encoder = charset.newEncoder ()
+            .onMalformedInput (CodingErrorAction.REPORT)
+            .onUnmappableCharacter (CodingErrorAction.REPORT);
+        
+        int n = patches.size ();
+        long[] starts = new long[n];
+        long[] ends = new long[n];
+        ByteBuffer[] replacements = new ByteBuffer[n];
+        
+        if (source instanceof XMLMappedFileSource)
+        {
+            XMLMappedFileSource mapped = (XMLMappedFileSource)source;
+            for (int i=0; i<n; i++)
+            {
+                SourcePatch p = patches.get (i);
+                starts[i] = mapped.getByteOffset (p.getOffset ());
+                ends[i] = mapped.getByteOffset (p.getEndOffset ());
+                replacements[i] = encode (encoder, p.getReplacement ());
+            }
+        }
+        else
+        {
+            // Count the bytes of the source in the same order in which they are in the channel
+            long bytes = byteOrderMarkLength (channel, charset);
+            int pos = 0;
+            ByteBuffer scratch = ByteBuffer.allocate (CHUNK_SIZE);
+            for (int i=0; i<n; i++)
+            {
+                SourcePatch p = patches.get (i);
+                bytes += count (encoder, pos, p.getOffset (), scratch);
+                starts[i] = bytes;
+                replacements[i] = encode (encoder, p.getReplacement ());
+                bytes += count (encoder, p.getOffset (), p.getEndOffset (), scratch);
+                ends[i] = bytes;
+                pos = p.getEndOffset ();
+            }
+        }
+        
+        Rewriter rewriter = new Rewriter (channel, starts[0]);
+        for (int i=0; i<n; i++)
+        {
+            rewriter.copyTo (starts[i]);
+            rewriter.insert (replacements[i]);
+            rewriter.skipTo (ends[i]);
+        }
+        return rewriter.finish ();
+    }
+    
+    /** Decoders skip a UTF-8 BOM, so it's not in the source */
+    private long byteOrderMarkLength (FileChannel channel, Charset charset) throws IOException
+    {
+        if (!XMLInputStreamReader.ENCODING_UTF_8.equals (charset.name ())
+            || (source.length () > 0 && source.charAt (0) == '\uFEFF'))
+            return 0;
+        
+        ByteBuffer bom = ByteBuffer.allocate (3);
+        while (bom.hasRemaining () && channel.read (bom, bom.position ()) > 0)
+            ;
+        
+        if (bom.position () == 3 && bom.get (0) == (byte)0xEF && bom.get (1) == (byte)0xBB && bom.get (2) == (byte)0xBF)
+            return 3;
+        return 0;
+    }
+    
+    /** The number of bytes of the source between <code>start</code> and <code>end</code> */
+    private long count (CharsetEncoder encoder, int start, int end, ByteBuffer scratch) throws IOException
+    {
+        boolean utf8 = XMLInputStreamReader.ENCODING_UTF_8.equals (encoder.charset ().name ());
+        long bytes = 0;
+        while (start < end)
+        {
+            int len = Math.min (end - start, CHUNK_SIZE);
+            // Keep surrogate pairs together
+            if (start + len < end && Character.isHighSurrogate (source.charAt (start + len - 1)))
+                len --;
+            
+            String chunk = source.substring (start, start + len);
+            start += len;
+            
+            if (utf8)
+            {
+                bytes += utf8Length (chunk);
+                continue;
+            }
+            
+            CharBuffer in = CharBuffer.wrap (chunk);
+            while (true)
+            {
+                scratch.clear ();
+                CoderResult result = encoder.encode (in, scratch, false);
+                bytes += scratch.position ();
+                if (result.isUnderflow ())
+                    break;
+                if (result.isError ())
+                    result.throwException ();
+            }
+        }
+        return bytes;
+    }
+    
+    /** The length of <code>s</code> in UTF-8; it's faster to count than to encode */
+    private static int utf8Length (String s)
+    {
+        int length = s.length ();
+        int bytes = length;
+        for (int i=0; i<length; i++)
+        {
+            char c = s.charAt (i);
+            if (c >= 0x80)
+            {
+                if (c < 0x800)
+                    bytes ++;
+                else if (Character.isHighSurrogate (c) && i + 1 < length && Character.isLowSurrogate (s.charAt (i + 1)))
+                {
+                    // Four bytes for two characters
+                    bytes += 2;
+                    i ++;
+                }
+                else
+                    bytes += 2;
+            }
+        }
+        return bytes;
+    }
+    
+    private ByteBuffer encode (CharsetEncoder encoder, String text) throws IOException
+    {
+        CharBuffer in = CharBuffer.wrap (text);
+        ByteBuffer out = ByteBuffer.allocate ((int)(text.length () * encoder.averageBytesPerChar ()) + 16);
+        while (true)
+        {
+            CoderResult result = encoder.encode (in, out, false);
+            if (result.isUnderflow ())
+                break;
+            if (result.isError ())
+                result.throwException ();
+            
+            ByteBuffer larger = ByteBuffer.allocate (out.capacity () * 2);
+            out.flip ();
+            larger.put (out);
+            out = larger;
+        }
+        out.flip ();
+        return out;
+    }
+    
+    /**
+     * Rewrites a channel from the first change onward. Original bytes which are
+     * still needed are read before they are overwritten.
+     */
+    private static class Rewriter
+    {
+        private final FileChannel channel;
+        private final long size;
+        /** Where the next byte is written */
+        private long writePos;
+        /** The position of the next original byte */
+        private long copyPos;
+        /** Original bytes from <code>copyPos</code> on which were read but not written, yet */
+        private ByteBuffer ahead = ByteBuffer.allocate (CHUNK_SIZE);
+        
+        public Rewriter (FileChannel channel, long start) throws IOException
+        {
+            this.channel = channel;
+            size = channel.size ();
+            writePos = copyPos = start;
+            ahead.flip ();
+        }
+        
+        /** Make sure all original bytes before <code>limit</code> have been read */
+        private void readUpTo (long limit) throws IOException
+        {
+            limit = Math.min (limit, size);
+            if (copyPos + ahead.remaining () >= limit)
+                return;
+            
+            int needed = (int)(limit - copyPos);
+            ahead.compact ();
+            if (ahead.capacity () < needed)
+            {
+                ByteBuffer larger = ByteBuffer.allocate (Math.max (needed, ahead.capacity () * 2));
+                ahead.flip ();
+                larger.put (ahead);
+                ahead = larger;
+            }
+            
+            while (ahead.position () < needed)
+            {
+                if (channel.read (ahead, copyPos + ahead.position ()) < 0)
+                    throw new IOException ("The file was truncated while it was written");
+            }
+            ahead.flip ();
+        }
+        
+        private void write (ByteBuffer bytes) throws IOException
+        {
+            while (bytes.hasRemaining ())
+                writePos += channel.write (bytes, writePos);
+        }
+        
+        /** Move the original bytes before <code>pos</code> to the current write position */
+        public void copyTo (long pos) throws IOException
+        {
+            if (writePos == copyPos)
+            {
+                // The bytes are already where they belong
+                writePos = pos;
+                skipTo (pos);
+                return;
+            }
+            
+            while (copyPos < pos)
+            {
+                int len = (int)Math.min (pos - copyPos, CHUNK_SIZE);
+                readUpTo (Math.max (copyPos, writePos) + len);
+                
+                ByteBuffer chunk = ahead.duplicate ();
+                chunk.limit (chunk.position () + len);
+                ahead.position (ahead.position () + len);
+                copyPos += len;
+                write (chunk);
+            }
+        }
+        
+        public void insert (ByteBuffer bytes) throws IOException
+        {
+            readUpTo (writePos + bytes.remaining ());
+            write (bytes);
+        }
+        
+        /** Drop the original bytes before <code>pos</code> */
+        public void skipTo (long pos)
+        {
+            int n = (int)Math.min (pos - copyPos, ahead.remaining ());
+            ahead.position (ahead.position () + n);
+            copyPos = pos;
+        }
+        
+        /** Copy the rest of the channel and cut off what is left of the old content */
+        public long finish () throws IOException
+        {
+            copyTo (size);
+            if (writePos < size)
+                channel.truncate (writePos);
+            return writePos;
+        }
+    }
+}
@@ -56,12 +56,25 @@ import static anyxml.XMLUtils.isText;
 public class Element extends NodeWithChildren implements Child, TextNode
 {
     private Token startToken;
+    /** The source of a compact element */
+    private XMLSource source;
+    private int startOffset;
+    private int endOffset;
+    /** Where the name of a compact element starts in the source (after the namespace prefix) or -1 if the name has been changed */
+    private int nameOffset = -1;
+    private int nameEndOffset;
     private Namespace namespace;
     private String beginName;
     private String postSpace = "";
     private String endName;
     private String name;
     private Parent parent;
+    /** The document of the parent; this is updated in the whole subtree when the parent changes */
+    private Document document;
+    /** The position in the nodes of the parent and among the child elements of the parent.
+     *  These are only valid after <code>NodeWithChildren.updatePositions()</code> */
+    private int nodeIndex;
+    private int elementIndex;
     private Map<String, Attribute> attributeMap;
     private boolean compactEmpty;
 
@@ -73,6 +86,28 @@ public class Element extends NodeWithChildren implements Child, TextNode
         setNamespace (null);
     }
 
+    /** Create a compact element from the start of a begin tag ("&lt;name") in <code>source</code>.
+     * 
+     *  <p>The element keeps only offsets into the source; the name is created when it's needed.
+     */
+    public Element (XMLSource source, int startOffset, int endOffset)
+    {
+        if (source == null)
+            throw new NullPointerException ("source is null");
+        
+        this.source = source;
+        this.startOffset = startOffset;
+        this.endOffset = endOffset;
+        this.nameEndOffset = endOffset;
+        
+        int pos = startOffset + 1;
+        while (pos < endOffset && Character.isWhitespace (source.charAt (pos)))
+            pos ++;
+        this.nameOffset = pos;
+        
+        setNamespace (null);
+    }
+    
     public Element (String name)
     {
         this (null, name);
@@ -104,44 +139,169 @@ public class Element extends NodeWithChildren implements Child, TextNode
             parent.addNode (this);
     }
 
+    /** The token of the begin tag (mainly for error handling).
+     * 
+     *  <p>Compact elements don't keep their token; a new one is created for each call.
+     */
     public Token getStartToken ()
     {
+        if (startToken == null && source != null)
+        {
+            Token token = new Token ();
+            token.setSource (source);
+            token.setType (Type.BEGIN_ELEMENT);
+            token.setStartOffset (startOffset);
+            token.setEndOffset (endOffset);
+            return token;
+        }
+        
         return startToken;
     }
 
+    /** The source from which this element was parsed or <code>null</code> */
+    public XMLSource getSource ()
+    {
+        return startToken == null ? source : startToken.getSource ();
+    }
+    
+    /** Does this element only keep offsets into its source? */
+    public boolean isCompactNode ()
+    {
+        return source != null;
+    }
+    
     public int getStartOffset ()
     {
-        return startToken == null ? -1 : startToken.getStartOffset ();
+        if (startToken != null)
+            return startToken.getStartOffset ();
+        return source == null ? -1 : startOffset;
     }
 
     public int getEndOffset ()
     {
-        return startToken == null ? -1 : startToken.getEndOffset ();
+        if (startToken != null)
+            return startToken.getEndOffset ();
+        return source == null ? -1 : endOffset;
+    }
+    
+    /** Set the end of the element in the source (i.e. the end of the end tag) */
+    public Element setEndOffset (int endOffset)
+    {
+        if (startToken != null)
+            startToken.setEndOffset (endOffset);
+        else
+            this.endOffset = endOffset;
+        return this;
     }
 
+    /** Copy the names of this element, its attributes and all child nodes out of the source
+     *  and drop the references to it.
+     *  
+     *  @see NodeWithChildren#releaseSource()
+     */
+    @Override
+    public long releaseSource ()
+    {
+        long copied = 0;
+        XMLSource source = getSource ();
+        if (source != null)
+        {
+            // Only count the strings which weren't there before and are kept
+            if (this.name == null && nameOffset >= 0)
+                copied += nameEndOffset - nameOffset;
+            String name = getName ();
+            String beginName = getBeginName ();
+            String endName = getEndName ();
+            String oldBeginName = this.beginName;
+            String oldEndName = this.endName;
+            this.name = name;
+            this.beginName = name.equals (beginName) ? null : beginName;
+            this.endName = name.equals (endName) ? null : endName;
+            if (this.beginName != null && this.beginName != oldBeginName)
+                copied += this.beginName.length ();
+            if (this.endName != null && this.endName != oldEndName)
+                copied += this.endName.length ();
+            this.nameOffset = -1;
+            this.startToken = null;
+            this.source = null;
+        }
+        
+        long size = 2L * copied;
+        if (attributeMap != null)
+        {
+            for (Attribute a: attributeMap.values ())
+                size += a.releaseSource ();
+        }
+        
+        return size + super.releaseSource ();
+    }
+
+    /** Where the name of a compact element starts in the source. The parser moves this after the namespace prefix. */
+    int getNameOffset ()
+    {
+        return nameOffset;
+    }
+    
+    void setNameOffset (int nameOffset)
+    {
+        this.nameOffset = nameOffset;
+    }
+    
+    int getNameEndOffset ()
+    {
+        return nameEndOffset;
+    }
+    
+    /** The offset of the name including the namespace prefix in the source of a compact element */
+    int getQualifiedNameOffset ()
+    {
+        int pos = startOffset + 1;
+        while (pos < nameEndOffset && Character.isWhitespace (source.charAt (pos)))
+            pos ++;
+        return pos;
+    }
+    
     public String getBeginName ()
     {
-        return beginName == null ? name : beginName;
+        if (beginName == null && nameOffset >= 0 && nameOffset != startOffset + 1)
+            return source.substring (startOffset + 1, nameEndOffset);
+        
+        return beginName == null ? getName () : beginName;
     }
 
     public Element setBeginName (String beginName)
     {
         this.beginName = beginName;
+        markModified ();
         return this;
     }
 
     public String getEndName ()
     {
-        return endName == null ? name : endName;
+        if (endName == null && nameOffset >= 0)
+        {
+            int pos = getQualifiedNameOffset ();
+            if (pos != nameOffset)
+                return source.substring (pos, nameEndOffset);
+        }
+        
+        return endName == null ? getName () : endName;
     }
 
     /** The string to be put into the end tag. This can contain whitespace around the name */
     public Element setEndName (String endName)
     {
         this.endName = endName;
+        markModified ();
         return this;
     }
 
+    /** Called by the parser; the end name comes from the source, so this isn't a modification */
+    void initEndName (String endName)
+    {
+        this.endName = endName;
+    }
+
     /** Space before the closing bracket of the element */
     public String getPostSpace ()
     {
@@ -151,19 +311,27 @@ public class Element extends NodeWithChildren implements Child, TextNode
     public Element setPostSpace (String postSpace)
     {
         this.postSpace = postSpace;
+        markModified ();
         return this;
     }
     
     public Element setName (String name)
     {
+        if (parent instanceof NodeWithChildren)
+            ((NodeWithChildren)parent).invalidateChildIndex ();
+        
         this.name = name;
         this.beginName = null;
         this.endName = null;
+        this.nameOffset = -1;
+        markModified ();
         return this;
     }
 
     public String getName ()
     {
+        if (name == null && nameOffset >= 0)
+            name = source.substring (nameOffset, nameEndOffset);
         return name;
     }
 
@@ -175,9 +343,73 @@ public class Element extends NodeWithChildren implements Child, TextNode
     public Element setParent (Parent parent)
     {
         this.parent = parent;
+        
+        Document doc = null;
+        if (parent instanceof Document)
+            doc = (Document)parent;
+        else if (parent instanceof Element)
+            doc = ((Element)parent).document;
+        setDocument (doc);
+        
         return this;
     }
     
+    /** Set the document in this element and all its descendants. Nothing is walked when the document doesn't change. */
+    void setDocument (Document doc)
+    {
+        if (document == doc)
+            return;
+        
+        // Not recursive because the tree can be very deep
+        List<Element> stack = new ArrayList<Element> ();
+        stack.add (this);
+        while (!stack.isEmpty ())
+        {
+            Element e = stack.remove (stack.size () - 1);
+            e.document = doc;
+            
+            for (int i=0, N=e.nodeCount (); i<N; i++)
+            {
+                Node n = e.getNode (i);
+                if (n instanceof Element && ((Element)n).document != doc)
+                    stack.add ((Element)n);
+            }
+        }
+    }
+    
+    void setPosition (int nodeIndex, int elementIndex)
+    {
+        this.nodeIndex = nodeIndex;
+        this.elementIndex = elementIndex;
+    }
+    
+    int getNodeIndex ()
+    {
+        return nodeIndex;
+    }
+    
+    /** The node after this element in the parent or <code>null</code> */
+    public Node nextSibling ()
+    {
+        if (!(parent instanceof NodeWithChildren))
+            return null;
+        
+        NodeWithChildren p = (NodeWithChildren)parent;
+        int index = p.nodeIndexOf (this);
+        return index == -1 || index + 1 >= p.nodeCount () ? null : p.getNode (index + 1);
+    }
+    
+    /** The node before this element in the parent or <code>null</code> */
+    public Node previousSibling ()
+    {
+        if (!(parent instanceof NodeWithChildren))
+            return null;
+        
+        NodeWithChildren p = (NodeWithChildren)parent;
+        int index = p.nodeIndexOf (this);
+        return index <= 0 ? null : p.getNode (index - 1);
+    }
+    
     public Element addAttributes (Attribute... attributes)
     {
         for (Attribute node: attributes)
@@ -208,6 +440,8 @@ public class Element extends NodeWithChildren implements Child, TextNode
         }
 
         attributeMap.put (name, a);
+        a.setOwner (this);
+        markModified ();
         
         if (name.startsWith (Namespace.NS_PREFIX))
         {
@@ -311,8 +545,8 @@ public class Element extends NodeWithChildren implements Child, TextNode
     
     public Element removeAttribute (String name)
     {
-        if (attributeMap != null)
-            attributeMap.remove (name);
+        if (attributeMap != null && attributeMap.remove (name) != null)
+            markModified ();
         
         return this;
     }
@@ -399,6 +633,7 @@ public class Element extends NodeWithChildren implements Child, TextNode
     public Element setCompactEmpty (boolean compactEmpty)
     {
         this.compactEmpty = compactEmpty;
+        markModified ();
         return this;
     }
 
@@ -474,6 +709,19 @@ public class Element extends NodeWithChildren implements Child, TextNode
     
     public List<Element> getChildren (final String name, final Namespace ns)
     {
+        Positions positions = name == null ? null : childPositions (name);
+        if (positions != null)
+        {
+            List<Element> result = new ArrayList<Element> (positions.size ());
+            for (int i=0; i<positions.size (); i++)
+            {
+                Element e = (Element)getNode (positions.get (i));
+                if (ns == null || ns.equals (e.getNamespace ()))
+                    result.add (e);
+            }
+            return result;
+        }
+        
         NodeFilter<Element> nameFilter = new NodeFilter<Element> () {
             @Override
             public boolean matches (Node n)
@@ -486,7 +734,7 @@ public class Element extends NodeWithChildren implements Child, TextNode
                 boolean match = true;
                 if (match && name != null && !e.getName ().equals (name))
                     match = false;
-                if (match && ns != null && !ns.equals (getNamespace ()))
+                if (match && ns != null && !ns.equals (e.getNamespace ()))
                     match = false;
                 
                 return match;
@@ -604,33 +852,18 @@ public class Element extends NodeWithChildren implements Child, TextNode
         return p.getChildPath () + "/" + getName () + "[" + index + "]";
     }
     
+    /** The index of <code>element</code> among the child elements of this element or -1 */
     public int childIndexOf (Element element)
     {
-        int index = 0;
-        for (Node n: getNodes ())
-        {
-            if (n.equals (element))
-                return index;
-            
-            if (isElement (n))
-                index ++;
-        }
+        if (element == null || element.getParent () != this || nodeIndexOf (element) == -1)
+            return -1;
         
-        return -1;
+        return element.elementIndex;
     }
 
     public Document getDocument ()
     {
-        Parent p = getParent ();
-        while (p != null)
-        {
-            if (p.getType () == Type.DOCUMENT)
-                return (Document)p;
-            
-            p = ((Child)p).getParent ();
-        }
-        
-        return null;
+        return document;
     }
     
     public Element getChild (String path)
@@ -638,81 +871,19 @@ public class Element extends NodeWithChildren implements Child, TextNode
         return getChild (path, null);
     }
     
+    /** Find an element by a path like <code>a/b[1]/c</code>.
+     * 
+     *  @param ns The namespace of the result or <code>null</code> for any namespace
+     *  @see PathExpression
+     */
     public Element getChild (String path, Namespace ns)
     {
-        if (path.startsWith ("/"))
-        {
-            Document doc = getDocument ();
-            return doc == null ? null : doc.getChild (path, ns);
-        }
-        
-        if ((path.length () == 0 || ".".equals (path))
-            && (ns == null || ns.equals (getNamespace ()))
-        )
-            return this;
-        
-        if (!hasNodes ())
-            return null;
-        
-        String[] pathSegments = path.split ("/");
-        Element current = this;
-        
-        for (int i = 0; i < pathSegments.length; i++)
-        {
-            String name = pathSegments[i];
-            int pos = name.indexOf (':');
-            Namespace ns2 = null;
-            if (pos >= 0)
-            {
-                String prefix = name.substring (0, pos);
-                name = name.substring (pos + 1);
-                ns2 = getDocument ().getNamespace (prefix);
-                if (ns2 == null)
-                    throw new XMLParseException ("Namespace prefix '"+prefix+"' is not defined");
-            }
-            pos = name.indexOf ('[');
-            int index = 0;
-            if (pos != -1)
-            {
-                int pos2 = name.indexOf (']', pos);
-                index = Integer.parseInt (name.substring (pos + 1, pos2));
-                name = name.substring (0, pos);
-            }
-            
-            int count = 0;
-            boolean found = false;
-            for (Node n: current.getNodes ())
-            {
-                if (n instanceof Element)
-                {
-                    Element e = (Element)n;
-                    if (name.equals (e.getName ())
-                        && (ns2 == null || ns2.equals (e.getNamespace ())))
-                    {
-                        if (count == index)
-                        {
-                            current = e;
-                            found = true;
-                            break;
-                        }
-                        count ++;
-                    }
-                }
-            }
-            
-            if (!found)
-                return null;
-        }
-        
-        if (ns != null && !ns.equals (current.getNamespace ()))
-            return null;
-        
-        return current;
+        return PathExpression.compile (path).evaluate (this, ns);
     }
 
     public Element createClone ()
     {
-        return new Element (name);
+        return new Element (getName ());
     }
     
     public Element copy (Node orig)
@@ -733,6 +904,11 @@ public class Element extends NodeWithChildren implements Child, TextNode
         this.compactEmpty = other.compactEmpty;
         this.endName = other.endName;
         this.name = other.name;
+        this.source = other.source;
+        this.startOffset = other.startOffset;
+        this.endOffset = other.endOffset;
+        this.nameOffset = other.nameOffset;
+        this.nameEndOffset = other.nameEndOffset;
         // Ignore parent
         this.postSpace = other.postSpace;
         this.startToken = other.startToken;
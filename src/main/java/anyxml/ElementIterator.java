@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import anyxml.XMLTokenizer.Type;
+import anyxml.dtd.DocType;
+import anyxml.dtd.DocTypeEntityResolver;
+
+/**
+ * Iterate over the elements of a document which match a simple path
+ * like <code>/feed/record</code> without building the whole tree.
+ * 
+ * <p>Each element returned by {@link #next()} is fully parsed (with all the
+ * information needed to write it back unchanged) but the iterator keeps
+ * no reference to it, so the memory needed doesn't depend on the number
+ * of elements. The ancestors of the elements only contain their attributes.
+ * 
+ * <p>The path must be absolute; the names must match the element names
+ * as they appear in the XML (i.e. including the namespace prefix).
+ * Elements which don't match are skipped with their children by counting
+ * start and end tags; no nodes are created for them and errors in them
+ * (like end tags which don't match) aren't reported. When the root element
+ * doesn't match, it isn't added to the document.
+ * 
+ * <p>When the source is an <code>XMLStreamSource</code>, the characters
+ * before an element are released when the iterator moves to it. This means
+ * that you must not use an element anymore after calling {@link #hasNext()}
+ * or {@link #next()} again.
+ * 
+ * @see anyxml.XMLParser#iterate(XMLSource, String)
+ */
+public class ElementIterator implements Iterator<Element>
+{
+    private final XMLParser parser;
+    private final ParseContext context;
+    private final XMLTokenizer tokenizer;
+    private final String[] path;
+    private final Document doc = new Document ();
+    /** The ancestors of the next match */
+    private final List<Element> stack = new ArrayList<Element> ();
+    private Element next;
+    private boolean done;
+    /** Was the root element found? It's not in <code>doc</code> when it doesn't match. */
+    private boolean foundRoot;
+    
+    public ElementIterator (XMLParser parser, XMLSource source, String path)
+    {
+        if (path == null || !path.startsWith ("/") || path.length () == 1 || path.endsWith ("/") || path.indexOf ("//") >= 0)
+            throw new IllegalArgumentException ("Expected an absolute path like '/feed/record' but was: "+path);
+        
+        this.parser = parser;
+        this.path = path.substring (1).split ("/");
+        
+        context = parser.createContext (source);
+        tokenizer = context.getTokenizer ();
+    }
+    
+    /** The document with the prolog and the root element. The root element contains only the current ancestor. */
+    public Document getDocument ()
+    {
+        return doc;
+    }
+    
+    public boolean hasNext ()
+    {
+        if (next == null && !done)
+            next = fetch ();
+        
+        return next != null;
+    }
+    
+    public Element next ()
+    {
+        if (!hasNext ())
+            throw new NoSuchElementException ();
+        
+        Element result = next;
+        next = null;
+        return result;
+    }
+    
+    public void remove ()
+    {
+        throw new UnsupportedOperationException ("remove() is not supported");
+    }
+    
+    /** Parse until the next matching element. Returns <code>null</code> at the end of the document. */
+    protected Element fetch ()
+    {
+        Token token;
+        while ((token = tokenizer.next ()) != null)
+        {
+            if (stack.isEmpty ())
+            {
+                if (token.getType () == Type.DOCTYPE)
+                {
+                    XMLTokenizer dtdTokenizer = parser.createDTDTokenizer (tokenizer.getSource (), token.getStartOffset ());
+                    
+                    DocType docType = parser.parseDocType (dtdTokenizer);
+                    doc.addNode (docType);
+                    
+                    tokenizer.setOffset (dtdTokenizer.getOffset ());
+                    
+                    context.setEntityResolver (new DocTypeEntityResolver (docType, context.getEntityResolver ()));
+                    continue;
+                }
+                
+                Node n = parser.toNode (context, token);
+                if (token.getType () != Type.BEGIN_ELEMENT)
+                {
+                    doc.addNode (n);
+                    continue;
+                }
+                
+                if (foundRoot)
+                    throw new XMLParseException ("Only one root element allowed per document", token);
+                foundRoot = true;
+                
+                Element root = (Element)n;
+                if (!path[0].equals (root.getName ()))
+                {
+                    skipElement (root);
+                    continue;
+                }
+                
+                doc.addNode (root);
+                Element match = parseChild (root);
+                if (match != null)
+                    return match;
+                continue;
+            }
+            
+            Element parent = stack.get (stack.size () - 1);
+            if (token.getType () == Type.END_ELEMENT)
+            {
+                // Let the parser check the end tag
+                tokenizer.setOffset (token.getStartOffset ());
+                parser.parseElementContent (context, parent);
+                stack.remove (stack.size () - 1);
+                continue;
+            }
+            
+            if (token.getType () == Type.BEGIN_ELEMENT)
+            {
+                Element child = (Element)parser.toNode (context, token);
+                parent.clearNodes ();
+                parent.addNode (child);
+                
+                Element match = parseChild (child);
+                if (match != null)
+                    return match;
+            }
+            else if (token.getType () == Type.ENTITY && parser.isExpandEntities (context))
+            {
+                // Entities are expanded to find errors but elements in them aren't matched
+                parser.expandEntity (context, parent, token);
+                parent.clearNodes ();
+            }
+            
+            // Other content of ancestors is dropped
+        }
+        
+        if (!stack.isEmpty ())
+        {
+            Element parent = stack.get (stack.size () - 1);
+            throw new XMLParseException ("Unexpected end-of-file while parsing children of element "+parent.getName (), tokenizer.getSource (), tokenizer.getOffset ());
+        }
+        
+        done = true;
+        parser.releaseContext (context);
+        
+        if (!foundRoot)
+            throw new XMLParseException ("No root element found");
+        
+        return null;
+    }
+
+    /** Parse an element. Returns the element if it matches the path, <code>null</code> otherwise. */
+    private Element parseChild (Element element)
+    {
+        int level = stack.size ();
+        if (!path[level].equals (element.getName ()))
+        {
+            skipElement (element);
+            return null;
+        }
+        
+        if (level + 1 == path.length)
+        {
+            XMLSource source = tokenizer.getSource ();
+            if (source instanceof XMLStreamSource)
+                ((XMLStreamSource)source).release (element.getStartOffset ());
+            
+            parser.parseElement (context, element);
+            return element;
+        }
+        
+        if (parser.parseStartTag (context, element))
+            stack.add (element);
+        
+        return null;
+    }
+    
+    /** Skip the attributes and the content of an element up to and including its end tag */
+    private void skipElement (Element element)
+    {
+        XMLSource source = tokenizer.getSource ();
+        XMLStreamSource stream = (source instanceof XMLStreamSource) ? (XMLStreamSource)source : null;
+        int level = 0;
+        while (true)
+        {
+            // Keep the last character of the previous token; it's needed to check a ">" after it
+            if (stream != null)
+                stream.release (tokenizer.getOffset () - 1);
+            
+            if (!tokenizer.advance ())
+                break;
+            
+            Type type = tokenizer.tokenType ();
+            if (type == Type.BEGIN_ELEMENT_END)
+            {
+                // The token is either ">" or "/>" with leading whitespace
+                if (source.charAt (tokenizer.tokenEnd () - 2) != '/')
+                    level ++;
+                else if (level == 0)
+                    return;
+            }
+            else if (type == Type.END_ELEMENT)
+            {
+                level --;
+                if (level == 0)
+                    return;
+            }
+        }
+        
+        if (level == 0)
+            throw new XMLParseException ("Unexpected end-of-file while parsing attributes of element "+element.getName (), source, tokenizer.getOffset ());
+        throw new XMLParseException ("Unexpected end-of-file while parsing children of element "+element.getName (), element.getStartToken ());
+    }
+}
@@ -43,6 +43,13 @@ public class Entity extends BasicNode
         this.resolver = resolver;
     }
     
+    /** Create a compact entity from a part of <code>source</code> */
+    public Entity (XMLSource source, int startOffset, int endOffset, EntityResolver resolver)
+    {
+        super (Type.ENTITY, source, startOffset, endOffset);
+        this.resolver = resolver;
+    }
+    
     public Entity (String name)
     {
         super (Type.ENTITY, name.charAt (0) == '&' ? name : ("&" + name + ";"));
@@ -53,7 +53,7 @@ public class EntityResolver
     
     private EntityResolver parent;
     protected Map<String, String> resolveMap = new LinkedHashMap<String, String> (256);
-    private CharValidator charValidator = new CharValidator ();
+    private CharValidator charValidator = CharValidator.DEFAULT;
     
     public EntityResolver ()
     {
@@ -175,13 +175,20 @@ public class EntityResolver
         return resolve (name);
     }
     
+    /** The entities defined by this resolver (without the ones from the parent) */
+    protected Map<String, String> getEntities ()
+    {
+        return resolveMap;
+    }
+    
     /** Replace text in a string with entity references */
     public String encode (String input)
     {
-        StringBuilder buffer = new StringBuilder (resolveMap.size () * 8);
+        Map<String, String> entities = getEntities ();
+        StringBuilder buffer = new StringBuilder (entities.size () * 8);
         String delim = "(";
-        Map<String, String> reverseMap = new HashMap<String, String> (resolveMap.size ());
-        for (Map.Entry<String, String> entry: resolveMap.entrySet ())
+        Map<String, String> reverseMap = new HashMap<String, String> (entities.size ());
+        for (Map.Entry<String, String> entry: entities.entrySet ())
         {
             String value = entry.getValue ();
             reverseMap.put (value, entry.getKey ());
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * The attributes of a start tag as reported by <code>XMLEventParser</code>.
+ * 
+ * <p>Only the offsets of the attributes in the source are stored; names and
+ * values are extracted when you ask for them. The object is reused for the
+ * next start tag.
+ * 
+ * @see anyxml.XMLHandler#startElement(String, Namespace, EventAttributes)
+ */
+public class EventAttributes
+{
+    private XMLSource source;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private int count;
+    
+    protected void clear (XMLSource source)
+    {
+        this.source = source;
+        count = 0;
+    }
+    
+    /** Add an attribute token */
+    protected void add (int start, int end)
+    {
+        if (count == starts.length)
+        {
+            int[] tmp = new int[count * 2];
+            System.arraycopy (starts, 0, tmp, 0, count);
+            starts = tmp;
+            
+            tmp = new int[count * 2];
+            System.arraycopy (ends, 0, tmp, 0, count);
+            ends = tmp;
+        }
+        
+        starts[count] = start;
+        ends[count] = end;
+        count ++;
+    }
+    
+    public int getLength ()
+    {
+        return count;
+    }
+    
+    /** The start offset of the name of the attribute <code>index</code> in the source */
+    protected int nameStart (int index)
+    {
+        int pos = starts[index];
+        while (Character.isWhitespace (source.charAt (pos)))
+            pos ++;
+        return pos;
+    }
+    
+    /** The end offset of the name of the attribute <code>index</code> in the source */
+    protected int nameEnd (int index)
+    {
+        int pos = nameStart (index);
+        while (true)
+        {
+            char c = source.charAt (pos);
+            if (Character.isWhitespace (c) || c == '=')
+                return pos;
+            pos ++;
+        }
+    }
+    
+    /** The name of the attribute as it appears in the XML (i.e. with namespace prefix) */
+    public String getName (int index)
+    {
+        checkIndex (index);
+        return source.substring (nameStart (index), nameEnd (index));
+    }
+    
+    /** Compare the name of an attribute without creating a String */
+    public boolean hasName (int index, String name)
+    {
+        checkIndex (index);
+        int start = nameStart (index);
+        int end = nameEnd (index);
+        return regionMatches (start, end, name);
+    }
+    
+    private boolean regionMatches (int start, int end, String s)
+    {
+        if (end - start != s.length ())
+            return false;
+        
+        for (int i=0; i<s.length (); i++)
+        {
+            if (source.charAt (start + i) != s.charAt (i))
+                return false;
+        }
+        return true;
+    }
+    
+    /** The value with all entities still escaped */
+    public String getRawValue (int index)
+    {
+        checkIndex (index);
+        return source.substring (valueStart (index), ends[index] - 1);
+    }
+    
+    /** The start offset of the value (after the quote) in the source */
+    private int valueStart (int index)
+    {
+        int pos = nameEnd (index);
+        while (true)
+        {
+            char c = source.charAt (pos);
+            if (!(Character.isWhitespace (c) || c == '='))
+                break;
+            pos ++;
+        }
+        
+        // pos is at the quote
+        return pos + 1;
+    }
+    
+    /** Compare the value of an attribute; this creates no Strings unless the value contains entities */
+    public boolean hasValue (int index, String value)
+    {
+        checkIndex (index);
+        int start = valueStart (index);
+        int end = ends[index] - 1;
+        for (int i=start; i<end; i++)
+        {
+            if (source.charAt (i) == '&')
+                return value.equals (getValue (index));
+        }
+        
+        return regionMatches (start, end, value);
+    }
+    
+    /** The value of the attribute. Like {@link Attribute#getValue()}, the standard entities are expanded. */
+    public String getValue (int index)
+    {
+        return XMLUtils.unescapeXMLAttributeValue (getRawValue (index));
+    }
+    
+    /** The value of the attribute with the name <code>name</code> or <code>null</code> */
+    public String getValue (String name)
+    {
+        int index = indexOf (name);
+        return index == -1 ? null : getValue (index);
+    }
+    
+    /** Create a compact attribute for the attribute <code>index</code> which can be added to an element */
+    public Attribute toAttribute (int index)
+    {
+        checkIndex (index);
+        return new Attribute (source, starts[index], ends[index]);
+    }
+    
+    public int indexOf (String name)
+    {
+        for (int i=0; i<count; i++)
+        {
+            if (hasName (i, name))
+                return i;
+        }
+        return -1;
+    }
+    
+    /** Return the index of the first attribute before <code>index</code> with the same name or -1 */
+    protected int indexOfDuplicate (int index)
+    {
+        int start = nameStart (index);
+        int end = nameEnd (index);
+        
+        outer:
+        for (int i=0; i<index; i++)
+        {
+            int otherStart = nameStart (i);
+            if (nameEnd (i) - otherStart != end - start)
+                continue;
+            
+            for (int j=0; j<end - start; j++)
+            {
+                if (source.charAt (start + j) != source.charAt (otherStart + j))
+                    continue outer;
+            }
+            
+            return i;
+        }
+        return -1;
+    }
+    
+    /** Is this a namespace declaration ("xmlns:...")? */
+    protected boolean isNamespaceDeclaration (int index)
+    {
+        int start = nameStart (index);
+        int end = nameEnd (index);
+        int N = Namespace.NS_PREFIX.length ();
+        return end - start >= N && regionMatches (start, start + N, Namespace.NS_PREFIX);
+    }
+    
+    private void checkIndex (int index)
+    {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException ("Index: "+index+", Size: "+count);
+    }
+    
+    @Override
+    public String toString ()
+    {
+        StringBuilder buffer = new StringBuilder ();
+        for (int i=0; i<count; i++)
+            buffer.append (source.substring (starts[i], ends[i]));
+        return buffer.toString ();
+    }
+}
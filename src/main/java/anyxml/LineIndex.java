@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * The offsets at which the lines of a source start.
+ * 
+ * <p>The index is built lazily: The source is scanned only up to the highest offset
+ * which was requested so far. After that, the line of an offset is found with a binary
+ * search. In long lines (for example, in minified files), the column is recorded every
+ * 1024 characters, so the column of an offset is found by scanning at most that many
+ * characters from the start of the line or the last checkpoint. Line ends and tabs are
+ * counted like {@link Location} does it ("\r\n", "\r" and "\n" end a line, a tab is 8
+ * characters wide).
+ * 
+ * <p>For sources which release the characters at the start (like <code>XMLStreamSource</code>),
+ * the index can discard the lines before an offset; the line and column of that offset
+ * are kept.
+ * 
+ * <p>This class is thread-safe.
+ * 
+ * @see anyxml.LineIndexSource
+ */
+public class LineIndex
+{
+    /** In long lines, the column is recorded every this many characters */
+    final static int CHECKPOINT_INTERVAL = 1024;
+    
+    private final XMLSource source;
+    /** The start offsets of the lines; the first entry is the line <code>firstLine</code> */
+    private int[] lineStarts = new int[64];
+    private int lineCount = 1;
+    private int firstLine = 1;
+    /** All line starts before this offset are known */
+    private int scanned;
+    /** The characters before this offset have been discarded */
+    private int baseOffset;
+    /** The column at <code>baseOffset</code> */
+    private int baseColumn = 1;
+    /** The offsets in long lines at which the column was recorded, in ascending order */
+    private int[] checkpointOffsets = new int[16];
+    private int[] checkpointColumns = new int[16];
+    private int checkpointCount;
+    /** The column at <code>scanned</code> */
+    private int scanColumn = 1;
+    /** The offset of the last line start or checkpoint before <code>scanned</code> */
+    private int lastMark;
+    
+    public LineIndex (XMLSource source)
+    {
+        if (source == null)
+            throw new IllegalArgumentException ("source is null");
+        
+        this.source = source;
+    }
+    
+    /** An index for a source whose characters before <code>baseOffset</code> are already gone; lines are counted from there */
+    LineIndex (XMLSource source, int baseOffset)
+    {
+        this (source);
+        
+        this.baseOffset = baseOffset;
+        lineStarts[0] = baseOffset;
+        scanned = baseOffset;
+        lastMark = baseOffset;
+    }
+    
+    /** Set the line, column and start of line of the offset in <code>location</code> */
+    public synchronized void locate (int offset, Location location)
+    {
+        offset = Math.max (baseOffset, Math.min (source.length (), offset));
+        scanTo (offset);
+        
+        int index = find (offset);
+        
+        // An offset between "\r" and "\n" belongs to the next line
+        if (offset > baseOffset && index + 1 < lineCount && lineStarts[index + 1] == offset + 1
+            && source.charAt (offset - 1) == '\r' && source.charAt (offset) == '\n')
+        {
+            location.setLocation (firstLine + index + 1, 1, offset + 1);
+            return;
+        }
+        
+        location.setLocation (firstLine + index, column (index, offset), lineStarts[index]);
+    }
+    
+    /** The line number of <code>offset</code> */
+    public int getLine (int offset)
+    {
+        Location l = new Location (source, offset);
+        locate (offset, l);
+        return l.getLine ();
+    }
+    
+    /** The number of lines found so far */
+    public synchronized int getLineCount ()
+    {
+        return firstLine + lineCount - 1;
+    }
+    
+    /**
+     * Forget the lines before <code>offset</code>. Call this before the characters before
+     * <code>offset</code> become unavailable.
+     */
+    public synchronized void discard (int offset)
+    {
+        if (offset <= baseOffset)
+            return;
+        
+        scanTo (offset);
+        
+        // Don't stop between "\r" and "\n"
+        if (offset < scanned && source.charAt (offset - 1) == '\r' && source.charAt (offset) == '\n')
+            offset ++;
+        
+        int index = find (offset);
+        int column = column (index, offset);
+        
+        System.arraycopy (lineStarts, index, lineStarts, 0, lineCount - index);
+        lineCount -= index;
+        firstLine += index;
+        baseOffset = offset;
+        baseColumn = column;
+        
+        int checkpoint = findCheckpoint (offset - 1) + 1;
+        System.arraycopy (checkpointOffsets, checkpoint, checkpointOffsets, 0, checkpointCount - checkpoint);
+        System.arraycopy (checkpointColumns, checkpoint, checkpointColumns, 0, checkpointCount - checkpoint);
+        checkpointCount -= checkpoint;
+    }
+    
+    /** The first offset which can be located */
+    public synchronized int getBaseOffset ()
+    {
+        return baseOffset;
+    }
+    
+    /** Read the source up to <code>offset</code> and remember where the lines start */
+    private void scanTo (int offset)
+    {
+        int i = scanned;
+        int length = source.length ();
+        int column = scanColumn;
+        int mark = lastMark;
+        for ( ; i<offset; i++)
+        {
+            if (i - mark >= CHECKPOINT_INTERVAL)
+            {
+                addCheckpoint (i, column);
+                mark = i;
+            }
+            
+            char c = source.charAt (i);
+            if (c == '\r' || c == '\n')
+            {
+                if (c == '\r' && i+1 < length && source.charAt (i+1) == '\n')
+                    i ++;
+                addLine (i + 1);
+                column = 1;
+                mark = i + 1;
+            }
+            else if (c == '\t')
+                column += (8 - (column % 8)) + 1;
+            else
+                column ++;
+        }
+        
+        if (i > scanned)
+        {
+            scanned = i;
+            scanColumn = column;
+            lastMark = mark;
+        }
+    }
+    
+    private void addCheckpoint (int offset, int column)
+    {
+        if (checkpointCount == checkpointOffsets.length)
+        {
+            int[] tmp = new int[checkpointCount * 2];
+            System.arraycopy (checkpointOffsets, 0, tmp, 0, checkpointCount);
+            checkpointOffsets = tmp;
+            
+            tmp = new int[checkpointCount * 2];
+            System.arraycopy (checkpointColumns, 0, tmp, 0, checkpointCount);
+            checkpointColumns = tmp;
+        }
+        checkpointOffsets[checkpointCount] = offset;
+        checkpointColumns[checkpointCount] = column;
+        checkpointCount ++;
+    }
+    
+    private void addLine (int start)
+    {
+        if (lineCount == lineStarts.length)
+        {
+            int[] tmp = new int[lineCount * 2];
+            System.arraycopy (lineStarts, 0, tmp, 0, lineCount);
+            lineStarts = tmp;
+        }
+        lineStarts[lineCount ++] = start;
+    }
+    
+    /** The index of the last line which starts at or before <code>offset</code> */
+    private int find (int offset)
+    {
+        int low = 0;
+        int high = lineCount - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (lineStarts[mid] <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+    
+    /** The index of the last checkpoint at or before <code>offset</code> or -1 */
+    private int findCheckpoint (int offset)
+    {
+        int low = -1;
+        int high = checkpointCount - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (checkpointOffsets[mid] <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+    
+    /** The column of <code>offset</code> in the line <code>index</code> */
+    private int column (int index, int offset)
+    {
+        int pos = lineStarts[index];
+        int column = 1;
+        if (pos < baseOffset)
+        {
+            // The start of the line is gone
+            pos = baseOffset;
+            column = baseColumn;
+        }
+        
+        // A checkpoint after the start of the line is in the same line
+        int checkpoint = findCheckpoint (offset);
+        if (checkpoint >= 0 && checkpointOffsets[checkpoint] > pos)
+        {
+            pos = checkpointOffsets[checkpoint];
+            column = checkpointColumns[checkpoint];
+        }
+        
+        for ( ; pos<offset; pos++)
+        {
+            if (source.charAt (pos) == '\t')
+                column += (8 - (column % 8)) + 1;
+            else
+                column ++;
+        }
+        return column;
+    }
+    
+    /** The line and column of the first offset which can be located */
+    public synchronized Location getBaseLocation ()
+    {
+        Location l = new Location (source, baseOffset);
+        l.setLocation (firstLine, baseColumn, lineStarts[0]);
+        return l;
+    }
+}
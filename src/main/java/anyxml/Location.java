@@ -121,6 +121,13 @@ public class Location
             return;
         }
         
+        if (source instanceof LineIndexSource)
+        {
+            // Binary search instead of scanning the whole source
+            ((LineIndexSource)source).getLineIndex ().locate (offset, this);
+            return;
+        }
+        
         line = 1;
         column = 1;
         lineStartOffset = 0;
@@ -128,6 +135,14 @@ public class Location
         moveToOffset (source, offset);
     }
 
+    /** Used by <code>LineIndex</code> */
+    void setLocation (int line, int column, int lineStartOffset)
+    {
+        this.line = line;
+        this.column = column;
+        this.lineStartOffset = lineStartOffset;
+    }
+
     /**
      * This moves the line and column information by the text found in the source.
      */
@@ -153,6 +168,11 @@ public class Location
         }
     }
 
+    /**
+     * This method is called when the location of a node is requested. It serializes the
+     * document up to the node, so use <code>LocationMap</code> when you need the locations
+     * of many nodes.
+     */
     protected void calcLocationFromElement ()
     {
         if (element == null && document == null)
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The locations of all nodes of a document or element.
+ * 
+ * <p><code>new Location(element)</code> serializes the document every time it's asked
+ * for the line of a node. This class serializes it once and remembers the offset, line
+ * and column at which each node starts and the offset at which it ends. Use it when
+ * you need the positions of many nodes, for example to report all errors of a modified
+ * document.
+ * 
+ * <p>The map is a snapshot; create a new one after changing the document.
+ * 
+ * @see anyxml.Location
+ */
+public class LocationMap
+{
+    private final Map<Node, Integer> index = new IdentityHashMap<Node, Integer> ();
+    private int[] offsets = new int[64];
+    private int[] endOffsets = new int[64];
+    private int[] lines = new int[64];
+    private int[] columns = new int[64];
+    private int[] lineStartOffsets = new int[64];
+    private int size;
+    private int length;
+    
+    public LocationMap (Parent root)
+    {
+        if (root == null)
+            throw new IllegalArgumentException ("root is null");
+        
+        Recorder recorder = new Recorder ();
+        try
+        {
+            root.toXML (recorder);
+        }
+        catch (IOException e)
+        {
+            throw new XMLParseException ("Error serializing "+root, e);
+        }
+        length = recorder.counter.offset;
+    }
+    
+    /** The number of nodes in the map */
+    public int size ()
+    {
+        return size;
+    }
+    
+    /** The number of characters written */
+    public int length ()
+    {
+        return length;
+    }
+    
+    public boolean contains (Node node)
+    {
+        return index.containsKey (node);
+    }
+    
+    /** The location at which <code>node</code> starts or <code>null</code> if the node wasn't written */
+    public Location getLocation (Node node)
+    {
+        Integer i = index.get (node);
+        if (i == null)
+            return null;
+        
+        Location l = new Location (null, offsets[i]);
+        l.setLocation (lines[i], columns[i], lineStartOffsets[i]);
+        return l;
+    }
+    
+    /** The offset at which <code>node</code> starts or -1 if the node wasn't written */
+    public int getOffset (Node node)
+    {
+        Integer i = index.get (node);
+        return i == null ? -1 : offsets[i];
+    }
+    
+    /** The offset after the last character of <code>node</code> (including all children) or -1 if the node wasn't written */
+    public int getEndOffset (Node node)
+    {
+        Integer i = index.get (node);
+        return i == null ? -1 : endOffsets[i];
+    }
+    
+    private int add (Node node, Counter counter)
+    {
+        if (size == offsets.length)
+        {
+            int n = size * 2;
+            offsets = grow (offsets, n);
+            endOffsets = grow (endOffsets, n);
+            lines = grow (lines, n);
+            columns = grow (columns, n);
+            lineStartOffsets = grow (lineStartOffsets, n);
+        }
+        
+        offsets[size] = counter.offset;
+        lines[size] = counter.line;
+        columns[size] = counter.column;
+        lineStartOffsets[size] = counter.lineStartOffset;
+        index.put (node, size);
+        return size ++;
+    }
+    
+    private static int[] grow (int[] array, int size)
+    {
+        int[] tmp = new int[size];
+        System.arraycopy (array, 0, tmp, 0, array.length);
+        return tmp;
+    }
+    
+    /** Records the position before the first string of each node */
+    private class Recorder extends XMLWriter
+    {
+        private final Counter counter;
+        private Node last;
+        private int lastIndex;
+        
+        public Recorder ()
+        {
+            this (new Counter ());
+        }
+        
+        private Recorder (Counter counter)
+        {
+            super (counter);
+            this.counter = counter;
+        }
+        
+        @Override
+        public void write (Node node, String s) throws IOException
+        {
+            // The counter must see everything before the position is read
+            flushBuffer ();
+            if (node != last)
+            {
+                Integer i = index.get (node);
+                lastIndex = (i == null) ? add (node, counter) : i;
+                last = node;
+            }
+            
+            super.write (node, s);
+            flushBuffer ();
+            endOffsets[lastIndex] = counter.offset;
+        }
+    }
+    
+    /** Counts offset, line and column with the same rules as <code>Location</code> */
+    private static class Counter extends Writer
+    {
+        private int offset;
+        private int line = 1;
+        private int column = 1;
+        private int lineStartOffset;
+        private boolean afterCR;
+        
+        @Override
+        public void write (char[] cbuf, int off, int len)
+        {
+            for (int i=off; i<off+len; i++)
+                count (cbuf[i]);
+        }
+        
+        @Override
+        public void write (String str)
+        {
+            for (int i=0; i<str.length (); i++)
+                count (str.charAt (i));
+        }
+        
+        private void count (char c)
+        {
+            if (c == '\n' && afterCR)
+            {
+                // "\r\n" is a single line break
+                lineStartOffset = offset + 1;
+            }
+            else if (c == '\r' || c == '\n')
+            {
+                line ++;
+                column = 1;
+                lineStartOffset = offset + 1;
+            }
+            else if (c == '\t')
+                column += (8 - (column % 8)) + 1;
+            else
+                column ++;
+            
+            afterCR = (c == '\r');
+            offset ++;
+        }
+        
+        @Override
+        public void flush ()
+        {
+            // Nothing to do
+        }
+        
+        @Override
+        public void close ()
+        {
+            // Nothing to do
+        }
+    }
+}
@@ -35,18 +35,52 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * This class contains all the code necessary to implement nodes
  * which can have child nodes (like Document or Element).
  * 
+ * <p>Nodes with many children build an index of the child elements by name
+ * when they are searched by name. The index is updated when elements are
+ * appended and rebuilt after all other changes. The same is true for the
+ * positions of the child elements which are cached in the elements.
+ * 
+ * <p>Parsed nodes also know whether they still look exactly like their source.
+ * <code>XMLWriter</code> copies such nodes from the source instead of writing them
+ * node by node. All changes to the node, its children and its attributes clear this
+ * state in the node and all its ancestors. Changes via <code>getAttributeMap()</code>
+ * aren't noticed.
+ * 
  * @author digulla
  *
  */
 public abstract class NodeWithChildren implements Parent
 {
-    private List<Node> nodes;
+    /** Build the index of the child elements only when there are at least this many nodes */
+    final static int INDEX_THRESHOLD = 16;
+    
+    private NodeList nodes;
+    /** The positions of the child elements by name or <code>null</code>.
+     *  Readers build it on demand, so it's only published when it's complete. */
+    private volatile ChildIndex childIndex;
+    /** The modification count of <code>nodes</code> for which the positions in the child elements are valid.
+     *  This is written after the positions, so a thread which sees the current count also sees the positions. */
+    private volatile int positionsModCount;
+    /** The number of child elements; valid with the positions */
+    private int elementCount;
+    
+    /** The node must be written node by node; this is the state of all new nodes */
+    final static byte MODIFIED = 0;
+    /** The parser is reading the content of the node */
+    final static byte OPEN = 1;
+    /** The parser is reading the content of the node but the content differs from the source (for example, because an entity was expanded) */
+    final static byte OPEN_TAINTED = 2;
+    /** The node was parsed completely and hasn't changed since; it can be copied from the source */
+    final static byte VERBATIM = 3;
+    private byte sourceState = MODIFIED;
 
     public NodeWithChildren addNode (Node node)
     {
@@ -57,15 +91,43 @@ public abstract class NodeWithChildren implements Parent
     public NodeWithChildren addNode (int index, Node node)
     {
         if (nodes == null)
-            nodes = new ArrayList<Node> ();
-
+        {
+            nodes = new NodeList (this);
+            positionsModCount = nodes.getModCount ();
+            elementCount = 0;
+        }
+        
+        // Appending an element can update the index and the positions; everything else makes them invalid
+        int modCount = nodes.getModCount ();
+        boolean append = index == nodes.size ();
+        
         nodes.add (index, node);
+        
+        if (append)
+        {
+            ChildIndex childIndex = this.childIndex;
+            if (childIndex != null && childIndex.modCount == modCount)
+            {
+                if (node instanceof Element)
+                    addToIndex (childIndex.positions, ((Element)node).getName (), index);
+                this.childIndex = new ChildIndex (childIndex.positions, nodes.getModCount ());
+            }
+            
+            if (positionsModCount == modCount)
+            {
+                if (node instanceof Element)
+                    ((Element)node).setPosition (index, elementCount ++);
+                positionsModCount = nodes.getModCount ();
+            }
+        }
 
         if (node instanceof Child)
         {
             Child child = (Child)node;
             child.setParent (this);
         }
+        else if (node instanceof BasicNode)
+            ((BasicNode)node).setOwner (this);
 
         return this;
     }
@@ -118,9 +180,35 @@ public abstract class NodeWithChildren implements Parent
         if (nodes == null)
             return -1;
         
+        if (node instanceof Element && ((Element)node).getParent () == this)
+        {
+            updatePositions ();
+            int index = ((Element)node).getNodeIndex ();
+            if (index < nodes.size () && nodes.get (index) == node)
+                return index;
+        }
+        
         return nodes.indexOf (node);
     }
     
+    /** Make sure the positions which are cached in the child elements are correct */
+    void updatePositions ()
+    {
+        if (nodes == null || positionsModCount == nodes.getModCount ())
+            return;
+        
+        // Several readers may do this at the same time; they all write the same values
+        int elementCount = 0;
+        for (int i=0, N=nodes.size (); i<N; i++)
+        {
+            Node n = nodes.get (i);
+            if (n instanceof Element)
+                ((Element)n).setPosition (i, elementCount ++);
+        }
+        this.elementCount = elementCount;
+        positionsModCount = nodes.getModCount ();
+    }
+    
     public Node getNode (int index)
     {
         if (nodes == null)
@@ -184,6 +272,79 @@ public abstract class NodeWithChildren implements Parent
         return this;
     }
     
+    /**
+     * Return the positions of the child elements with the name <code>name</code> (without namespace prefix).
+     * 
+     * @return <code>null</code> if this node has too few children for an index
+     */
+    Positions childPositions (String name)
+    {
+        if (nodes == null || nodes.size () < INDEX_THRESHOLD)
+            return null;
+        
+        ChildIndex childIndex = this.childIndex;
+        int modCount = nodes.getModCount ();
+        if (childIndex == null || childIndex.modCount != modCount)
+        {
+            // Other threads may read this node at the same time, so the index is published only when it's complete
+            Map<String, Positions> positions = new HashMap<String, Positions> ();
+            for (int i=0, N=nodes.size (); i<N; i++)
+            {
+                Node n = nodes.get (i);
+                if (n instanceof Element)
+                    addToIndex (positions, ((Element)n).getName (), i);
+            }
+            childIndex = new ChildIndex (positions, modCount);
+            this.childIndex = childIndex;
+        }
+        
+        Positions result = childIndex.positions.get (name);
+        return result == null ? Positions.EMPTY : result;
+    }
+    
+    private static void addToIndex (Map<String, Positions> index, String name, int position)
+    {
+        Positions positions = index.get (name);
+        if (positions == null)
+        {
+            positions = new Positions ();
+            index.put (name, positions);
+        }
+        positions.add (position);
+    }
+    
+    /** Called when the name of a child element changes */
+    void invalidateChildIndex ()
+    {
+        childIndex = null;
+    }
+    
+    /** Copy the text which the nodes in this tree need out of the source and drop all references to it.
+     * 
+     *  <p>Use this when the tree (or a copy of a part of it) is kept much longer than the (big)
+     *  source from which it was parsed. The lists of child nodes are trimmed to their size, too.
+     *  
+     *  @return the size in bytes (2 per character) of the text which the nodes copied out of the source
+     *  @see BasicNode#releaseSource()
+     */
+    public long releaseSource ()
+    {
+        if (nodes == null)
+            return 0;
+        
+        long size = 0;
+        for (Node n: nodes)
+        {
+            if (n instanceof BasicNode)
+                size += ((BasicNode)n).releaseSource ();
+            else if (n instanceof NodeWithChildren)
+                size += ((NodeWithChildren)n).releaseSource ();
+        }
+        
+        nodes.trimToSize ();
+        return size;
+    }
+    
     public String toXML ()
     {
         return BasicNode.toXML (this);
@@ -225,4 +386,288 @@ public abstract class NodeWithChildren implements Parent
         n.copy (this);
         return n;
     }
+    
+    /** Called by the parser after the start tag */
+    void startContent ()
+    {
+        sourceState = OPEN;
+    }
+    
+    /** Called by the parser after the end tag */
+    void endContent ()
+    {
+        sourceState = (sourceState == OPEN ? VERBATIM : MODIFIED);
+    }
+    
+    /** Can this node be written by copying it from its source? */
+    boolean isVerbatim ()
+    {
+        if (sourceState == VERBATIM)
+            findUntrackedChanges ();
+        
+        return sourceState == VERBATIM;
+    }
+    
+    /** Mark the nodes in this tree whose lists were changed without going through the methods which report changes
+     *  (for example, <code>sort()</code> or <code>removeIf()</code> of <code>ArrayList</code> in Java 8). */
+    private void findUntrackedChanges ()
+    {
+        // Not recursive because the tree can be very deep
+        List<NodeWithChildren> stack = new ArrayList<NodeWithChildren> ();
+        stack.add (this);
+        while (!stack.isEmpty ())
+        {
+            NodeWithChildren n = stack.remove (stack.size () - 1);
+            if (n.nodes == null)
+                continue;
+            
+            if (n.nodes.hasUntrackedChanges ())
+                n.nodes.changed (false);
+            
+            for (Node child: n.nodes)
+            {
+                if (child instanceof NodeWithChildren)
+                    stack.add ((NodeWithChildren)child);
+            }
+        }
+    }
+    
+    /** Was the content of this node, which is still being parsed, changed? */
+    boolean isTainted ()
+    {
+        return sourceState == OPEN_TAINTED;
+    }
+    
+    /** This node or one of its children has changed, so it doesn't look like its source anymore. */
+    void markModified ()
+    {
+        NodeWithChildren n = this;
+        while (n != null)
+        {
+            // When the state of a node is MODIFIED or OPEN_TAINTED, its ancestors are in one of these states, too
+            if (n.sourceState == VERBATIM)
+                n.sourceState = MODIFIED;
+            else if (n.sourceState == OPEN)
+                n.sourceState = OPEN_TAINTED;
+            else
+                break;
+            
+            Parent p = (n instanceof Child) ? ((Child)n).getParent () : null;
+            n = (p instanceof NodeWithChildren) ? (NodeWithChildren)p : null;
+        }
+    }
+    
+    /** Appending nodes is what the parser does; everything else is a change */
+    private void nodesChanged (boolean append)
+    {
+        if (append && sourceState == OPEN)
+            return;
+        
+        markModified ();
+    }
+    
+    /** The list of child nodes; the modification count tells when the index must be rebuilt.
+     *  All changes are reported to the owner. Methods which aren't overridden here (like the ones
+     *  added in newer versions of Java) still change the modification count; such changes are
+     *  found by {@link NodeWithChildren#isVerbatim()}. */
+    private static class NodeList extends ArrayList<Node>
+    {
+        private static final long serialVersionUID = 1L;
+        
+        private final NodeWithChildren owner;
+        /** The modification count after the last change which was reported to the owner */
+        private int reportedModCount;
+        
+        public NodeList (NodeWithChildren owner)
+        {
+            this.owner = owner;
+        }
+        
+        public int getModCount ()
+        {
+            return modCount;
+        }
+        
+        /** Was the list changed by a method which doesn't report changes? */
+        boolean hasUntrackedChanges ()
+        {
+            return modCount != reportedModCount;
+        }
+        
+        /** Report a change to the owner */
+        void changed (boolean append)
+        {
+            owner.nodesChanged (append);
+            reportedModCount = modCount;
+        }
+        
+        /** Called after a method which didn't change the nodes but might have changed the modification count */
+        private void unchanged (boolean untracked)
+        {
+            if (!untracked)
+                reportedModCount = modCount;
+        }
+        
+        /** Replacing a node must invalidate the index, too */
+        @Override
+        public Node set (int index, Node element)
+        {
+            modCount ++;
+            Node old = super.set (index, element);
+            changed (false);
+            return old;
+        }
+        
+        @Override
+        public boolean add (Node e)
+        {
+            boolean added = super.add (e);
+            changed (true);
+            return added;
+        }
+        
+        @Override
+        public void add (int index, Node element)
+        {
+            boolean append = index == size ();
+            super.add (index, element);
+            changed (append);
+        }
+        
+        @Override
+        public boolean addAll (Collection<? extends Node> c)
+        {
+            boolean added = super.addAll (c);
+            changed (true);
+            return added;
+        }
+        
+        @Override
+        public boolean addAll (int index, Collection<? extends Node> c)
+        {
+            boolean append = index == size ();
+            boolean added = super.addAll (index, c);
+            changed (append);
+            return added;
+        }
+        
+        @Override
+        public Node remove (int index)
+        {
+            Node removed = super.remove (index);
+            changed (false);
+            return removed;
+        }
+        
+        @Override
+        public boolean remove (Object o)
+        {
+            boolean removed = super.remove (o);
+            if (removed)
+                changed (false);
+            return removed;
+        }
+        
+        @Override
+        public boolean removeAll (Collection<?> c)
+        {
+            boolean removed = super.removeAll (c);
+            if (removed)
+                changed (false);
+            return removed;
+        }
+        
+        @Override
+        public boolean retainAll (Collection<?> c)
+        {
+            boolean removed = super.retainAll (c);
+            if (removed)
+                changed (false);
+            return removed;
+        }
+        
+        @Override
+        public void clear ()
+        {
+            boolean empty = isEmpty ();
+            boolean untracked = hasUntrackedChanges ();
+            super.clear ();
+            if (empty)
+                unchanged (untracked);
+            else
+                changed (false);
+        }
+        
+        @Override
+        protected void removeRange (int fromIndex, int toIndex)
+        {
+            boolean untracked = hasUntrackedChanges ();
+            super.removeRange (fromIndex, toIndex);
+            if (fromIndex < toIndex)
+                changed (false);
+            else
+                unchanged (untracked);
+        }
+        
+        /** Doesn't change the nodes (but newer versions of Java count it as a modification) */
+        @Override
+        public void trimToSize ()
+        {
+            boolean untracked = hasUntrackedChanges ();
+            super.trimToSize ();
+            unchanged (untracked);
+        }
+        
+        /** Doesn't change the nodes (but newer versions of Java count it as a modification) */
+        @Override
+        public void ensureCapacity (int minCapacity)
+        {
+            boolean untracked = hasUntrackedChanges ();
+            super.ensureCapacity (minCapacity);
+            unchanged (untracked);
+        }
+    }
+    
+    /** The positions of the child elements by name and the modification count of the nodes for which they are valid */
+    private static class ChildIndex
+    {
+        final Map<String, Positions> positions;
+        final int modCount;
+        
+        ChildIndex (Map<String, Positions> positions, int modCount)
+        {
+            this.positions = positions;
+            this.modCount = modCount;
+        }
+    }
+    
+    /** The positions of the child elements with the same name in ascending order */
+    static class Positions
+    {
+        final static Positions EMPTY = new Positions ();
+        
+        private int[] values = new int[4];
+        private int size;
+        
+        void add (int position)
+        {
+            if (size == values.length)
+            {
+                int[] tmp = new int[size * 2];
+                System.arraycopy (values, 0, tmp, 0, size);
+                values = tmp;
+            }
+            values[size ++] = position;
+        }
+        
+        public int size ()
+        {
+            return size;
+        }
+        
+        public int get (int index)
+        {
+            return values[index];
+        }
+    }
 }
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The state of a single call to <code>XMLParser.parse()</code>.
+ * 
+ * <p><code>XMLParser</code> only contains the configuration; everything which
+ * changes while a document is parsed lives in this object. That way, one
+ * parser can be used by several threads at the same time.
+ * 
+ * @see anyxml.XMLParser
+ */
+public class ParseContext
+{
+    private final XMLTokenizer tokenizer;
+    /** The entity resolver for this document (including the entities from the doc type) */
+    private EntityResolver entityResolver;
+    /** The entities which are currently being expanded */
+    private Set<String> recursionTrap;
+    
+    public ParseContext (XMLTokenizer tokenizer, EntityResolver entityResolver)
+    {
+        if (tokenizer == null)
+            throw new IllegalArgumentException ("tokenizer is null");
+        
+        this.tokenizer = tokenizer;
+        this.entityResolver = entityResolver;
+    }
+    
+    public XMLTokenizer getTokenizer ()
+    {
+        return tokenizer;
+    }
+    
+    public XMLSource getSource ()
+    {
+        return tokenizer.getSource ();
+    }
+    
+    public EntityResolver getEntityResolver ()
+    {
+        return entityResolver;
+    }
+    
+    public ParseContext setEntityResolver (EntityResolver entityResolver)
+    {
+        this.entityResolver = entityResolver;
+        return this;
+    }
+    
+    public Set<String> getRecursionTrap ()
+    {
+        if (recursionTrap == null)
+            recursionTrap = new HashSet<String> ();
+        
+        return recursionTrap;
+    }
+    
+    /** Create a context to parse the expansion of an entity. The new context shares the resolver and the recursion trap with this one. */
+    public ParseContext createEntityContext (XMLTokenizer entityTokenizer)
+    {
+        ParseContext context = new ParseContext (entityTokenizer, entityResolver);
+        context.recursionTrap = getRecursionTrap ();
+        return context;
+    }
+}
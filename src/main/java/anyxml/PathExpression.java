@@ -0,0 +1,593 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import anyxml.NodeWithChildren.Positions;
+
+/**
+ * A compiled path to find elements in a document, for example <code>/project/dependencies/dependency[2]/version</code>.
+ * 
+ * <p>The syntax:
+ * 
+ * <ul>
+ * <li><code>a/b</code>: The first child <code>b</code> of a child <code>a</code>. A path which starts with "/"
+ *     starts at the document, otherwise it starts at the element on which it's evaluated.
+ *     The path "" (or ".") returns this element.</li>
+ * <li><code>a//b</code>: The first element <code>b</code> anywhere below <code>a</code>.</li>
+ * <li><code>x:b</code>: An element <code>b</code> with the namespace with the prefix <code>x</code>.
+ *     Without a prefix, the namespace of the element is ignored.</li>
+ * <li><code>*</code>, <code>x:*</code>: Any element (in the namespace <code>x</code>).</li>
+ * <li><code>b[1]</code>: The second element <code>b</code> (the index starts with 0).</li>
+ * <li><code>b[@id]</code>, <code>b[@id='1']</code>: An element <code>b</code> with the attribute <code>id</code> (with the value 1).
+ *     The index of an element counts only the elements which match all the attribute predicates.</li>
+ * </ul>
+ * 
+ * <p>{@link #evaluate(Element)} (which <code>getChild()</code> uses) takes the first element which matches
+ * each step and continues with the next step below it; if a later step doesn't match, the result is <code>null</code>.
+ * {@link #findFirst(Element)} returns the first element in document order which matches all steps; when a step
+ * fails, it continues with the next candidate of the previous step.
+ * 
+ * <p>Expressions are immutable and can be used by several threads at the same time. Evaluating them
+ * doesn't allocate any memory. {@link #compile(String)} caches the expressions by the path.
+ * 
+ * @see anyxml.Element#getChild(String, Namespace)
+ * @see anyxml.PathSet
+ */
+public class PathExpression
+{
+    /** Clear the cache when it contains this many expressions */
+    private final static int CACHE_SIZE = 1024;
+    private final static ConcurrentHashMap<String, PathExpression> cache = new ConcurrentHashMap<String, PathExpression> ();
+    
+    private final String path;
+    private final boolean absolute;
+    private final Step[] steps;
+    private final boolean hasPrefixes;
+    
+    /** Compile a path. Use {@link #compile(String)} to get a cached expression. */
+    public PathExpression (String path)
+    {
+        if (path == null)
+            throw new IllegalArgumentException ("path is null");
+        
+        this.path = path;
+        this.absolute = path.startsWith ("/");
+        
+        List<Step> steps = new ArrayList<Step> ();
+        int N = path.length ();
+        int pos = 0;
+        boolean descendant = false;
+        while (pos < N)
+        {
+            char c = path.charAt (pos);
+            if (c == '/')
+            {
+                if (descendant)
+                    throw syntaxError ("Unexpected '/'", pos);
+                
+                pos ++;
+                if (pos < N && path.charAt (pos) == '/')
+                {
+                    descendant = true;
+                    pos ++;
+                }
+                continue;
+            }
+            
+            Step step = new Step ();
+            step.descendant = descendant;
+            pos = step.parse (this, pos);
+            descendant = false;
+            
+            if (step.isSelf ())
+                continue;
+            
+            steps.add (step);
+        }
+        
+        if (descendant)
+            throw syntaxError ("Expected element name after '//'", N);
+        
+        this.steps = steps.toArray (new Step[steps.size ()]);
+        
+        boolean hasPrefixes = false;
+        for (Step step: this.steps)
+            hasPrefixes |= step.prefix != null;
+        this.hasPrefixes = hasPrefixes;
+    }
+    
+    /** Return the compiled expression for <code>path</code> from the cache */
+    public static PathExpression compile (String path)
+    {
+        PathExpression result = cache.get (path);
+        if (result == null)
+        {
+            result = new PathExpression (path);
+            
+            if (cache.size () >= CACHE_SIZE)
+                cache.clear ();
+            cache.put (path, result);
+        }
+        return result;
+    }
+    
+    public String getPath ()
+    {
+        return path;
+    }
+    
+    /** Does the path start at the document? */
+    public boolean isAbsolute ()
+    {
+        return absolute;
+    }
+    
+    /** The number of steps (names) in the path */
+    public int getStepCount ()
+    {
+        return steps.length;
+    }
+    
+    Step getStep (int index)
+    {
+        return steps[index];
+    }
+    
+    /** Return the element which matches this path or <code>null</code>. Each step takes the first matching element. */
+    public Element evaluate (Element context)
+    {
+        return evaluate (context, null, false);
+    }
+    
+    /** Return the element which matches this path and which has the namespace <code>ns</code> or <code>null</code>
+     * 
+     * @param ns The namespace of the result or <code>null</code> for any namespace
+     */
+    public Element evaluate (Element context, Namespace ns)
+    {
+        return evaluate (context, ns, false);
+    }
+    
+    /** Return the element which matches this path or <code>null</code>. The path always starts at the document. */
+    public Element evaluate (Document doc)
+    {
+        return evaluate (doc, null, false);
+    }
+    
+    public Element evaluate (Document doc, Namespace ns)
+    {
+        return evaluate (doc, ns, false);
+    }
+    
+    /** Return the first element in document order which matches this path or <code>null</code> */
+    public Element findFirst (Element context)
+    {
+        return evaluate (context, null, true);
+    }
+    
+    /** Return the first element in document order which matches this path and which has the namespace <code>ns</code> or <code>null</code> */
+    public Element findFirst (Element context, Namespace ns)
+    {
+        return evaluate (context, ns, true);
+    }
+    
+    public Element findFirst (Document doc)
+    {
+        return evaluate (doc, null, true);
+    }
+    
+    public Element findFirst (Document doc, Namespace ns)
+    {
+        return evaluate (doc, ns, true);
+    }
+    
+    private Element evaluate (Element context, Namespace ns, boolean backtrack)
+    {
+        if (absolute)
+        {
+            Document doc = context.getDocument ();
+            return doc == null ? null : evaluate (doc, ns, backtrack);
+        }
+        
+        if (steps.length == 0)
+            return ns == null || ns.equals (context.getNamespace ()) ? context : null;
+        
+        Document doc = hasPrefixes ? context.getDocument () : null;
+        return backtrack ? find (context, 0, doc, ns) : select (context, doc, ns);
+    }
+    
+    private Element evaluate (Document doc, Namespace ns, boolean backtrack)
+    {
+        if (steps.length == 0)
+            return null;
+        
+        return backtrack ? find (doc, 0, doc, ns) : select (doc, doc, ns);
+    }
+    
+    /** Follow the first matching element of each step */
+    private Element select (NodeWithChildren context, Document doc, Namespace ns)
+    {
+        Element current = null;
+        NodeWithChildren parent = context;
+        for (Step step: steps)
+        {
+            current = select (parent, step, doc);
+            if (current == null)
+                return null;
+            parent = current;
+        }
+        
+        return ns == null || ns.equals (current.getNamespace ()) ? current : null;
+    }
+    
+    /** Return the first child (for "//", the first descendant) of <code>parent</code> which matches <code>step</code> */
+    private Element select (NodeWithChildren parent, Step step, Document doc)
+    {
+        int count = 0;
+        Positions positions = step.descendant || step.name == null ? null : parent.childPositions (step.name);
+        int start = 0;
+        if (positions != null && step.index >= 0 && step.prefix == null && step.attributeNames.length == 0)
+        {
+            start = step.index;
+            count = step.index;
+        }
+        
+        for (int i=start, N=positions == null ? parent.nodeCount () : positions.size (); i<N; i++)
+        {
+            Node n = parent.getNode (positions == null ? i : positions.get (i));
+            if (!(n instanceof Element))
+                continue;
+            
+            Element e = (Element)n;
+            if (step.matches (e, doc))
+            {
+                if (step.index < 0 || count == step.index)
+                    return e;
+                count ++;
+            }
+            
+            if (step.descendant)
+            {
+                Element result = select (e, step, doc);
+                if (result != null)
+                    return result;
+            }
+        }
+        
+        return null;
+    }
+    
+    /** Search the children (and for "//", all descendants) of <code>parent</code> for the first element
+     *  which matches the steps from <code>index</code> on. */
+    private Element find (NodeWithChildren parent, int index, Document doc, Namespace ns)
+    {
+        Step step = steps[index];
+        boolean last = index + 1 == steps.length;
+        int count = 0;
+        
+        // A child step with a name only needs to look at the children with that name
+        Positions positions = step.descendant || step.name == null ? null : parent.childPositions (step.name);
+        int start = 0;
+        if (positions != null && step.index >= 0 && step.prefix == null && step.attributeNames.length == 0)
+        {
+            // All these children match, so the index is the position in the list
+            start = step.index;
+            count = step.index;
+        }
+        
+        for (int i=start, N=positions == null ? parent.nodeCount () : positions.size (); i<N; i++)
+        {
+            Node n = parent.getNode (positions == null ? i : positions.get (i));
+            if (!(n instanceof Element))
+                continue;
+            
+            Element e = (Element)n;
+            if (step.matches (e, doc))
+            {
+                if (step.index < 0 || count == step.index)
+                {
+                    if (last)
+                    {
+                        if (ns == null || ns.equals (e.getNamespace ()))
+                            return e;
+                    }
+                    else
+                    {
+                        Element result = find (e, index + 1, doc, ns);
+                        if (result != null)
+                        {
+                            // With "//", the same step can match again further down and lead to an earlier result
+                            if (step.descendant)
+                            {
+                                Element nested = find (e, index, doc, ns);
+                                if (nested != null && isBefore (nested, result))
+                                    result = nested;
+                            }
+                            return result;
+                        }
+                    }
+                }
+                
+                count ++;
+                if (!step.descendant && step.index >= 0 && count > step.index)
+                    return null;
+            }
+            
+            if (step.descendant)
+            {
+                Element result = find (e, index, doc, ns);
+                if (result != null)
+                    return result;
+            }
+        }
+        
+        return null;
+    }
+    
+    /** Is <code>a</code> before <code>b</code> in document order? Both must be in the same tree. */
+    static boolean isBefore (Element a, Element b)
+    {
+        int depthA = depth (a);
+        int depthB = depth (b);
+        Child x = a;
+        Child y = b;
+        for (; depthA > depthB; depthA --)
+            x = (Child)x.getParent ();
+        for (; depthB > depthA; depthB --)
+            y = (Child)y.getParent ();
+        
+        // One is the ancestor of the other
+        if (x == y)
+            return x == a && a != b;
+        
+        while (x.getParent () != y.getParent ())
+        {
+            x = (Child)x.getParent ();
+            y = (Child)y.getParent ();
+        }
+        
+        NodeWithChildren parent = (NodeWithChildren)x.getParent ();
+        for (int i=0, N=parent.nodeCount (); i<N; i++)
+        {
+            Node n = parent.getNode (i);
+            if (n == x)
+                return true;
+            if (n == y)
+                return false;
+        }
+        return false;
+    }
+    
+    private static int depth (Child n)
+    {
+        int depth = 0;
+        for (Parent p = n.getParent (); p instanceof Child; p = ((Child)p).getParent ())
+            depth ++;
+        return depth;
+    }
+    
+    private IllegalArgumentException syntaxError (String message, int pos)
+    {
+        return new IllegalArgumentException (message+" at position "+pos+" of path '"+path+"'");
+    }
+    
+    /** Two expressions are equal when they have the same path */
+    @Override
+    public boolean equals (Object obj)
+    {
+        if (obj == this)
+            return true;
+        if (!(obj instanceof PathExpression))
+            return false;
+        
+        return path.equals (((PathExpression)obj).path);
+    }
+    
+    @Override
+    public int hashCode ()
+    {
+        return path.hashCode ();
+    }
+    
+    @Override
+    public String toString ()
+    {
+        return path;
+    }
+    
+    /** One name in the path with its predicates */
+    static class Step
+    {
+        boolean descendant;
+        /** The namespace prefix or <code>null</code> */
+        String prefix;
+        /** The name or <code>null</code> for "*" */
+        String name;
+        /** The index among the matching siblings or -1 */
+        int index = -1;
+        String[] attributeNames = new String[0];
+        /** The expected values; <code>null</code> if the attribute just has to exist */
+        String[] attributeValues = new String[0];
+        
+        /** Parse the step which starts at <code>pos</code>. Returns the position after the step. */
+        int parse (PathExpression expr, int pos)
+        {
+            String path = expr.path;
+            int N = path.length ();
+            int start = pos;
+            while (pos < N && path.charAt (pos) != '/' && path.charAt (pos) != '[')
+                pos ++;
+            
+            String name = path.substring (start, pos);
+            if (name.length () == 0)
+                throw expr.syntaxError ("Expected element name", start);
+            
+            int colon = name.indexOf (':');
+            if (colon == 0 || colon == name.length () - 1)
+                throw expr.syntaxError ("Expected namespace prefix and name", start);
+            if (colon > 0)
+            {
+                prefix = name.substring (0, colon);
+                name = name.substring (colon + 1);
+            }
+            this.name = "*".equals (name) ? null : name;
+            
+            List<String> names = new ArrayList<String> ();
+            List<String> values = new ArrayList<String> ();
+            while (pos < N && path.charAt (pos) == '[')
+            {
+                start = pos;
+                pos ++;
+                if (pos < N && path.charAt (pos) == '@')
+                {
+                    pos ++;
+                    int nameStart = pos;
+                    while (pos < N && path.charAt (pos) != '=' && path.charAt (pos) != ']')
+                        pos ++;
+                    if (pos == nameStart)
+                        throw expr.syntaxError ("Expected attribute name", pos);
+                    
+                    names.add (path.substring (nameStart, pos));
+                    
+                    String value = null;
+                    if (pos < N && path.charAt (pos) == '=')
+                    {
+                        pos ++;
+                        char quote = pos < N ? path.charAt (pos) : '\0';
+                        if (quote != '\'' && quote != '"')
+                            throw expr.syntaxError ("Expected quoted attribute value", pos);
+                        
+                        int end = path.indexOf (quote, pos + 1);
+                        if (end == -1)
+                            throw expr.syntaxError ("Missing closing quote", N);
+                        
+                        value = path.substring (pos + 1, end);
+                        pos = end + 1;
+                    }
+                    values.add (value);
+                }
+                else
+                {
+                    if (index >= 0)
+                        throw expr.syntaxError ("Only one index is allowed", start);
+                    
+                    int numberStart = pos;
+                    while (pos < N && path.charAt (pos) >= '0' && path.charAt (pos) <= '9')
+                        pos ++;
+                    if (pos == numberStart)
+                        throw expr.syntaxError ("Expected index or attribute", pos);
+                    
+                    index = Integer.parseInt (path.substring (numberStart, pos));
+                }
+                
+                if (pos >= N || path.charAt (pos) != ']')
+                    throw expr.syntaxError ("Expected ']'", pos);
+                pos ++;
+            }
+            
+            if (pos < N && path.charAt (pos) != '/')
+                throw expr.syntaxError ("Expected '/'", pos);
+            
+            attributeNames = names.toArray (attributeNames);
+            attributeValues = values.toArray (attributeValues);
+            return pos;
+        }
+        
+        /** Is this step "."? */
+        boolean isSelf ()
+        {
+            return ".".equals (name) && prefix == null && index < 0 && attributeNames.length == 0;
+        }
+        
+        /** Do the two steps match the same elements? */
+        boolean isSame (Step other)
+        {
+            return descendant == other.descendant
+                && index == other.index
+                && (prefix == null ? other.prefix == null : prefix.equals (other.prefix))
+                && (name == null ? other.name == null : name.equals (other.name))
+                && Arrays.equals (attributeNames, other.attributeNames)
+                && Arrays.equals (attributeValues, other.attributeValues);
+        }
+        
+        /** Match the start tag of an element without a document. The namespace prefixes are compared by name. */
+        boolean matches (String name, String prefix, EventAttributes attributes)
+        {
+            if (this.name != null && !this.name.equals (name))
+                return false;
+            if (this.prefix != null && !this.prefix.equals (prefix))
+                return false;
+            
+            for (int i=0; i<attributeNames.length; i++)
+            {
+                int index = attributes.indexOf (attributeNames[i]);
+                if (index == -1)
+                    return false;
+                if (attributeValues[i] != null && !attributes.hasValue (index, attributeValues[i]))
+                    return false;
+            }
+            
+            return true;
+        }
+        
+        boolean matches (Element e, Document doc)
+        {
+            if (name != null && !name.equals (e.getName ()))
+                return false;
+            
+            if (prefix != null)
+            {
+                Namespace ns = doc == null ? null : doc.getNamespace (prefix);
+                if (ns == null)
+                    throw new XMLParseException ("Namespace prefix '"+prefix+"' is not defined");
+                if (!ns.equals (e.getNamespace ()))
+                    return false;
+            }
+            
+            for (int i=0; i<attributeNames.length; i++)
+            {
+                Attribute a = e.getAttributeMap ().get (attributeNames[i]);
+                if (a == null)
+                    return false;
+                if (attributeValues[i] != null && !attributeValues[i].equals (a.getValue ()))
+                    return false;
+            }
+            
+            return true;
+        }
+    }
+}
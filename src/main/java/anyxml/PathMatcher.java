@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import anyxml.XMLTokenizer.Type;
+import anyxml.dtd.DocType;
+import anyxml.dtd.DocTypeEntityResolver;
+
+/**
+ * Extract the values of a few elements and attributes from a large source without
+ * building a document.
+ * 
+ * <p>The paths use the syntax of {@link PathExpression}; they always start at the document.
+ * A path can end with an attribute, for example <code>/feed/record/@id</code>.
+ * All elements and attributes which match are reported: elements at their end tag and
+ * attributes at the start tag of their element. So the attributes of an element are
+ * reported before the elements in it.
+ * 
+ * <p>The matcher works directly on the tokens of <code>XMLTokenizer</code>. Element names are
+ * only created for elements which can match a path; all other elements are skipped with
+ * their children by counting start and end tags. No nodes are created.
+ * 
+ * <p>Since the content which is skipped isn't checked, errors in it (like end tags which don't
+ * match) aren't reported. Namespace prefixes in the paths are compared with the prefixes in the
+ * source.
+ * 
+ * <p>An <code>XMLStreamSource</code> is told to release the characters which have been parsed,
+ * so the memory needed doesn't grow with the size of the document.
+ * 
+ * <p>A matcher can be used for many sources but not by several threads at the same time.
+ * 
+ * @see anyxml.PathSet
+ */
+public class PathMatcher
+{
+    private final XMLParser parser;
+    private final PathSet set = new PathSet ();
+    private final List<Registration> registrations = new ArrayList<Registration> ();
+    /** The registrations for each expression in <code>set</code> */
+    private final List<List<Registration>> byExpression = new ArrayList<List<Registration>> ();
+    
+    private XMLSource source;
+    /** The source if it can release parsed characters */
+    private XMLStreamSource stream;
+    private XMLTokenizer tokenizer;
+    private EntityResolver resolver;
+    private PathSet.Matcher matcher;
+    private final EventAttributes attributes = new EventAttributes ();
+    
+    /** The open elements */
+    private String[] qualifiedNames = new String[32];
+    private int[] startOffsets = new int[32];
+    private int depth;
+    
+    /** The elements whose text is collected */
+    private final List<Capture> captures = new ArrayList<Capture> ();
+    
+    /** Cache for element names and prefixes. The size must be a power of two. */
+    private final String[] nameCache = new String[256];
+    
+    public PathMatcher ()
+    {
+        this (new XMLParser ());
+    }
+    
+    /** The settings (entity resolver, character validator, ...) are taken from <code>parser</code> */
+    public PathMatcher (XMLParser parser)
+    {
+        this.parser = parser;
+    }
+    
+    /** Collect the values for <code>path</code>; they are returned by {@link #match(XMLSource)}. Adding the same path twice has no effect. */
+    public PathMatcher add (String path)
+    {
+        return add (path, null);
+    }
+    
+    /** Pass the values for <code>path</code> to <code>handler</code> */
+    public PathMatcher add (String path, PathHandler handler)
+    {
+        if (path == null)
+            throw new IllegalArgumentException ("path is null");
+        
+        String elementPath = path;
+        String attribute = null;
+        int pos = path.lastIndexOf ('/');
+        if (path.startsWith ("@", pos + 1))
+        {
+            attribute = path.substring (pos + 2);
+            if (attribute.length () == 0 || attribute.indexOf ('[') != -1)
+                throw new IllegalArgumentException ("Expected attribute name at position "+(pos + 2)+" of path '"+path+"'");
+            
+            elementPath = pos < 0 ? "" : path.substring (0, pos);
+            if (pos > 0 && path.charAt (pos - 1) == '/')
+                elementPath += "/*";
+        }
+        
+        // The values of a path without a handler are returned in a map, so only one list is needed
+        if (handler == null)
+        {
+            for (Registration r: registrations)
+            {
+                if (r.handler == null && r.path.equals (path))
+                    return this;
+            }
+        }
+        
+        PathExpression expr = PathExpression.compile (elementPath);
+        if (expr.getStepCount () == 0)
+            throw new IllegalArgumentException ("Path must contain an element name: '"+path+"'");
+        
+        int index = set.indexOf (expr);
+        if (index == -1)
+        {
+            index = set.size ();
+            set.add (expr);
+            byExpression.add (new ArrayList<Registration> ());
+        }
+        
+        Registration r = new Registration (path, attribute, handler);
+        registrations.add (r);
+        byExpression.get (index).add (r);
+        return this;
+    }
+    
+    /**
+     * Find all the paths in <code>source</code>.
+     * 
+     * @return The values of the paths which were added without a handler, in the order in which they were added.
+     */
+    public Map<String, List<String>> match (XMLSource source)
+    {
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>> ();
+        for (Registration r: registrations)
+        {
+            if (r.handler == null)
+            {
+                r.values = new ArrayList<String> ();
+                result.put (r.path, r.values);
+            }
+        }
+        
+        this.source = source;
+        stream = (source instanceof XMLStreamSource) ? (XMLStreamSource)source : null;
+        ParseContext context = parser.createContext (source);
+        tokenizer = context.getTokenizer ();
+        matcher = new PathSet.Matcher (set);
+        matcher.start (true, true);
+        depth = 0;
+        
+        try
+        {
+            Token token;
+            while ((token = tokenizer.next ()) != null)
+            {
+                if (token.getType () == Type.DOCTYPE)
+                {
+                    XMLTokenizer dtdTokenizer = parser.createDTDTokenizer (source, token.getStartOffset ());
+                    DocType docType = parser.parseDocType (dtdTokenizer);
+                    tokenizer.setOffset (dtdTokenizer.getOffset ());
+                    
+                    context.setEntityResolver (new DocTypeEntityResolver (docType, context.getEntityResolver ()));
+                }
+                else if (token.getType () == Type.BEGIN_ELEMENT)
+                {
+                    resolver = context.getEntityResolver ();
+                    if (parseStartTag (token.getStartOffset (), token.getEndOffset ()))
+                        parseContent ();
+                }
+            }
+        }
+        finally
+        {
+            parser.releaseContext (context);
+            for (Registration r: registrations)
+                r.values = null;
+            for (int i=0; i<depth; i++)
+                qualifiedNames[i] = null;
+            captures.clear ();
+            attributes.clear (null);
+            this.source = null;
+            stream = null;
+            tokenizer = null;
+            resolver = null;
+            matcher = null;
+        }
+        
+        return result;
+    }
+    
+    /** Parse the content of the root element */
+    protected void parseContent ()
+    {
+        while (depth > 0)
+        {
+            release ();
+            if (!tokenizer.advance ())
+                throw unexpectedEOF ();
+            
+            switch (tokenizer.tokenType ())
+            {
+            case BEGIN_ELEMENT:
+                parseStartTag (tokenizer.tokenStart (), tokenizer.tokenEnd ());
+                break;
+                
+            case END_ELEMENT:
+                parseEndTag ();
+                break;
+                
+            case TEXT:
+                if (!captures.isEmpty ())
+                    appendText (source.substring (tokenizer.tokenStart (), tokenizer.tokenEnd ()));
+                break;
+                
+            case CDATA:
+                if (!captures.isEmpty ())
+                    appendText (source.substring (tokenizer.tokenStart () + 9, tokenizer.tokenEnd () - 3));
+                break;
+                
+            case ENTITY:
+                if (!captures.isEmpty ())
+                {
+                    String entity = source.substring (tokenizer.tokenStart (), tokenizer.tokenEnd ());
+                    if (resolver != null)
+                    {
+                        String expanded = resolver.expand (entity);
+                        if (expanded == null)
+                            throw new XMLParseException ("Entity "+entity+" is not defined", copyToken ());
+                        entity = expanded;
+                    }
+                    appendText (entity);
+                }
+                break;
+                
+            case COMMENT:
+            case PROCESSING_INSTRUCTION:
+                break;
+                
+            default:
+                throw new XMLParseException ("Unexpected token "+copyToken (), copyToken ());
+            }
+        }
+    }
+    
+    /**
+     * Parse a start tag and report the attributes which match. If no path can match below the element,
+     * it is skipped.
+     * 
+     * @return <code>false</code> if the element was empty or skipped
+     */
+    protected boolean parseStartTag (int start, int end)
+    {
+        // Same as the Element constructor: skip '<' and trim
+        int nameStart = start + 1;
+        int nameEnd = end;
+        while (nameEnd > nameStart && Character.isWhitespace (source.charAt (nameEnd - 1)))
+            nameEnd --;
+        while (nameStart < nameEnd && Character.isWhitespace (source.charAt (nameStart)))
+            nameStart ++;
+        String qualifiedName = name (nameStart, nameEnd);
+        
+        attributes.clear (source);
+        boolean foundEnd = false;
+        while (tokenizer.advance ())
+        {
+            Type type = tokenizer.tokenType ();
+            if (type == Type.BEGIN_ELEMENT_END)
+            {
+                foundEnd = true;
+                break;
+            }
+            
+            if (type != Type.ATTRIBUTE)
+                throw new XMLParseException ("Unexpected token "+copyToken ()+" while parsing attributes of element "+qualifiedName, copyToken ());
+            
+            attributes.add (tokenizer.tokenStart (), tokenizer.tokenEnd ());
+        }
+        
+        if (!foundEnd)
+            throw new XMLParseException ("Unexpected end-of-file while parsing attributes of element "+qualifiedName, source, tokenizer.getOffset ());
+        
+        String name = qualifiedName;
+        String prefix = "";
+        int pos = qualifiedName.indexOf (':');
+        if (pos > 0)
+        {
+            prefix = name (nameStart, nameStart + pos);
+            name = name (nameStart + pos + 1, nameEnd);
+        }
+        
+        boolean active = matcher.enter (name, prefix, attributes);
+        for (int i=0; i<matcher.matchedCount; i++)
+        {
+            for (Registration r: byExpression.get (matcher.matched[i]))
+            {
+                if (r.attribute == null)
+                {
+                    captures.add (new Capture (r, depth, start));
+                    continue;
+                }
+                
+                int index = attributes.indexOf (r.attribute);
+                if (index != -1)
+                    r.report (attributes.getValue (index), start);
+            }
+        }
+        
+        // The BEGIN_ELEMENT_END token is either ">" or "/>" with leading whitespace
+        if (source.charAt (tokenizer.tokenEnd () - 2) == '/')
+        {
+            endElement ();
+            return false;
+        }
+        
+        push (qualifiedName, start);
+        if (!active && captures.isEmpty ())
+        {
+            skipContent ();
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /** Skip the content of the current element up to and including its end tag */
+    protected void skipContent ()
+    {
+        int level = 1;
+        while (true)
+        {
+            release ();
+            if (!tokenizer.advance ())
+                throw unexpectedEOF ();
+            
+            Type type = tokenizer.tokenType ();
+            if (type == Type.BEGIN_ELEMENT_END)
+            {
+                if (source.charAt (tokenizer.tokenEnd () - 2) != '/')
+                    level ++;
+            }
+            else if (type == Type.END_ELEMENT)
+            {
+                level --;
+                if (level == 0)
+                {
+                    parseEndTag ();
+                    return;
+                }
+            }
+        }
+    }
+    
+    /** Check the end tag and report the elements which end here */
+    protected void parseEndTag ()
+    {
+        // Skip "</" and ">" and trim
+        int start = tokenizer.tokenStart () + 2;
+        int end = tokenizer.tokenEnd () - 1;
+        while (end > start && Character.isWhitespace (source.charAt (end - 1)))
+            end --;
+        while (start < end && Character.isWhitespace (source.charAt (start)))
+            start ++;
+        
+        int top = depth - 1;
+        String qualifiedName = qualifiedNames[top];
+        if (!regionMatches (start, end, qualifiedName))
+        {
+            Location l = new Location (copyToken ());
+            throw new XMLParseException ("End element '"+source.substring (start, end)+"' at line "+l.getLine ()+", column "+l.getColumn ()+" doesn't match with '"+qualifiedName+"'",
+                    copyToken (Type.BEGIN_ELEMENT, startOffsets[top], startOffsets[top] + qualifiedName.length () + 1));
+        }
+        
+        depth --;
+        qualifiedNames[top] = null;
+        endElement ();
+    }
+    
+    /** Report the captures of the element at <code>depth</code> and leave it */
+    private void endElement ()
+    {
+        for (int i=captures.size () - 1; i >= 0; i--)
+        {
+            Capture c = captures.get (i);
+            if (c.depth < depth)
+                break;
+            
+            captures.remove (i);
+            c.registration.report (c.text.toString (), c.offset);
+        }
+        
+        matcher.leave ();
+    }
+    
+    /**
+     * No token points to the characters before the next one, so a stream source can drop them.
+     * The last character of the previous token is kept; it's needed to check a "&gt;" after it.
+     */
+    private void release ()
+    {
+        if (stream != null)
+            stream.release (tokenizer.getOffset () - 1);
+    }
+    
+    private void appendText (String text)
+    {
+        for (int i=0; i<captures.size (); i++)
+            captures.get (i).text.append (text);
+    }
+    
+    private XMLParseException unexpectedEOF ()
+    {
+        int top = depth - 1;
+        return new XMLParseException ("Unexpected end-of-file while parsing children of element "+qualifiedNames[top],
+                copyToken (Type.BEGIN_ELEMENT, startOffsets[top], startOffsets[top] + qualifiedNames[top].length () + 1));
+    }
+    
+    /** Create a token which can be passed to an exception */
+    private Token copyToken ()
+    {
+        return copyToken (tokenizer.tokenType (), tokenizer.tokenStart (), tokenizer.tokenEnd ());
+    }
+    
+    private Token copyToken (Type type, int start, int end)
+    {
+        Token token = new Token ();
+        token.setSource (source);
+        token.setType (type);
+        token.setStartOffset (start);
+        token.setEndOffset (end);
+        return token;
+    }
+    
+    private void push (String qualifiedName, int start)
+    {
+        if (depth == qualifiedNames.length)
+        {
+            int size = depth * 2;
+            String[] tmp = new String[size];
+            System.arraycopy (qualifiedNames, 0, tmp, 0, depth);
+            qualifiedNames = tmp;
+            
+            int[] tmpOffsets = new int[size];
+            System.arraycopy (startOffsets, 0, tmpOffsets, 0, depth);
+            startOffsets = tmpOffsets;
+        }
+        
+        qualifiedNames[depth] = qualifiedName;
+        startOffsets[depth] = start;
+        depth ++;
+    }
+    
+    /** Get a name from the source; repeated names don't allocate new strings */
+    private String name (int start, int end)
+    {
+        int hash = 0;
+        for (int i=start; i<end; i++)
+            hash = 31 * hash + source.charAt (i);
+        
+        int slot = (hash ^ (hash >>> 16)) & (nameCache.length - 1);
+        String name = nameCache[slot];
+        if (name == null || !regionMatches (start, end, name))
+        {
+            name = source.substring (start, end);
+            nameCache[slot] = name;
+        }
+        return name;
+    }
+    
+    private boolean regionMatches (int start, int end, String s)
+    {
+        if (end - start != s.length ())
+            return false;
+        
+        for (int i=0; i<s.length (); i++)
+        {
+            if (source.charAt (start + i) != s.charAt (i))
+                return false;
+        }
+        return true;
+    }
+    
+    @Override
+    public String toString ()
+    {
+        StringBuilder buffer = new StringBuilder ();
+        for (Registration r: registrations)
+        {
+            if (buffer.length () > 0)
+                buffer.append (", ");
+            buffer.append (r.path);
+        }
+        return "[" + buffer + "]";
+    }
+    
+    /** A path which was added with its handler */
+    private static class Registration
+    {
+        private final String path;
+        /** The name of the attribute or <code>null</code> for the text of the element */
+        private final String attribute;
+        private final PathHandler handler;
+        /** The collected values if there is no handler */
+        private List<String> values;
+        
+        public Registration (String path, String attribute, PathHandler handler)
+        {
+            this.path = path;
+            this.attribute = attribute;
+            this.handler = handler;
+        }
+        
+        public void report (String value, int offset)
+        {
+            if (handler != null)
+                handler.matched (path, value, offset);
+            else
+                values.add (value);
+        }
+    }
+    
+    /** Collects the text of an element which matched */
+    private static class Capture
+    {
+        private final Registration registration;
+        /** The depth of the element */
+        private final int depth;
+        private final int offset;
+        private final StringBuilder text = new StringBuilder ();
+        
+        public Capture (Registration registration, int depth, int offset)
+        {
+            this.registration = registration;
+            this.depth = depth;
+            this.offset = offset;
+        }
+    }
+}
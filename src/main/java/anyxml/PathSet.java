@@ -0,0 +1,666 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import anyxml.PathExpression.Step;
+
+/**
+ * A set of path expressions which are evaluated together in a single pass.
+ * 
+ * <p>The expressions are merged into a tree of steps, so a common prefix like
+ * <code>/project/dependencies</code> is matched only once for all the paths which start with it.
+ * The evaluation visits each element at most once and skips subtrees in which no path can match;
+ * it stops as soon as all expressions have found their element.
+ * 
+ * <p>Each expression returns the same element as {@link PathExpression#findFirst(Element)}.
+ * 
+ * <p>A set can also be evaluated while parsing a source with {@link #evaluate(XMLParser, XMLSource)};
+ * in this case, no document is built, only the elements which are returned.
+ * 
+ * <p>The set can be used by several threads at the same time as long as no expressions are added.
+ * 
+ * @see anyxml.PathExpression
+ * @see anyxml.PathMatcher
+ */
+public class PathSet
+{
+    private final List<PathExpression> expressions = new ArrayList<PathExpression> ();
+    /** The roots of the tree of steps for relative and absolute paths */
+    private final State relativeRoot = new State (null);
+    private final State absoluteRoot = new State (null);
+    /** The number of steps with an index; each needs a counter per parent */
+    private int counters;
+    
+    public PathSet ()
+    {
+    }
+    
+    public PathSet (String... paths)
+    {
+        for (String path: paths)
+            add (path);
+    }
+    
+    /** Add a path. Adding the same path twice has no effect. */
+    public PathSet add (String path)
+    {
+        return add (PathExpression.compile (path));
+    }
+    
+    public PathSet add (PathExpression expr)
+    {
+        if (expr == null)
+            throw new IllegalArgumentException ("expr is null");
+        
+        if (expressions.contains (expr))
+            return this;
+        
+        State state = expr.isAbsolute () ? absoluteRoot : relativeRoot;
+        for (int i=0; i<expr.getStepCount (); i++)
+        {
+            Step step = expr.getStep (i);
+            State child = state.getChild (step);
+            if (child == null)
+            {
+                child = new State (step);
+                if (step.index >= 0)
+                    child.counter = counters ++;
+                state.addChild (child);
+            }
+            state = child;
+        }
+        
+        state.addExpression (expressions.size ());
+        expressions.add (expr);
+        return this;
+    }
+    
+    /** The index of <code>expr</code> in the order in which the expressions were added or -1 */
+    int indexOf (PathExpression expr)
+    {
+        return expressions.indexOf (expr);
+    }
+    
+    public List<PathExpression> getExpressions ()
+    {
+        return new ArrayList<PathExpression> (expressions);
+    }
+    
+    public int size ()
+    {
+        return expressions.size ();
+    }
+    
+    /**
+     * Evaluate all expressions against the document. Like in {@link Document#getChild(String)},
+     * all paths start at the document.
+     * 
+     * @return A map with all the expressions in the order in which they were added. The value is
+     * <code>null</code> when no element matches.
+     */
+    public Map<PathExpression, Element> evaluate (Document doc)
+    {
+        Element[] results = new Element[expressions.size ()];
+        new Matcher (this, results).find (doc, doc, true, true);
+        return toMap (results);
+    }
+    
+    /**
+     * Evaluate all expressions against the element. Relative paths start at <code>context</code>,
+     * absolute paths at its document.
+     * 
+     * @return A map with all the expressions in the order in which they were added. The value is
+     * <code>null</code> when no element matches.
+     */
+    public Map<PathExpression, Element> evaluate (Element context)
+    {
+        Element[] results = new Element[expressions.size ()];
+        for (int i=0; i<results.length; i++)
+        {
+            PathExpression expr = expressions.get (i);
+            if (!expr.isAbsolute () && expr.getStepCount () == 0)
+                results[i] = context;
+        }
+        
+        Document doc = context.getDocument ();
+        Matcher matcher = new Matcher (this, results);
+        matcher.find (context, doc, true, false);
+        if (doc != null)
+            matcher.find (doc, doc, false, true);
+        return toMap (results);
+    }
+    
+    /**
+     * Parse <code>source</code> and evaluate all expressions while parsing. All paths start at the document.
+     * 
+     * <p>The results are copies of the matching elements with all their children; they don't have
+     * a parent or a document. Parsing stops when all expressions have found their element.
+     * 
+     * <p>Since there is no document, namespace prefixes in the paths are compared with the prefixes
+     * in the source.
+     */
+    public Map<PathExpression, Element> evaluate (XMLParser parser, XMLSource source)
+    {
+        Element[] results = new Element[expressions.size ()];
+        StreamMatcher handler = new StreamMatcher (this, results, source, parser.getEntityResolver ());
+        try
+        {
+            parser.parse (source, handler);
+        }
+        catch (StopParsing e)
+        {
+            // All expressions were found
+        }
+        
+        for (Element e: results)
+        {
+            if (e != null)
+                e.releaseSource ();
+        }
+        return toMap (results);
+    }
+    
+    public Map<PathExpression, Element> evaluate (XMLSource source)
+    {
+        return evaluate (new XMLParser (), source);
+    }
+    
+    private Map<PathExpression, Element> toMap (Element[] results)
+    {
+        Map<PathExpression, Element> map = new LinkedHashMap<PathExpression, Element> ();
+        for (int i=0; i<results.length; i++)
+            map.put (expressions.get (i), results[i]);
+        return map;
+    }
+    
+    @Override
+    public String toString ()
+    {
+        return expressions.toString ();
+    }
+    
+    /** A node in the tree of steps */
+    private static class State
+    {
+        private final Step step;
+        private final List<State> children = new ArrayList<State> ();
+        /** Is there at least one child with "//"? Then the state must be passed on to all descendants. */
+        private boolean hasDescendantChildren;
+        /** The index of the counter if the step has an index or -1 */
+        private int counter = -1;
+        /** The expressions which end with this step */
+        private int[] expressions = new int[0];
+        
+        public State (Step step)
+        {
+            this.step = step;
+        }
+        
+        public State getChild (Step step)
+        {
+            for (int i=0; i<children.size (); i++)
+            {
+                State child = children.get (i);
+                if (child.step.isSame (step))
+                    return child;
+            }
+            return null;
+        }
+        
+        public void addChild (State child)
+        {
+            children.add (child);
+            hasDescendantChildren |= child.step.descendant;
+        }
+        
+        public void addExpression (int index)
+        {
+            int[] tmp = new int[expressions.length + 1];
+            System.arraycopy (expressions, 0, tmp, 0, expressions.length);
+            tmp[expressions.length] = index;
+            expressions = tmp;
+        }
+    }
+    
+    /**
+     * Keeps track of the states which are active for each open element.
+     * 
+     * <p>A state is <em>direct</em> if its step matched the element; then all its children are tested
+     * against the children of the element. A state which is only passed on from an ancestor because
+     * of "//" tests only its descendant steps.
+     * 
+     * <p>Without an array for the results, the matcher reports every element which matches and never stops.
+     */
+    static class Matcher
+    {
+        private final PathSet set;
+        private final Element[] results;
+        private int found;
+        
+        private State[][] states = new State[16][];
+        private boolean[][] direct = new boolean[16][];
+        private int[] sizes = new int[16];
+        /** The counters for the steps with an index; they are valid when the stamp matches the stamp of the frame. */
+        private int[][] counts = new int[16][];
+        private int[][] countStamps = new int[16][];
+        private int[] frameStamps = new int[16];
+        private int stamp;
+        private int depth;
+        
+        /** The expressions which were matched by the last call of <code>enter()</code> */
+        int[] matched = new int[8];
+        int matchedCount;
+        
+        /** The element which is tested; either a node or the arguments of a start tag event */
+        private Element element;
+        private Document doc;
+        private String name;
+        private String prefix;
+        private EventAttributes attributes;
+        
+        /** Create a matcher which reports all elements which match */
+        public Matcher (PathSet set)
+        {
+            this (set, null);
+        }
+        
+        public Matcher (PathSet set, Element[] results)
+        {
+            this.set = set;
+            this.results = results;
+            if (results == null)
+                return;
+            
+            for (int i=0; i<results.length; i++)
+            {
+                if (set.expressions.get (i).getStepCount () == 0)
+                    found ++;
+            }
+        }
+        
+        public boolean isDone ()
+        {
+            return results != null && found == results.length;
+        }
+        
+        /** Start with the roots in the first frame */
+        public void start (boolean relative, boolean absolute)
+        {
+            depth = 0;
+            sizes[0] = 0;
+            frameStamps[0] = ++ stamp;
+            if (relative)
+                add (0, set.relativeRoot, true);
+            if (absolute)
+                add (0, set.absoluteRoot, true);
+        }
+        
+        /** Search the descendants of <code>start</code> */
+        public void find (NodeWithChildren start, Document doc, boolean relative, boolean absolute)
+        {
+            if (isDone ())
+                return;
+            
+            this.doc = doc;
+            start (relative, absolute);
+            
+            NodeWithChildren[] parents = new NodeWithChildren[16];
+            int[] childIndex = new int[16];
+            int level = 0;
+            parents[0] = start;
+            
+            while (level >= 0)
+            {
+                NodeWithChildren parent = parents[level];
+                if (childIndex[level] >= parent.nodeCount ())
+                {
+                    parents[level] = null;
+                    level --;
+                    leave ();
+                    continue;
+                }
+                
+                Node n = parent.getNode (childIndex[level] ++);
+                if (!(n instanceof Element))
+                    continue;
+                
+                element = (Element)n;
+                boolean active = enter ();
+                for (int i=0; i<matchedCount; i++)
+                    setResult (matched[i], element);
+                if (isDone ())
+                    break;
+                
+                if (!active)
+                {
+                    leave ();
+                    continue;
+                }
+                
+                level ++;
+                if (level == parents.length)
+                {
+                    NodeWithChildren[] tmp = new NodeWithChildren[level * 2];
+                    System.arraycopy (parents, 0, tmp, 0, level);
+                    parents = tmp;
+                    
+                    int[] tmp2 = new int[level * 2];
+                    System.arraycopy (childIndex, 0, tmp2, 0, level);
+                    childIndex = tmp2;
+                }
+                parents[level] = element;
+                childIndex[level] = 0;
+            }
+            
+            element = null;
+            this.doc = null;
+        }
+        
+        public void setResult (int index, Element e)
+        {
+            if (results[index] == null)
+            {
+                results[index] = e;
+                found ++;
+            }
+        }
+        
+        /** Test a start tag. The matched expressions are in <code>matched</code>. */
+        public boolean enter (String name, String prefix, EventAttributes attributes)
+        {
+            this.name = name;
+            this.prefix = prefix;
+            this.attributes = attributes;
+            try
+            {
+                return enter ();
+            }
+            finally
+            {
+                this.name = null;
+                this.prefix = null;
+                this.attributes = null;
+            }
+        }
+        
+        private boolean matches (Step step)
+        {
+            if (element != null)
+                return step.matches (element, doc);
+            return step.matches (name, prefix, attributes);
+        }
+        
+        /** Open a new frame for the current element. Returns <code>false</code> if no path can match below it. */
+        private boolean enter ()
+        {
+            int parent = depth;
+            depth ++;
+            ensureCapacity (depth);
+            sizes[depth] = 0;
+            frameStamps[depth] = ++ stamp;
+            matchedCount = 0;
+            
+            State[] parentStates = states[parent];
+            boolean[] parentDirect = direct[parent];
+            for (int i=0, N=sizes[parent]; i<N; i++)
+            {
+                State state = parentStates[i];
+                boolean isDirect = parentDirect[i];
+                
+                for (int j=0, M=state.children.size (); j<M; j++)
+                {
+                    State child = state.children.get (j);
+                    Step step = child.step;
+                    if (!isDirect && !step.descendant)
+                        continue;
+                    if (!matches (step))
+                        continue;
+                    if (child.counter >= 0 && nextCount (parent, child.counter) != step.index)
+                        continue;
+                    
+                    add (depth, child, true);
+                    for (int index: child.expressions)
+                    {
+                        if (results == null || results[index] == null)
+                            addMatched (index);
+                    }
+                }
+                
+                if (state.hasDescendantChildren)
+                    add (depth, state, false);
+            }
+            
+            return sizes[depth] > 0;
+        }
+        
+        public void leave ()
+        {
+            depth --;
+        }
+        
+        /** Return the current count for <code>counter</code> in the frame and increment it */
+        private int nextCount (int frame, int counter)
+        {
+            if (counts[frame] == null)
+            {
+                counts[frame] = new int[set.counters];
+                countStamps[frame] = new int[set.counters];
+            }
+            
+            if (countStamps[frame][counter] != frameStamps[frame])
+            {
+                countStamps[frame][counter] = frameStamps[frame];
+                counts[frame][counter] = 0;
+            }
+            
+            return counts[frame][counter] ++;
+        }
+        
+        private void add (int frame, State state, boolean isDirect)
+        {
+            State[] frameStates = states[frame];
+            int size = sizes[frame];
+            for (int i=0; i<size; i++)
+            {
+                if (frameStates[i] == state)
+                {
+                    direct[frame][i] |= isDirect;
+                    return;
+                }
+            }
+            
+            if (frameStates == null || size == frameStates.length)
+            {
+                int capacity = frameStates == null ? 8 : size * 2;
+                State[] tmp = new State[capacity];
+                boolean[] tmp2 = new boolean[capacity];
+                if (frameStates != null)
+                {
+                    System.arraycopy (frameStates, 0, tmp, 0, size);
+                    System.arraycopy (direct[frame], 0, tmp2, 0, size);
+                }
+                states[frame] = frameStates = tmp;
+                direct[frame] = tmp2;
+            }
+            
+            frameStates[size] = state;
+            direct[frame][size] = isDirect;
+            sizes[frame] = size + 1;
+        }
+        
+        private void addMatched (int index)
+        {
+            if (matchedCount == matched.length)
+            {
+                int[] tmp = new int[matchedCount * 2];
+                System.arraycopy (matched, 0, tmp, 0, matchedCount);
+                matched = tmp;
+            }
+            matched[matchedCount ++] = index;
+        }
+        
+        private void ensureCapacity (int frame)
+        {
+            if (frame < sizes.length)
+                return;
+            
+            int capacity = sizes.length * 2;
+            State[][] tmp = new State[capacity][];
+            System.arraycopy (states, 0, tmp, 0, states.length);
+            states = tmp;
+            
+            boolean[][] tmp2 = new boolean[capacity][];
+            System.arraycopy (direct, 0, tmp2, 0, direct.length);
+            direct = tmp2;
+            
+            int[][] tmp3 = new int[capacity][];
+            System.arraycopy (counts, 0, tmp3, 0, counts.length);
+            counts = tmp3;
+            
+            tmp3 = new int[capacity][];
+            System.arraycopy (countStamps, 0, tmp3, 0, countStamps.length);
+            countStamps = tmp3;
+            
+            int[] tmp4 = new int[capacity];
+            System.arraycopy (sizes, 0, tmp4, 0, sizes.length);
+            sizes = tmp4;
+            
+            tmp4 = new int[capacity];
+            System.arraycopy (frameStamps, 0, tmp4, 0, frameStamps.length);
+            frameStamps = tmp4;
+        }
+    }
+    
+    /** Thrown to stop the parser when all expressions have been found */
+    private static class StopParsing extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+    
+    /** Evaluates the paths on the events of <code>XMLEventParser</code> and builds the elements which match */
+    private static class StreamMatcher implements XMLHandler
+    {
+        private final Matcher matcher;
+        private final XMLSource source;
+        private final EntityResolver resolver;
+        /** The elements which are being built; empty when no path has matched */
+        private final List<Element> open = new ArrayList<Element> ();
+        
+        public StreamMatcher (PathSet set, Element[] results, XMLSource source, EntityResolver resolver)
+        {
+            this.matcher = new Matcher (set, results);
+            this.source = source;
+            this.resolver = resolver;
+            
+            // Relative paths start at the document, too
+            matcher.start (true, true);
+        }
+        
+        public void startElement (String name, Namespace namespace, EventAttributes attributes)
+        {
+            matcher.enter (name, namespace.getPrefix (), attributes);
+            
+            if (open.isEmpty () && matcher.matchedCount == 0)
+                return;
+            
+            Element e = new Element (name, namespace);
+            if (namespace.getPrefix ().length () > 0)
+            {
+                String qualifiedName = namespace.getPrefix () + ":" + name;
+                e.setBeginName (qualifiedName).setEndName (qualifiedName);
+            }
+            for (int i=0; i<attributes.getLength (); i++)
+                e.addAttribute (attributes.toAttribute (i));
+            
+            if (!open.isEmpty ())
+                open.get (open.size () - 1).addNode (e);
+            open.add (e);
+            
+            for (int i=0; i<matcher.matchedCount; i++)
+                matcher.setResult (matcher.matched[i], e);
+        }
+        
+        public void endElement (String name, Namespace namespace)
+        {
+            matcher.leave ();
+            
+            if (open.isEmpty ())
+                return;
+            
+            open.remove (open.size () - 1);
+            if (open.isEmpty () && matcher.isDone ())
+                throw new StopParsing ();
+        }
+        
+        private void addNode (Node n)
+        {
+            open.get (open.size () - 1).addNode (n);
+        }
+        
+        public void text (Token token)
+        {
+            if (!open.isEmpty ())
+                addNode (new Text (token.getType (), source, token.getStartOffset (), token.getEndOffset ()));
+        }
+        
+        public void entity (Token token)
+        {
+            if (!open.isEmpty ())
+                addNode (new Entity (source, token.getStartOffset (), token.getEndOffset (), resolver));
+        }
+        
+        public void comment (Token token)
+        {
+            if (!open.isEmpty ())
+                addNode (new Comment (source, token.getStartOffset (), token.getEndOffset ()));
+        }
+        
+        public void processingInstruction (Token token)
+        {
+            if (open.isEmpty ())
+                return;
+            
+            // The event token is reused
+            Token copy = new Token ();
+            copy.setSource (source);
+            copy.setType (token.getType ());
+            copy.setStartOffset (token.getStartOffset ());
+            copy.setEndOffset (token.getEndOffset ());
+            addNode (new ProcessingInstruction (copy));
+        }
+    }
+}
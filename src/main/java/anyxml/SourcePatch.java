@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * A change of a source: <code>length</code> characters at <code>offset</code>
+ * must be replaced with <code>replacement</code>.
+ * 
+ * @see anyxml.EditJournal
+ */
+public class SourcePatch
+{
+    private final int offset;
+    private final int length;
+    private final String replacement;
+    
+    public SourcePatch (int offset, int length, String replacement)
+    {
+        if (offset < 0)
+            throw new IllegalArgumentException ("offset must be >= 0: "+offset);
+        if (length < 0)
+            throw new IllegalArgumentException ("length must be >= 0: "+length);
+        if (replacement == null)
+            throw new IllegalArgumentException ("replacement is null");
+        
+        this.offset = offset;
+        this.length = length;
+        this.replacement = replacement;
+    }
+    
+    public int getOffset ()
+    {
+        return offset;
+    }
+    
+    /** The number of characters in the source which are replaced */
+    public int getLength ()
+    {
+        return length;
+    }
+    
+    public int getEndOffset ()
+    {
+        return offset + length;
+    }
+    
+    public String getReplacement ()
+    {
+        return replacement;
+    }
+    
+    @Override
+    public boolean equals (Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof SourcePatch))
+            return false;
+        
+        SourcePatch other = (SourcePatch)obj;
+        return offset == other.offset && length == other.length && replacement.equals (other.replacement);
+    }
+    
+    @Override
+    public int hashCode ()
+    {
+        return (offset * 31 + length) * 31 + replacement.hashCode ();
+    }
+    
+    @Override
+    public String toString ()
+    {
+        return "SourcePatch("+offset+", "+length+", \""+replacement+"\")";
+    }
+}
@@ -42,6 +42,12 @@ public class Text extends BasicNode implements TextNode
         super (token);
     }
     
+    /** Create a compact text node (text, whitespace or CDATA) from a part of <code>source</code> */
+    public Text (Type type, XMLSource source, int startOffset, int endOffset)
+    {
+        super (type, source, startOffset, endOffset);
+    }
+    
     public Text (Type type, String text)
     {
         super (type, type == Type.CDATA ? "<![CDATA[" + text + "]]>" : XMLUtils.escapeXMLText (text));
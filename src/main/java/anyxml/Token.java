@@ -123,6 +123,6 @@ public class Token
                 break;
             pos ++;
         }
-        return pos == 0 ? "" : source.substring (getStartOffset (), pos);
+        return pos == getStartOffset () ? "" : source.substring (getStartOffset (), pos);
     }
 }
\ No newline at end of file
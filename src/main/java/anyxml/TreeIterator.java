@@ -40,7 +40,7 @@ public class TreeIterator implements Iterator<Node>
 {
     private String path = null;
     private List<NodeWithChildren> stack = new ArrayList<NodeWithChildren> ();
-    private int[] cursorStack = new int[100];
+    private int[] cursorStack = new int[16];
 
     public TreeIterator (NodeWithChildren start)
     {
@@ -64,6 +64,12 @@ public class TreeIterator implements Iterator<Node>
     protected void push (NodeWithChildren node)
     {
         stack.add (node);
+        if (stack.size () > cursorStack.length)
+        {
+            int[] tmp = new int[cursorStack.length * 2];
+            System.arraycopy (cursorStack, 0, tmp, 0, cursorStack.length);
+            cursorStack = tmp;
+        }
         setCursor (0);
         path = null;
     }
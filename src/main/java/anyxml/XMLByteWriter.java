@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * An <code>XMLWriter</code> which encodes directly to bytes.
+ * 
+ * <p>UTF-8 is encoded inline without a <code>CharsetEncoder</code>. Other encodings
+ * than UTF-8, ISO-8859-1 and US-ASCII are handled by an <code>OutputStreamWriter</code>.
+ * 
+ * <p>Characters which the encoding can't represent are written as character references
+ * in text and attribute values. Anywhere else (names, comments, processing instructions
+ * and CDATA sections), they cause an <code>IOException</code>. Lone surrogates are
+ * written as '?'.
+ * 
+ * <p>Use {@link #write(Document, OutputStream)} to write a document in the encoding
+ * of its XML declaration.
+ * 
+ * @see anyxml.XMLWriter
+ */
+public class XMLByteWriter extends XMLWriter
+{
+    private final Encoder encoder;
+    
+    /**
+     * @param out Where to write the bytes
+     * @param encoding The Java or XML name of the encoding or <code>null</code> for UTF-8
+     */
+    public XMLByteWriter (OutputStream out, String encoding)
+    {
+        this (new Encoder (out, null, null, encoding), DEFAULT_BUFFER_SIZE);
+    }
+    
+    public XMLByteWriter (OutputStream out, String encoding, int bufferSize)
+    {
+        this (new Encoder (out, null, null, encoding), bufferSize);
+    }
+    
+    public XMLByteWriter (WritableByteChannel channel, String encoding)
+    {
+        this (new Encoder (null, channel, null, encoding), DEFAULT_BUFFER_SIZE);
+    }
+    
+    /**
+     * Write into a <code>ByteBuffer</code>. If the buffer is too small, a
+     * <code>BufferOverflowException</code> is thrown.
+     */
+    public XMLByteWriter (ByteBuffer buffer, String encoding)
+    {
+        this (new Encoder (null, null, buffer, encoding), DEFAULT_BUFFER_SIZE);
+    }
+    
+    private XMLByteWriter (Encoder encoder, int bufferSize)
+    {
+        super (encoder, bufferSize);
+        this.encoder = encoder;
+        setEncodingLimit (encoder.limit);
+    }
+    
+    @Override
+    protected boolean canEncode (int codePoint)
+    {
+        return encoder.canEncode (codePoint);
+    }
+    
+    /** The Java name of the encoding which is used */
+    public String getEncoding ()
+    {
+        return encoder.charset.name ();
+    }
+    
+    /** Write <code>doc</code> in the encoding of its XML declaration (UTF-8 if there is none) and flush <code>out</code> */
+    public static void write (Document doc, OutputStream out) throws IOException
+    {
+        XMLByteWriter writer = new XMLByteWriter (out, doc.getEncoding ());
+        doc.toXML (writer);
+        writer.flush ();
+    }
+    
+    /** Find the charset for an XML or Java encoding name */
+    public static Charset charsetFor (String encoding)
+    {
+        if (encoding == null)
+            return Charset.forName (XMLInputStreamReader.ENCODING_UTF_8);
+        
+        String javaEncoding = XMLInputStreamReader.ENCODING_MAP.get (encoding);
+        return Charset.forName (javaEncoding == null ? encoding : javaEncoding);
+    }
+    
+    /** Encodes the blocks of characters from <code>XMLWriter</code> into a byte buffer */
+    private static class Encoder extends Writer
+    {
+        private final static int UTF_8 = 0;
+        private final static int SINGLE_BYTE = 1;
+        private final static int OTHER = 2;
+        
+        private final OutputStream out;
+        private final WritableByteChannel channel;
+        private final ByteBuffer target;
+        private final Charset charset;
+        private final int mode;
+        /** Characters below this can always be encoded */
+        private final int limit;
+        /** For <code>SINGLE_BYTE</code>; lone surrogates are replaced by '?', unmappable characters are reported */
+        private CharsetEncoder encoder;
+        /** For <code>OTHER</code>: answers <code>canEncode()</code> without touching the state of <code>fallback</code> */
+        private CharsetEncoder checker;
+        /** For <code>OTHER</code>: 0 = unknown, 1 = can be encoded, 2 = can't be encoded for each char */
+        private byte[] encodable;
+        /** For <code>OTHER</code> */
+        private Writer fallback;
+        
+        private final byte[] bytes = new byte[16384];
+        private int count;
+        /** A high surrogate at the end of the last block */
+        private char pendingHigh;
+        
+        public Encoder (OutputStream out, WritableByteChannel channel, ByteBuffer target, String encoding)
+        {
+            if (out == null && channel == null && target == null)
+                throw new IllegalArgumentException ("output is null");
+            
+            this.out = out;
+            this.channel = channel;
+            this.target = target;
+            charset = charsetFor (encoding);
+            
+            String name = charset.name ();
+            if (XMLInputStreamReader.ENCODING_UTF_8.equals (name))
+            {
+                mode = UTF_8;
+                limit = Character.MAX_CODE_POINT + 1;
+            }
+            else if (XMLInputStreamReader.ENCODING_ISO_8859_1.equals (name) || "US-ASCII".equals (name))
+            {
+                // The JDK encoders for these are intrinsics which are faster than a loop in Java
+                mode = SINGLE_BYTE;
+                limit = "US-ASCII".equals (name) ? 0x80 : 0x100;
+                encoder = charset.newEncoder ()
+                    .onMalformedInput (CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter (CodingErrorAction.REPORT);
+            }
+            else
+            {
+                mode = OTHER;
+                // UTF-16 and UTF-32 can encode everything
+                limit = name.startsWith ("UTF-") ? Character.MAX_CODE_POINT + 1 : 0x80;
+            }
+        }
+        
+        /** Can the charset encode this code point? Only called for code points at or above <code>limit</code> */
+        public boolean canEncode (int codePoint)
+        {
+            if (mode != OTHER)
+                return codePoint < limit;
+            
+            if (checker == null)
+                checker = charset.newEncoder ();
+            
+            if (codePoint > 0xffff)
+                return checker.canEncode (new String (Character.toChars (codePoint)));
+            
+            if (encodable == null)
+                encodable = new byte[0x10000];
+            
+            byte known = encodable[codePoint];
+            if (known == 0)
+            {
+                known = checker.canEncode ((char)codePoint) ? (byte)1 : (byte)2;
+                encodable[codePoint] = known;
+            }
+            return known == 1;
+        }
+        
+        private IOException unmappable (int codePoint)
+        {
+            return new IOException (String.format ("Character U+%04X can't be encoded in %s; "
+                    + "it's only allowed as a character reference in text and attribute values", codePoint, charset.name ()));
+        }
+        
+        @Override
+        public void write (char[] cbuf, int off, int len) throws IOException
+        {
+            if (mode == UTF_8)
+                writeUTF8 (cbuf, off, len);
+            else if (mode == SINGLE_BYTE)
+                writeSingleByte (cbuf, off, len);
+            else
+            {
+                if (fallback == null)
+                    fallback = new OutputStreamWriter (new OutputStream () {
+                        @Override
+                        public void write (int b) throws IOException
+                        {
+                            write (new byte[] { (byte)b }, 0, 1);
+                        }
+                        
+                        @Override
+                        public void write (byte[] b, int off, int len) throws IOException
+                        {
+                            writeBytes (b, off, len);
+                        }
+                    }, charset.newEncoder ()
+                        .onMalformedInput (CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter (CodingErrorAction.REPORT));
+                
+                fallback.write (cbuf, off, len);
+            }
+        }
+        
+        private void writeUTF8 (char[] cbuf, int off, int len) throws IOException
+        {
+            int end = off + len;
+            int i = off;
+            if (pendingHigh != 0 && i < end)
+            {
+                char high = pendingHigh;
+                pendingHigh = 0;
+                i = surrogate (high, cbuf, i, end);
+            }
+            
+            while (i < end)
+            {
+                // Each char needs at most 3 bytes (surrogate pairs need 4 for 2 chars)
+                int room = (bytes.length - count) / 3;
+                if (room == 0)
+                {
+                    flushBytes ();
+                    continue;
+                }
+                
+                int stop = Math.min (end, i + room);
+                byte[] bytes = this.bytes;
+                
+                // Fast path for ASCII
+                int delta = count - i;
+                for ( ; i < stop; i++)
+                {
+                    char c = cbuf[i];
+                    if (c >= 0x80)
+                        break;
+                    bytes[delta + i] = (byte)c;
+                }
+                count = delta + i;
+                
+                if (i < stop)
+                {
+                    char c = cbuf[i ++];
+                    if (Character.isHighSurrogate (c))
+                    {
+                        if (i == end)
+                        {
+                            pendingHigh = c;
+                            return;
+                        }
+                        i = surrogate (c, cbuf, i, end);
+                    }
+                    else
+                        encode (c);
+                }
+            }
+        }
+        
+        /** Encode the pair of <code>high</code> and <code>cbuf[i]</code>; returns the index of the next char */
+        private int surrogate (char high, char[] cbuf, int i, int end) throws IOException
+        {
+            if (bytes.length - count < 4)
+                flushBytes ();
+            
+            if (i < end && Character.isLowSurrogate (cbuf[i]))
+            {
+                encode (Character.toCodePoint (high, cbuf[i]));
+                return i + 1;
+            }
+            
+            // Lone surrogate
+            bytes[count ++] = '?';
+            return i;
+        }
+        
+        /** Encode a character as UTF-8; there must be room for 4 bytes */
+        private void encode (int c)
+        {
+            if (c >= 0xd800 && c <= 0xdfff)
+            {
+                bytes[count ++] = '?';
+            }
+            else if (c < 0x800)
+            {
+                bytes[count ++] = (byte)(0xc0 | (c >> 6));
+                bytes[count ++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else if (c < 0x10000)
+            {
+                bytes[count ++] = (byte)(0xe0 | (c >> 12));
+                bytes[count ++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                bytes[count ++] = (byte)(0x80 | (c & 0x3f));
+            }
+            else
+            {
+                bytes[count ++] = (byte)(0xf0 | (c >> 18));
+                bytes[count ++] = (byte)(0x80 | ((c >> 12) & 0x3f));
+                bytes[count ++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                bytes[count ++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+        
+        private void writeSingleByte (char[] cbuf, int off, int len) throws IOException
+        {
+            CharBuffer in;
+            if (pendingHigh != 0)
+            {
+                char[] tmp = new char[len + 1];
+                tmp[0] = pendingHigh;
+                System.arraycopy (cbuf, off, tmp, 1, len);
+                in = CharBuffer.wrap (tmp);
+                pendingHigh = 0;
+            }
+            else
+                in = CharBuffer.wrap (cbuf, off, len);
+            
+            while (in.hasRemaining ())
+            {
+                ByteBuffer buffer = ByteBuffer.wrap (bytes, count, bytes.length - count);
+                CoderResult result = encoder.encode (in, buffer, false);
+                count = buffer.position ();
+                
+                if (result.isOverflow ())
+                    flushBytes ();
+                else if (result.isUnmappable ())
+                    throw unmappable (Character.codePointAt (in, 0));
+                else
+                {
+                    // A high surrogate at the end of the block
+                    if (in.hasRemaining ())
+                        pendingHigh = in.get ();
+                    break;
+                }
+            }
+        }
+        
+        private void flushBytes () throws IOException
+        {
+            if (count > 0)
+            {
+                writeBytes (bytes, 0, count);
+                count = 0;
+            }
+        }
+        
+        private void writeBytes (byte[] b, int off, int len) throws IOException
+        {
+            if (out != null)
+                out.write (b, off, len);
+            else if (channel != null)
+            {
+                ByteBuffer buffer = ByteBuffer.wrap (b, off, len);
+                while (buffer.hasRemaining ())
+                    channel.write (buffer);
+            }
+            else
+                target.put (b, off, len);
+        }
+        
+        @Override
+        public void flush () throws IOException
+        {
+            if (fallback != null)
+                fallback.flush ();
+            
+            flushBytes ();
+            if (out != null)
+                out.flush ();
+        }
+        
+        @Override
+        public void close () throws IOException
+        {
+            if (pendingHigh != 0)
+            {
+                // Lone surrogate at the end
+                pendingHigh = 0;
+                if (count == bytes.length)
+                    flushBytes ();
+                bytes[count ++] = '?';
+            }
+            if (fallback != null)
+            {
+                // Stateful encodings write their final shift sequence here
+                fallback.close ();
+                fallback = null;
+            }
+            flush ();
+            
+            if (out != null)
+                out.close ();
+            else if (channel != null)
+                channel.close ();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import anyxml.XMLTokenizer.Type;
+import anyxml.dtd.DocType;
+import anyxml.dtd.DocTypeEntityResolver;
+
+/**
+ * Parse an XML source into a stream of events without building a tree.
+ * 
+ * <p>The content of the root element is reported to an <code>XMLHandler</code>.
+ * The parser does the same checks as <code>XMLParser</code> (matching end tags,
+ * duplicate attributes, namespace prefixes) but it doesn't create any nodes
+ * for the content of the root element; tokens and attributes are reused
+ * and element names are cached.
+ * 
+ * <p>The settings (entity resolver, character validator, trusted mode) and
+ * the factory methods for the tokenizers are taken from an <code>XMLParser</code>.
+ * Entities are not expanded.
+ * 
+ * <p>An <code>XMLStreamSource</code> is told to release the characters which have been
+ * parsed, so the memory needed doesn't grow with the size of the document. The nodes
+ * before the root element and the root element itself are copied out of the source
+ * for that.
+ * 
+ * @see anyxml.XMLHandler
+ * @see anyxml.XMLParser#parse(XMLSource, XMLHandler)
+ */
+public class XMLEventParser
+{
+    private final XMLParser parser;
+    
+    private XMLSource source;
+    /** The source if it can release parsed characters */
+    private XMLStreamSource stream;
+    private ParseContext context;
+    private XMLTokenizer tokenizer;
+    private Document doc;
+    /** The token passed to the handler */
+    private final Token event = new Token ();
+    private final EventAttributes attributes = new EventAttributes ();
+    
+    /** The open elements */
+    private String[] qualifiedNames = new String[32];
+    private String[] names = new String[32];
+    private Namespace[] namespaces = new Namespace[32];
+    private int[] startOffsets = new int[32];
+    private int depth;
+    
+    /** Cache for element names and prefixes. The size must be a power of two. */
+    private final String[] nameCache = new String[256];
+    
+    public XMLEventParser ()
+    {
+        this (new XMLParser ());
+    }
+    
+    public XMLEventParser (XMLParser parser)
+    {
+        this.parser = parser;
+    }
+    
+    /**
+     * Parse the source and report the content of the root element to <code>handler</code>.
+     * 
+     * @return A document with the nodes before and after the root element (XML declaration,
+     * doc type, comments, ...). The root element in it is just the start tag, without attributes
+     * or children.
+     */
+    public Document parse (XMLSource source, XMLHandler handler)
+    {
+        this.source = source;
+        stream = (source instanceof XMLStreamSource) ? (XMLStreamSource)source : null;
+        doc = new Document ();
+        depth = 0;
+        event.setSource (source);
+        
+        context = parser.createContext (source);
+        tokenizer = context.getTokenizer ();
+        
+        try
+        {
+            Token token;
+            while ((token = tokenizer.next ()) != null)
+            {
+                if (token.getType () == Type.DOCTYPE)
+                {
+                    XMLTokenizer dtdTokenizer = parser.createDTDTokenizer (source, token.getStartOffset ());
+                    
+                    DocType docType = parser.parseDocType (dtdTokenizer);
+                    doc.addNode (docType);
+                    
+                    tokenizer.setOffset (dtdTokenizer.getOffset ());
+                    
+                    context.setEntityResolver (new DocTypeEntityResolver (docType, context.getEntityResolver ()));
+                    continue;
+                }
+                
+                // The nodes outside of the root element are created to get the same checks as XMLParser
+                Node n = parser.toNode (context, token);
+                doc.addNode (n);
+                
+                switch (token.getType ())
+                {
+                case COMMENT:
+                    handler.comment (token);
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    handler.processingInstruction (token);
+                    break;
+                case BEGIN_ELEMENT:
+                    if (parseStartTag (token.getStartOffset (), token.getEndOffset (), handler))
+                    {
+                        // The document must not need the characters which parseContent() releases
+                        if (stream != null)
+                            doc.releaseSource ();
+                        parseContent (handler);
+                    }
+                    break;
+                }
+            }
+            
+            if (doc.getRootElement () == null)
+                throw new XMLParseException ("No root element found");
+            
+            return doc;
+        }
+        finally
+        {
+            parser.releaseContext (context);
+            event.setSource (null);
+            this.source = null;
+            stream = null;
+            context = null;
+            tokenizer = null;
+            doc = null;
+            attributes.clear (null);
+        }
+    }
+    
+    /** Parse the content of the root element */
+    protected void parseContent (XMLHandler handler)
+    {
+        while (depth > 0)
+        {
+            // The handler has seen the last token, so nothing points to the characters before the next one
+            if (stream != null)
+                stream.release (tokenizer.getOffset ());
+            
+            if (!tokenizer.advance ())
+            {
+                throw new XMLParseException ("Unexpected end-of-file while parsing children of element "+names[depth - 1],
+                        copyToken (Type.BEGIN_ELEMENT, startOffsets[depth - 1], startOffsets[depth - 1] + qualifiedNames[depth - 1].length () + 1));
+            }
+            
+            setEvent ();
+            switch (event.getType ())
+            {
+            case BEGIN_ELEMENT:
+                parseStartTag (event.getStartOffset (), event.getEndOffset (), handler);
+                break;
+                
+            case END_ELEMENT:
+                parseEndTag (handler);
+                break;
+                
+            case TEXT:
+            case CDATA:
+                handler.text (event);
+                break;
+                
+            case ENTITY:
+                handler.entity (event);
+                break;
+                
+            case COMMENT:
+                handler.comment (event);
+                break;
+                
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction (event);
+                break;
+                
+            default:
+                throw new XMLParseException ("Unexpected token "+event, copyToken ());
+            }
+        }
+    }
+
+    private void setEvent ()
+    {
+        event.setType (tokenizer.tokenType ());
+        event.setStartOffset (tokenizer.tokenStart ());
+        event.setEndOffset (tokenizer.tokenEnd ());
+    }
+    
+    /** Create a token which can be passed to an exception */
+    private Token copyToken ()
+    {
+        return copyToken (event.getType (), event.getStartOffset (), event.getEndOffset ());
+    }
+    
+    private Token copyToken (Type type, int start, int end)
+    {
+        Token token = new Token ();
+        token.setSource (source);
+        token.setType (type);
+        token.setStartOffset (start);
+        token.setEndOffset (end);
+        return token;
+    }
+    
+    /**
+     * Parse the attributes of an element; this does the same checks as <code>XMLParser.parseStartTag()</code>.
+     * 
+     * @return <code>false</code> if the element was empty
+     */
+    protected boolean parseStartTag (int start, int end, XMLHandler handler)
+    {
+        // Same as the Element constructor: skip '<' and trim
+        int nameStart = start + 1;
+        int nameEnd = end;
+        while (nameEnd > nameStart && Character.isWhitespace (source.charAt (nameEnd - 1)))
+            nameEnd --;
+        while (nameStart < nameEnd && Character.isWhitespace (source.charAt (nameStart)))
+            nameStart ++;
+        String qualifiedName = name (nameStart, nameEnd);
+        
+        attributes.clear (source);
+        boolean foundEnd = false;
+        while (tokenizer.advance ())
+        {
+            setEvent ();
+            if (event.getType () == Type.BEGIN_ELEMENT_END)
+            {
+                foundEnd = true;
+                break;
+            }
+            
+            if (event.getType () != Type.ATTRIBUTE)
+                throw new XMLParseException ("Unexpected token "+event+" while parsing attributes of element "+qualifiedName, copyToken ()); //@COBEX
+            
+            if (!Character.isWhitespace (source.charAt (event.getStartOffset ())))
+                throw new XMLParseException ("Expected whitespace between attributes of element a but found "+event, copyToken ());
+            
+            attributes.add (event.getStartOffset (), event.getEndOffset ());
+            
+            int index = attributes.getLength () - 1;
+            if (attributes.indexOfDuplicate (index) != -1)
+                throw new XMLParseException ("There is already an attribute with the name "+attributes.getName (index), copyToken ());
+            
+            if (attributes.isNamespaceDeclaration (index))
+            {
+                String prefix = attributes.getName (index).substring (Namespace.NS_PREFIX.length ());
+                doc.getNamespaces ().addNamespace (new Namespace (prefix, attributes.getValue (index)));
+            }
+        }
+        
+        // Resolve the namespace prefix
+        String name = qualifiedName;
+        Namespace ns = Namespace.NO_NAMESPACE;
+        int pos = qualifiedName.indexOf (':');
+        if (pos == 0)
+            throw new XMLParseException ("Missing namespace prefix before colon: '"+qualifiedName+"'", copyToken (Type.BEGIN_ELEMENT, start, end));
+        if (pos > 0)
+        {
+            String prefix = name (nameStart, nameStart + pos);
+            ns = doc.getNamespace (prefix);
+            if (ns == null)
+                throw new XMLParseException ("The namespace prefix "+prefix+" is not defined: '"+qualifiedName+"'", copyToken (Type.BEGIN_ELEMENT, start, end));
+            
+            if (pos + 1 == qualifiedName.length ())
+                throw new XMLParseException ("Missing element name after namespace prefix: '"+qualifiedName+"'", copyToken (Type.BEGIN_ELEMENT, start, end));
+            name = name (nameStart + pos + 1, nameEnd);
+        }
+        
+        if (!foundEnd)
+            throw new XMLParseException ("Unexpected end-of-file while parsing attributes of element "+name, source, tokenizer.getOffset ());
+        
+        handler.startElement (name, ns, attributes);
+        
+        // The BEGIN_ELEMENT_END token is either ">" or "/>" with leading whitespace
+        if (source.charAt (event.getEndOffset () - 2) == '/')
+        {
+            handler.endElement (name, ns);
+            return false;
+        }
+        
+        push (qualifiedName, name, ns, start);
+        return true;
+    }
+    
+    /** Check the end tag; this does the same checks as <code>XMLParser.parseElementContent()</code> */
+    protected void parseEndTag (XMLHandler handler)
+    {
+        // Skip "</" and ">" and trim
+        int start = event.getStartOffset () + 2;
+        int end = event.getEndOffset () - 1;
+        while (end > start && Character.isWhitespace (source.charAt (end - 1)))
+            end --;
+        while (start < end && Character.isWhitespace (source.charAt (start)))
+            start ++;
+        
+        int top = depth - 1;
+        String qualifiedName = qualifiedNames[top];
+        if (!regionMatches (start, end, qualifiedName))
+        {
+            Location l = new Location (copyToken ());
+            throw new XMLParseException ("End element '"+source.substring (start, end)+"' at line "+l.getLine ()+", column "+l.getColumn ()+" doesn't match with '"+names[top]+"'",
+                    copyToken (Type.BEGIN_ELEMENT, startOffsets[top], startOffsets[top] + qualifiedName.length () + 1));
+        }
+        
+        depth --;
+        handler.endElement (names[top], namespaces[top]);
+        names[top] = null;
+        qualifiedNames[top] = null;
+        namespaces[top] = null;
+    }
+
+    private void push (String qualifiedName, String name, Namespace ns, int start)
+    {
+        if (depth == names.length)
+        {
+            int size = depth * 2;
+            String[] tmp = new String[size];
+            System.arraycopy (names, 0, tmp, 0, depth);
+            names = tmp;
+            
+            tmp = new String[size];
+            System.arraycopy (qualifiedNames, 0, tmp, 0, depth);
+            qualifiedNames = tmp;
+            
+            Namespace[] tmpNS = new Namespace[size];
+            System.arraycopy (namespaces, 0, tmpNS, 0, depth);
+            namespaces = tmpNS;
+            
+            int[] tmpOffsets = new int[size];
+            System.arraycopy (startOffsets, 0, tmpOffsets, 0, depth);
+            startOffsets = tmpOffsets;
+        }
+        
+        names[depth] = name;
+        qualifiedNames[depth] = qualifiedName;
+        namespaces[depth] = ns;
+        startOffsets[depth] = start;
+        depth ++;
+    }
+    
+    /** Get a name from the source; repeated names don't allocate new strings */
+    private String name (int start, int end)
+    {
+        int hash = 0;
+        for (int i=start; i<end; i++)
+            hash = 31 * hash + source.charAt (i);
+        
+        int slot = (hash ^ (hash >>> 16)) & (nameCache.length - 1);
+        String name = nameCache[slot];
+        if (name == null || !regionMatches (start, end, name))
+        {
+            name = source.substring (start, end);
+            nameCache[slot] = name;
+        }
+        return name;
+    }
+    
+    private boolean regionMatches (int start, int end, String s)
+    {
+        if (end - start != s.length ())
+            return false;
+        
+        for (int i=0; i<s.length (); i++)
+        {
+            if (source.charAt (start + i) != s.charAt (i))
+                return false;
+        }
+        return true;
+    }
+}
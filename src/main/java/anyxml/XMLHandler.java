@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * Receives the events from <code>XMLEventParser</code>.
+ * 
+ * <p>The tokens passed to the methods are reused; use them only during the
+ * call and copy the text with {@link Token#getText()} if you need it later.
+ * 
+ * @see anyxml.XMLEventParser
+ */
+public interface XMLHandler
+{
+    /**
+     * The start of an element.
+     * 
+     * @param name The name without the namespace prefix
+     * @param attributes The attributes; this object is reused for the next element
+     */
+    public void startElement (String name, Namespace namespace, EventAttributes attributes);
+    /** The end of an element. Empty elements ("&lt;a/&gt;") get a start and an end event. */
+    public void endElement (String name, Namespace namespace);
+    /** Text or a CDATA section in an element. Entities are still escaped (see {@link Token#getText()}). */
+    public void text (Token token);
+    /** An entity in an element. This is only called when entities aren't treated as text. */
+    public void entity (Token token);
+    public void comment (Token token);
+    public void processingInstruction (Token token);
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An XML source which maps a file into memory instead of reading it into a <code>String</code>.
+ * 
+ * <p>The characters are decoded on demand in blocks; only two decoded blocks are kept
+ * at any time, so the heap usage doesn't depend on the size of the file. Use this
+ * for huge files which would need several times their size on the heap with
+ * <code>XMLIOSource</code>.
+ * 
+ * <p>Only UTF-8 and ISO-8859-1 (and therefore US-ASCII) are supported. The encoding is
+ * determined in the same way as <code>XMLInputStreamReader</code> does it.
+ * 
+ * <p>Like all sources, the number of characters is limited to <code>Integer.MAX_VALUE</code>.
+ * Instances of this class are not thread-safe.
+ * 
+ * @see anyxml.XMLIOSource
+ * @see anyxml.XMLInputStreamReader
+ */
+public class XMLMappedFileSource implements LineIndexSource
+{
+    /** The default size of a block in bytes */
+    public final static int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    
+    /** A single mapping can't be larger than 2GB, so bigger files are mapped in regions of 1GB */
+    private final static int REGION_SHIFT = 30;
+    private final static long REGION_MASK = (1L << REGION_SHIFT) - 1;
+    
+    private final String javaEncoding;
+    private final boolean utf8;
+    private final MappedByteBuffer[] regions;
+    private final long byteLength;
+    private final int blockSize;
+    
+    /** Offset of the first byte of each block; the last entry is the end of the file */
+    private long[] blockByteStart;
+    /** Offset of the first character of each block; the last entry is the length of the source */
+    private int[] blockCharStart;
+    private int blockCount;
+    
+    /** The most recently used decoded block */
+    private char[] window;
+    private int windowStart;
+    private int windowEnd;
+    /** The block which was used before <code>window</code> */
+    private char[] previousWindow;
+    private int previousWindowStart;
+    private int previousWindowEnd;
+    
+    private LineIndex lineIndex;
+    /** The position after the last byte processed by <code>decode()</code> */
+    private long decodeEnd;
+
+    public XMLMappedFileSource (File file) throws IOException
+    {
+        this (file, null, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public XMLMappedFileSource (File file, String javaEncoding) throws IOException
+    {
+        this (file, javaEncoding, DEFAULT_BLOCK_SIZE);
+    }
+    
+    /**
+     * @param file The file to map
+     * @param javaEncoding The encoding of the file or <code>null</code> to determine it from the file
+     * @param blockSize The number of bytes to decode at once
+     */
+    public XMLMappedFileSource (File file, String javaEncoding, int blockSize) throws IOException
+    {
+        if (blockSize < 16)
+            throw new IllegalArgumentException ("blockSize must be at least 16: "+blockSize);
+        
+        if (javaEncoding == null)
+            javaEncoding = determineEncoding (file);
+        
+        this.javaEncoding = javaEncoding;
+        this.blockSize = blockSize;
+        
+        if (XMLInputStreamReader.ENCODING_UTF_8.equalsIgnoreCase (javaEncoding)
+            || "UTF8".equalsIgnoreCase (javaEncoding))
+            utf8 = true;
+        else if (XMLInputStreamReader.ENCODING_ISO_8859_1.equalsIgnoreCase (javaEncoding)
+            || "US-ASCII".equalsIgnoreCase (javaEncoding)
+            || "ASCII".equalsIgnoreCase (javaEncoding))
+            utf8 = false;
+        else
+            throw new XMLParseException ("Encoding "+javaEncoding+" is not supported by "
+                    +getClass ().getSimpleName ()+"; use XMLIOSource instead");
+        
+        RandomAccessFile raf = new RandomAccessFile (file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel ();
+            byteLength = channel.size ();
+            
+            int n = (int)((byteLength + REGION_MASK) >>> REGION_SHIFT);
+            regions = new MappedByteBuffer[n];
+            for (int i=0; i<n; i++)
+            {
+                long start = ((long)i) << REGION_SHIFT;
+                long size = Math.min (REGION_MASK + 1, byteLength - start);
+                regions[i] = channel.map (FileChannel.MapMode.READ_ONLY, start, size);
+            }
+        }
+        finally
+        {
+            // The mappings stay valid after the channel has been closed
+            raf.close ();
+        }
+        
+        buildIndex ();
+        
+        window = new char[blockSize];
+        previousWindow = new char[blockSize];
+        windowStart = windowEnd = previousWindowStart = previousWindowEnd = 0;
+    }
+
+    /** Use <code>XMLInputStreamReader</code> to find out which encoding the file uses */
+    protected static String determineEncoding (File file) throws IOException
+    {
+        XMLInputStreamReader reader = new XMLInputStreamReader (new FileInputStream (file));
+        try
+        {
+            return reader.getJavaEncoding ();
+        }
+        finally
+        {
+            reader.close ();
+        }
+    }
+    
+    /** The Java name of the encoding which is used to decode the file */
+    public String getJavaEncoding ()
+    {
+        return javaEncoding;
+    }
+
+    /** Split the file into blocks and count the characters in each block. */
+    private void buildIndex ()
+    {
+        long pos = 0;
+        if (utf8 && byteLength >= 3
+            && getByte (0) == (byte)0xEF && getByte (1) == (byte)0xBB && getByte (2) == (byte)0xBF)
+            pos = 3;
+        
+        // Blocks can be a few bytes shorter than blockSize; grow the arrays when necessary
+        int capacity = (int)Math.min (Integer.MAX_VALUE - 1, (byteLength - pos) / blockSize + 2);
+        blockByteStart = new long[capacity];
+        blockCharStart = new int[capacity];
+        
+        long chars = 0;
+        int n = 0;
+        while (pos < byteLength)
+        {
+            long end = Math.min (pos + blockSize, byteLength);
+            if (utf8)
+            {
+                // Don't split multi-byte sequences
+                for (int i=0; i<3 && end < byteLength && (getByte (end) & 0xC0) == 0x80; i++)
+                    end --;
+            }
+            
+            if (n + 1 >= blockByteStart.length)
+                growIndex ();
+            
+            blockByteStart[n] = pos;
+            blockCharStart[n] = (int)chars;
+            chars += decode (pos, end, null);
+            if (chars > Integer.MAX_VALUE)
+                throw new XMLParseException ("File is too large; sources are limited to "+Integer.MAX_VALUE+" characters");
+            
+            n ++;
+            pos = end;
+        }
+        
+        blockByteStart[n] = byteLength;
+        blockCharStart[n] = (int)chars;
+        blockCount = n;
+    }
+    
+    private void growIndex ()
+    {
+        int capacity = blockByteStart.length + blockByteStart.length / 8 + 2;
+        
+        long[] byteStart = new long[capacity];
+        System.arraycopy (blockByteStart, 0, byteStart, 0, blockByteStart.length);
+        blockByteStart = byteStart;
+        
+        int[] charStart = new int[capacity];
+        System.arraycopy (blockCharStart, 0, charStart, 0, blockCharStart.length);
+        blockCharStart = charStart;
+    }
+    
+    private byte getByte (long pos)
+    {
+        return regions[(int)(pos >>> REGION_SHIFT)].get ((int)(pos & REGION_MASK));
+    }
+    
+    /**
+     * Decode the bytes between <code>start</code> and <code>end</code>.
+     * 
+     * <p>Malformed input is replaced with U+FFFD like <code>InputStreamReader</code> does it.
+     * 
+     * @param buffer The decoded characters or <code>null</code> to just count them
+     * @return the number of characters
+     */
+    private int decode (long start, long end, char[] buffer)
+    {
+        return decode (start, end, buffer, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Like {@link #decode(long, long, char[])} but stops after <code>maxChars</code> characters.
+     * The offset after the last decoded byte is left in <code>decodeEnd</code>.
+     */
+    private int decode (long start, long end, char[] buffer, int maxChars)
+    {
+        int count = 0;
+        long pos = start;
+        
+        if (!utf8)
+        {
+            end = Math.min (end, start + maxChars);
+            if (buffer != null)
+            {
+                for ( ; pos < end; pos ++)
+                    buffer[count ++] = (char)(getByte (pos) & 0xFF);
+            }
+            decodeEnd = end;
+            return (int)(end - start);
+        }
+        
+        while (pos < end && count < maxChars)
+        {
+            int b = getByte (pos) & 0xFF;
+            int codePoint;
+            int len;
+            
+            if (b < 0x80)
+            {
+                codePoint = b;
+                len = 1;
+            }
+            else if ((b & 0xE0) == 0xC0)
+            {
+                codePoint = b & 0x1F;
+                len = 2;
+            }
+            else if ((b & 0xF0) == 0xE0)
+            {
+                codePoint = b & 0x0F;
+                len = 3;
+            }
+            else if ((b & 0xF8) == 0xF0)
+            {
+                codePoint = b & 0x07;
+                len = 4;
+            }
+            else
+            {
+                codePoint = 0xFFFD;
+                len = 1;
+            }
+            
+            if (len > 1)
+            {
+                if (pos + len > end)
+                {
+                    codePoint = 0xFFFD;
+                    len = 1;
+                }
+                else
+                {
+                    for (int i=1; i<len; i++)
+                    {
+                        int c = getByte (pos + i) & 0xFF;
+                        if ((c & 0xC0) != 0x80)
+                        {
+                            codePoint = 0xFFFD;
+                            len = 1;
+                            break;
+                        }
+                        codePoint = (codePoint << 6) | (c & 0x3F);
+                    }
+                    
+                    if (codePoint > 0x10FFFF)
+                        codePoint = 0xFFFD;
+                }
+            }
+            
+            pos += len;
+            
+            if (codePoint >= 0x10000)
+            {
+                if (buffer != null)
+                {
+                    int v = codePoint - 0x10000;
+                    buffer[count] = (char)(0xD800 + (v >>> 10));
+                    buffer[count + 1] = (char)(0xDC00 + (v & 0x3FF));
+                }
+                count += 2;
+            }
+            else
+            {
+                if (buffer != null)
+                    buffer[count] = (char)codePoint;
+                count ++;
+            }
+        }
+        
+        decodeEnd = pos;
+        return count;
+    }
+    
+    /**
+     * The position in the file of the character at <code>offset</code>. For <code>length()</code>,
+     * this is the size of the file. A byte order mark is skipped, so the first character
+     * is at position 3 in this case.
+     */
+    public long getByteOffset (int offset)
+    {
+        if (offset == length ())
+            return byteLength;
+        
+        if (offset < 0 || offset > length ())
+            throw new IndexOutOfBoundsException ("Offset "+offset+" is outside of [0,"+length ()+"]");
+        
+        int block = findBlock (offset);
+        decode (blockByteStart[block], blockByteStart[block + 1], null, offset - blockCharStart[block]);
+        return decodeEnd;
+    }
+    
+    /** Make sure the block which contains <code>offset</code> is in <code>window</code> */
+    private void load (int offset)
+    {
+        if (offset >= previousWindowStart && offset < previousWindowEnd)
+        {
+            swapWindows ();
+            return;
+        }
+        
+        if (offset < 0 || offset >= length ())
+            throw new IndexOutOfBoundsException ("Offset "+offset+" is outside of [0,"+length ()+")");
+        
+        int low = findBlock (offset);
+        
+        // Reuse the buffer of the oldest window
+        swapWindows ();
+        decode (blockByteStart[low], blockByteStart[low + 1], window);
+        windowStart = blockCharStart[low];
+        windowEnd = blockCharStart[low + 1];
+    }
+    
+    /** Binary search for the block which contains <code>offset</code> */
+    private int findBlock (int offset)
+    {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (blockCharStart[mid] <= offset)
+                low = mid;
+            else
+                high = mid - 1;
+        }
+        return low;
+    }
+    
+    private void swapWindows ()
+    {
+        char[] tmp = window;
+        window = previousWindow;
+        previousWindow = tmp;
+        
+        int start = windowStart;
+        windowStart = previousWindowStart;
+        previousWindowStart = start;
+        
+        int end = windowEnd;
+        windowEnd = previousWindowEnd;
+        previousWindowEnd = end;
+    }
+
+    public int length ()
+    {
+        return blockCharStart[blockCount];
+    }
+
+    public char charAt (int offset)
+    {
+        if (offset < windowStart || offset >= windowEnd)
+            load (offset);
+        
+        return window[offset - windowStart];
+    }
+
+    public String substring (int start, int end)
+    {
+        if (start == end)
+            return "";
+        
+        if (start < windowStart || start >= windowEnd)
+            load (start);
+        
+        if (end <= windowEnd)
+            return new String (window, start - windowStart, end - start);
+        
+        StringBuilder buffer = new StringBuilder (end - start);
+        while (start < end)
+        {
+            if (start < windowStart || start >= windowEnd)
+                load (start);
+            
+            int len = Math.min (end, windowEnd) - start;
+            buffer.append (window, start - windowStart, len);
+            start += len;
+        }
+        return buffer.toString ();
+    }
+    
+    public synchronized LineIndex getLineIndex ()
+    {
+        if (lineIndex == null)
+            lineIndex = new LineIndex (this);
+        
+        return lineIndex;
+    }
+}
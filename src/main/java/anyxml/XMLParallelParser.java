@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A parser which uses several threads to parse big documents.
+ * 
+ * <p>Parsing happens in two stages: The first stage splits the content of the
+ * root element into chunks and collects the offsets of all structural characters
+ * (<code>&lt; &gt; " '</code>) in each chunk in parallel. Since a chunk can start
+ * in a tag, an attribute value or a comment, each chunk is scanned for all of these
+ * states. The results are combined from left to right to get the real state at
+ * the start of each chunk, and then the children of the root element are collected
+ * from all chunks in parallel.
+ * 
+ * <p>In the second stage, runs of children are parsed in parallel with the
+ * normal parser code. The resulting nodes are then added to the root element
+ * in document order, so the document is the same as the one which
+ * <code>XMLParser</code> would return.
+ * 
+ * <p>Namespaces are global to a document, so the parser falls back to
+ * sequential parsing when the content of the root element declares
+ * namespace prefixes. It also parses the document again sequentially when
+ * an error is found to make sure that the error is the same as with
+ * <code>XMLParser</code>.
+ * 
+ * <p>Only <code>XMLStringSource</code> (and its subclasses) can be parsed in
+ * parallel; all other sources are parsed sequentially.
+ * 
+ * <p>For the elements below the root element, <code>startElement()</code> and
+ * <code>endElement()</code> are called by the threads of the executor, so the
+ * calls for different children of the root element can overlap.
+ * 
+ * @see anyxml.XMLParser
+ */
+public class XMLParallelParser extends XMLParser
+{
+    /** Documents with less characters than this are parsed sequentially */
+    public final static int DEFAULT_THRESHOLD = 1024*1024;
+    /** The minimal size of a chunk in the first stage */
+    private final static int MIN_CHUNK_SIZE = 64*1024;
+    /** How many tasks per thread to create (to balance uneven children) */
+    private final static int TASKS_PER_THREAD = 4;
+    
+    private static ExecutorService defaultExecutor;
+    
+    private final ExecutorService executor;
+    private final int parallelism;
+    private int threshold = DEFAULT_THRESHOLD;
+    
+    /** Create a parser which uses a shared pool of daemon threads, one per available processor */
+    public XMLParallelParser ()
+    {
+        this (getDefaultExecutor (), Runtime.getRuntime ().availableProcessors ());
+    }
+    
+    /**
+     * Create a parser which runs its tasks with the given executor.
+     * 
+     * @param parallelism The number of threads of the executor; this is used to split the work.
+     */
+    public XMLParallelParser (ExecutorService executor, int parallelism)
+    {
+        if (executor == null)
+            throw new IllegalArgumentException ("executor is null");
+        if (parallelism < 1)
+            throw new IllegalArgumentException ("parallelism must be > 0: "+parallelism);
+        
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+    
+    private static synchronized ExecutorService getDefaultExecutor ()
+    {
+        if (defaultExecutor == null)
+        {
+            defaultExecutor = Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors (), new ThreadFactory () {
+                private int count;
+                
+                public synchronized Thread newThread (Runnable r)
+                {
+                    Thread t = new Thread (r, "XMLParallelParser-"+(++ count));
+                    t.setDaemon (true);
+                    return t;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+    
+    public int getThreshold ()
+    {
+        return threshold;
+    }
+    
+    /** Documents with less characters are parsed sequentially. */
+    public XMLParallelParser setThreshold (int threshold)
+    {
+        this.threshold = threshold;
+        return this;
+    }
+    
+    public int getParallelism ()
+    {
+        return parallelism;
+    }
+    
+    @Override
+    public Document parse (XMLSource source)
+    {
+        try
+        {
+            return super.parse (source);
+        }
+        catch (ParallelParseFailed e)
+        {
+            // Parse again to get the same error as XMLParser
+        }
+        catch (XMLParseException e)
+        {
+            if (!canParseInParallel (source))
+                throw e;
+        }
+        
+        ParseContext context = createContext (source);
+        try
+        {
+            return parse (new SequentialContext (context.getTokenizer (), context.getEntityResolver ()));
+        }
+        finally
+        {
+            releaseContext (context);
+        }
+    }
+    
+    /** Can the source be parsed in parallel? This is only true for big, immutable sources. */
+    protected boolean canParseInParallel (XMLSource source)
+    {
+        return source instanceof XMLStringSource && source.length () >= threshold;
+    }
+    
+    @Override
+    protected void parseRootElement (ParseContext context, Element root)
+    {
+        XMLSource source = context.getSource ();
+        if (context instanceof SequentialContext || !canParseInParallel (source))
+        {
+            super.parseRootElement (context, root);
+            return;
+        }
+        
+        if (!parseStartTag (context, root))
+            return;
+        
+        XMLTokenizer tokenizer = context.getTokenizer ();
+        int contentStart = tokenizer.getOffset ();
+        StructureIndex index = indexContent (source, contentStart);
+        if (index == null)
+        {
+            parseElementBody (context, root);
+            return;
+        }
+        
+        parseChildren (context, root, index);
+        
+        tokenizer.setOffset (index.endTagOffset);
+        parseElementBody (context, root);
+    }
+    
+    /**
+     * Stage 1: Find the children of the root element. Returns <code>null</code> if the content can't be parsed in parallel.
+     * 
+     * <p>Each chunk is scanned once for every state in which it could start. The results are combined
+     * from left to right to find the real state and depth at the start of each chunk. As soon as that
+     * is known, the chunk is scanned again to collect the children of the root element.
+     */
+    protected StructureIndex indexContent (XMLSource source, int contentStart)
+    {
+        int length = source.length () - contentStart;
+        int chunkSize = Math.max (MIN_CHUNK_SIZE, length / (parallelism * TASKS_PER_THREAD) + 1);
+        
+        List<Future<ChunkIndex>> futures = new ArrayList<Future<ChunkIndex>> ();
+        List<Future<StructureScanner>> resolved = new ArrayList<Future<StructureScanner>> ();
+        try
+        {
+            for (int start = contentStart; start < source.length (); start += chunkSize)
+            {
+                int end = (int)Math.min ((long)start + chunkSize, source.length ());
+                futures.add (executor.submit (new ChunkScanner (source, start, end)));
+            }
+            
+            int state = StructureScanner.CONTENT;
+            int depth = 1;
+            boolean foundEndTag = false;
+            for (int i=0; i<futures.size () && !foundEndTag; i++)
+            {
+                ChunkIndex chunk = get (futures.get (i));
+                if (chunk.namespaces)
+                    return null;
+                
+                resolved.add (executor.submit (new ChunkResolver (source, chunk, state, depth)));
+                
+                foundEndTag = chunk.minEndTagDepth[state] <= 1 - depth;
+                if (!foundEndTag && chunk.endState[state] == StructureScanner.MALFORMED)
+                    return null;
+                
+                depth += chunk.depthChange[state];
+                state = chunk.endState[state];
+            }
+            
+            StructureIndex index = new StructureIndex (contentStart);
+            for (Future<StructureScanner> future: resolved)
+            {
+                StructureScanner scanner = get (future);
+                if (scanner.state == StructureScanner.MALFORMED)
+                    return null;
+                
+                index.addChildren (scanner);
+                if (scanner.endTagOffset >= 0)
+                {
+                    index.endTagOffset = scanner.endTagOffset;
+                    return index;
+                }
+            }
+            
+            // No end tag for the root element
+            return null;
+        }
+        finally
+        {
+            cancel (futures);
+            cancel (resolved);
+        }
+    }
+    
+    /** Stage 2: Parse the children of the root element in parallel and add them to <code>root</code>. */
+    protected void parseChildren (ParseContext context, Element root, StructureIndex index)
+    {
+        int length = index.endTagOffset - index.contentStart;
+        int taskSize = length / (parallelism * TASKS_PER_THREAD) + 1;
+        
+        List<ContentParser> parsers = new ArrayList<ContentParser> ();
+        int start = index.contentStart;
+        for (int i=0; i<index.childCount; i++)
+        {
+            int offset = index.childOffsets[i];
+            if (offset - start >= taskSize)
+            {
+                parsers.add (new ContentParser (context, root, start, offset));
+                start = offset;
+            }
+        }
+        if (start < index.endTagOffset)
+            parsers.add (new ContentParser (context, root, start, index.endTagOffset));
+        
+        List<Future<List<Node>>> futures = new ArrayList<Future<List<Node>>> ();
+        try
+        {
+            for (ContentParser parser: parsers)
+                futures.add (executor.submit (parser));
+            
+            for (int i=0; i<futures.size (); i++)
+            {
+                for (Node n: get (futures.get (i)))
+                    root.addNode (n);
+                
+                // Future.get() makes the field visible
+                if (parsers.get (i).tainted)
+                    root.markModified ();
+            }
+        }
+        finally
+        {
+            cancel (futures);
+        }
+    }
+    
+    /** Stop the tasks which are no longer needed after an error or when the end of the root element was found */
+    private static void cancel (List<? extends Future<?>> futures)
+    {
+        for (Future<?> future: futures)
+            future.cancel (true);
+    }
+    
+    private <T> T get (Future<T> future)
+    {
+        try
+        {
+            return future.get ();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread ().interrupt ();
+            throw new XMLParseException ("Interrupted while waiting for parser task", e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new ParallelParseFailed (e.getCause ());
+        }
+    }
+    
+    /** The context used when the document is parsed again after an error in parallel mode */
+    private static class SequentialContext extends ParseContext
+    {
+        public SequentialContext (XMLTokenizer tokenizer, EntityResolver entityResolver)
+        {
+            super (tokenizer, entityResolver);
+        }
+    }
+    
+    /** Thrown when a task failed; the document is then parsed again sequentially */
+    private static class ParallelParseFailed extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        public ParallelParseFailed (Throwable cause)
+        {
+            super (cause);
+        }
+    }
+    
+    /** The structural characters of a chunk of the source and how the chunk changes the state for each state at its start */
+    protected static class ChunkIndex
+    {
+        private int[] offsets = new int[1024];
+        private int count;
+        /** True if the chunk contains a namespace declaration (or something that looks like one) */
+        private boolean namespaces;
+        /** The state at the end of the chunk for each state at the start */
+        private final int[] endState = new int[StructureScanner.STATES];
+        /** How much deeper the end of the chunk is than the start for each state at the start */
+        private final int[] depthChange = new int[StructureScanner.STATES];
+        /** The lowest depth (relative to the start) of an end tag in the chunk for each state at the start */
+        private final int[] minEndTagDepth = new int[StructureScanner.STATES];
+        
+        private void add (int offset)
+        {
+            if (count == offsets.length)
+            {
+                int[] tmp = new int[offsets.length * 2];
+                System.arraycopy (offsets, 0, tmp, 0, count);
+                offsets = tmp;
+            }
+            offsets[count ++] = offset;
+        }
+    }
+    
+    /** Collects the structural characters of a chunk and runs the state machine over them once for every possible state at the start */
+    private static class ChunkScanner implements Callable<ChunkIndex>
+    {
+        private final XMLSource source;
+        private final int start;
+        private final int end;
+        
+        public ChunkScanner (XMLSource source, int start, int end)
+        {
+            this.source = source;
+            this.start = start;
+            this.end = end;
+        }
+        
+        public ChunkIndex call () throws Exception
+        {
+            ChunkIndex chunk = new ChunkIndex ();
+            for (int i=start; i<end; i++)
+            {
+                char c = source.charAt (i);
+                switch (c)
+                {
+                case '<':
+                case '>':
+                case '"':
+                case '\'':
+                    chunk.add (i);
+                    break;
+                    
+                case ':':
+                    // "xmlns:" might span two chunks, so look back instead of ahead
+                    if (i >= 5 && source.charAt (i-1) == 's' && Namespace.NS_PREFIX.equals (source.substring (i-5, i+1)))
+                        chunk.namespaces = true;
+                    break;
+                }
+            }
+            
+            for (int state=0; state<StructureScanner.STATES; state++)
+            {
+                StructureScanner scanner = new StructureScanner (state, 0, false);
+                scanner.scan (source, chunk);
+                
+                chunk.endState[state] = scanner.state;
+                chunk.depthChange[state] = scanner.depth;
+                chunk.minEndTagDepth[state] = scanner.minEndTagDepth;
+            }
+            return chunk;
+        }
+    }
+    
+    /** Scans a chunk again from its real state to find the children of the root element */
+    private static class ChunkResolver implements Callable<StructureScanner>
+    {
+        private final XMLSource source;
+        private final ChunkIndex chunk;
+        private final int state;
+        private final int depth;
+        
+        public ChunkResolver (XMLSource source, ChunkIndex chunk, int state, int depth)
+        {
+            this.source = source;
+            this.chunk = chunk;
+            this.state = state;
+            this.depth = depth;
+        }
+        
+        public StructureScanner call () throws Exception
+        {
+            StructureScanner scanner = new StructureScanner (state, depth, true);
+            scanner.scan (source, chunk);
+            return scanner;
+        }
+    }
+    
+    /**
+     * A small state machine over the structural characters which
+     * skips comments, CDATA sections, processing instructions and attribute values.
+     */
+    private static class StructureScanner
+    {
+        private final static int CONTENT = 0;
+        private final static int START_TAG = 1;
+        private final static int DOUBLE_QUOTE = 2;
+        private final static int SINGLE_QUOTE = 3;
+        private final static int END_TAG = 4;
+        private final static int COMMENT = 5;
+        private final static int CDATA = 6;
+        private final static int PROCESSING_INSTRUCTION = 7;
+        /** The number of states in which a chunk can start */
+        private final static int STATES = 8;
+        /** The structure looks malformed; the state machine stops */
+        private final static int MALFORMED = -1;
+        
+        private int state;
+        private int depth;
+        /** Collect the children of the root element and stop at its end tag? Otherwise, the depth is relative to the start of the chunk. */
+        private final boolean resolved;
+        private int minEndTagDepth = Integer.MAX_VALUE;
+        private int[] childOffsets = new int[16];
+        private int childCount;
+        private int endTagOffset = -1;
+        
+        public StructureScanner (int state, int depth, boolean resolved)
+        {
+            this.state = state;
+            this.depth = depth;
+            this.resolved = resolved;
+        }
+        
+        private void scan (XMLSource source, ChunkIndex chunk)
+        {
+            for (int i=0; i<chunk.count; i++)
+            {
+                int offset = chunk.offsets[i];
+                char c = source.charAt (offset);
+                
+                switch (state)
+                {
+                case CONTENT:
+                    if (c != '<')
+                        break;
+                    
+                    char next = offset + 1 < source.length () ? source.charAt (offset + 1) : 0;
+                    if (next == '/')
+                    {
+                        if (resolved && depth == 1)
+                        {
+                            endTagOffset = offset;
+                            return;
+                        }
+                        minEndTagDepth = Math.min (minEndTagDepth, depth);
+                        state = END_TAG;
+                    }
+                    else if (next == '?')
+                        state = PROCESSING_INSTRUCTION;
+                    else if (next == '!')
+                    {
+                        if (startsWith (source, offset, "<!--"))
+                            state = COMMENT;
+                        else if (startsWith (source, offset, "<![CDATA["))
+                            state = CDATA;
+                        else
+                            state = MALFORMED;
+                    }
+                    else
+                    {
+                        if (resolved && depth == 1)
+                            addChild (offset);
+                        state = START_TAG;
+                    }
+                    break;
+                
+                case START_TAG:
+                    if (c == '"')
+                        state = DOUBLE_QUOTE;
+                    else if (c == '\'')
+                        state = SINGLE_QUOTE;
+                    else if (c == '>')
+                    {
+                        if (source.charAt (offset - 1) != '/')
+                            depth ++;
+                        state = CONTENT;
+                    }
+                    else
+                        state = MALFORMED;
+                    break;
+                    
+                case DOUBLE_QUOTE:
+                    if (c == '"')
+                        state = START_TAG;
+                    else if (c == '<')
+                        state = MALFORMED;
+                    break;
+                    
+                case SINGLE_QUOTE:
+                    if (c == '\'')
+                        state = START_TAG;
+                    else if (c == '<')
+                        state = MALFORMED;
+                    break;
+                    
+                case END_TAG:
+                    if (c == '>')
+                    {
+                        depth --;
+                        state = CONTENT;
+                    }
+                    else if (c == '<')
+                        state = MALFORMED;
+                    break;
+                    
+                case COMMENT:
+                    if (c == '>' && startsWith (source, offset - 2, "--"))
+                        state = CONTENT;
+                    break;
+                    
+                case CDATA:
+                    if (c == '>' && startsWith (source, offset - 2, "]]"))
+                        state = CONTENT;
+                    break;
+                    
+                case PROCESSING_INSTRUCTION:
+                    if (c == '>' && source.charAt (offset - 1) == '?')
+                        state = CONTENT;
+                    break;
+                }
+                
+                if (state == MALFORMED)
+                    return;
+            }
+        }
+        
+        private void addChild (int offset)
+        {
+            if (childCount == childOffsets.length)
+            {
+                int[] tmp = new int[childOffsets.length * 2];
+                System.arraycopy (childOffsets, 0, tmp, 0, childCount);
+                childOffsets = tmp;
+            }
+            childOffsets[childCount ++] = offset;
+        }
+        
+        private static boolean startsWith (XMLSource source, int offset, String s)
+        {
+            if (offset + s.length () > source.length ())
+                return false;
+            
+            for (int i=0; i<s.length (); i++)
+            {
+                if (source.charAt (offset + i) != s.charAt (i))
+                    return false;
+            }
+            return true;
+        }
+    }
+    
+    /** The children of the root element */
+    protected static class StructureIndex
+    {
+        private final int contentStart;
+        /** The offsets of the start tags of the children of the root element */
+        private int[] childOffsets = new int[1024];
+        private int childCount;
+        /** The offset of the end tag of the root element or -1 if it hasn't been found, yet */
+        private int endTagOffset = -1;
+        
+        public StructureIndex (int contentStart)
+        {
+            this.contentStart = contentStart;
+        }
+        
+        /** Append the children which the scanner found in the next chunk */
+        private void addChildren (StructureScanner scanner)
+        {
+            if (childCount + scanner.childCount > childOffsets.length)
+            {
+                int[] tmp = new int[Math.max (childOffsets.length * 2, childCount + scanner.childCount)];
+                System.arraycopy (childOffsets, 0, tmp, 0, childCount);
+                childOffsets = tmp;
+            }
+            System.arraycopy (scanner.childOffsets, 0, childOffsets, childCount, scanner.childCount);
+            childCount += scanner.childCount;
+        }
+    }
+    
+    /** Parses the content of the root element between two offsets */
+    private class ContentParser implements Callable<List<Node>>
+    {
+        private final EntityResolver entityResolver;
+        private final Element root;
+        private final int start;
+        private final int end;
+        /** Is the parsed content different from the source? Valid after <code>call()</code> */
+        private boolean tainted;
+        
+        public ContentParser (ParseContext context, Element root, int start, int end)
+        {
+            this.entityResolver = context.getEntityResolver ();
+            this.root = root;
+            this.start = start;
+            this.end = end;
+        }
+        
+        public List<Node> call () throws Exception
+        {
+            // Namespaces are looked up via the document, so the nodes need it while they're parsed.
+            // This is safe because there are no namespace declarations in the content.
+            // Since the nodes already have the right document, adding them to root later doesn't walk them again.
+            Element parent = new Element (root.getName ());
+            parent.setDocument (root.getDocument ());
+            parent.startContent ();
+            
+            ParseContext context = createContext (root.getSource ());
+            context.setEntityResolver (entityResolver);
+            XMLTokenizer tokenizer = context.getTokenizer ();
+            tokenizer.setOffset (start);
+            
+            try
+            {
+                Token token = parseElementContent (context, parent, end);
+                if (token != null || tokenizer.getOffset () != end)
+                    throw new XMLParseException ("Unexpected structure while parsing children of element "+root.getName (), root.getSource (), tokenizer.getOffset ());
+                tainted = parent.isTainted ();
+            }
+            finally
+            {
+                releaseContext (context);
+            }
+            
+            return new ArrayList<Node> (parent.getNodes ());
+        }
+    }
+}
@@ -33,7 +33,8 @@ package anyxml;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import anyxml.XMLTokenizer.Type;
@@ -67,11 +68,40 @@ public class XMLParser
     /** Should the parser return entity nodes or treat them as text? Default is true. */
     private boolean treatEntitiesAsText = true;
     /** The character validator to use */
-    private CharValidator charValidator = new CharValidator ();
+    private CharValidator charValidator = CharValidator.DEFAULT;
+    /** Skip the validation of characters, names and entities? Default is false. */
+    private boolean trusted;
+    /** Create nodes which keep only offsets into the source? Default is false. */
+    private boolean compactNodes;
+    /** A tokenizer per thread which can be reused for the next document. Each thread which has used
+     *  this parser keeps one tokenizer until the thread ends or the parser is garbage collected. */
+    private final ThreadLocal<XMLTokenizer> idleTokenizer = new ThreadLocal<XMLTokenizer> ();
+    /** <code>false</code> if a subclass overrides <code>createTokenizer()</code>; it must be called for every source */
+    private final boolean reuseTokenizers;
+    
+    /** Used to release the document from idle tokenizers */
+    private final static XMLSource EMPTY_SOURCE = new XMLStringSource ("");
 
     public XMLParser ()
     {
-        // Do nothing ...
+        reuseTokenizers = !overridesCreateTokenizer (getClass ());
+    }
+    
+    private static boolean overridesCreateTokenizer (Class<?> type)
+    {
+        for ( ; type != XMLParser.class; type = type.getSuperclass ())
+        {
+            try
+            {
+                type.getDeclaredMethod ("createTokenizer", XMLSource.class);
+                return true;
+            }
+            catch (NoSuchMethodException e)
+            {
+                // Look at the superclass
+            }
+        }
+        return false;
     }
 
     public XMLParser setEntityResolver (EntityResolver entityResolver)
@@ -100,6 +130,12 @@ public class XMLParser
         return expandEntities && entityResolver != null;
     }
     
+    /** Should entities be expanded while parsing? This is also true when only the doc type defines entities. */
+    protected boolean isExpandEntities (ParseContext context)
+    {
+        return expandEntities && context.getEntityResolver () != null;
+    }
+    
     public XMLParser setTreatEntitiesAsText (boolean treatEntitiesAsText)
     {
         this.treatEntitiesAsText = treatEntitiesAsText;
@@ -111,6 +147,47 @@ public class XMLParser
         return treatEntitiesAsText;
     }
     
+    /** Parse the input in trusted mode.
+     * 
+     *  @see XMLTokenizer#setTrusted(boolean)
+     */
+    public XMLParser setTrusted (boolean trusted)
+    {
+        this.trusted = trusted;
+        return this;
+    }
+    
+    public boolean isTrusted ()
+    {
+        return trusted;
+    }
+    
+    /** Create compact nodes which keep only offsets into the source instead of tokens and strings.
+     * 
+     *  <p>The strings (names, values, text) are created from the source when they are first needed.
+     *  This needs much less memory for big documents but the source is kept in memory
+     *  as long as the document is used.
+     *  
+     *  <p>This is ignored for instances of <code>XMLStreamSource</code> since they discard the data
+     *  which has been parsed.
+     */
+    public XMLParser setCompactNodes (boolean compactNodes)
+    {
+        this.compactNodes = compactNodes;
+        return this;
+    }
+    
+    public boolean isCompactNodes ()
+    {
+        return compactNodes;
+    }
+    
+    /** Should compact nodes be created for the document being parsed? */
+    protected boolean isCompactNodes (ParseContext context)
+    {
+        return compactNodes && !(context.getSource () instanceof XMLStreamSource);
+    }
+    
     public CharValidator getCharValidator ()
     {
         return charValidator;
@@ -125,14 +202,65 @@ public class XMLParser
         return this;
     }
     
-    /** Parse an XML source into a Document */
+    /** Parse an XML source into a Document.
+     * 
+     *  <p>This method doesn't change the parser; it's safe to call it from several threads at the same time
+     *  as long as the configuration isn't changed.
+     */
     public Document parse (XMLSource source)
     {
-        Document doc = new Document ();
+        ParseContext context = createContext (source);
+        try
+        {
+            return parse (context);
+        }
+        finally
+        {
+            releaseContext (context);
+        }
+    }
+    
+    /** Create the state for parsing <code>source</code>.
+     * 
+     *  <p>If the current thread has released a tokenizer before, it is reset and reused.
+     *  That makes parsing many small documents with the same parser cheaper. Each thread keeps
+     *  at most one idle tokenizer per parser. Tokenizers aren't reused when a subclass overrides
+     *  {@link #createTokenizer(XMLSource)}.
+     */
+    protected ParseContext createContext (XMLSource source)
+    {
+        XMLTokenizer tokenizer = idleTokenizer.get ();
+        if (tokenizer == null)
+            tokenizer = createTokenizer (source);
+        else
+        {
+            idleTokenizer.set (null);
+            tokenizer.reset (source);
+            tokenizer.setTreatEntitiesAsText (treatEntitiesAsText);
+            tokenizer.setTrusted (trusted);
+        }
         
-        XMLTokenizer tokenizer = createTokenizer (source);
         tokenizer.setCharValidator (charValidator);
         tokenizer.setEntityResolver (entityResolver);
+        return new ParseContext (tokenizer, entityResolver);
+    }
+    
+    /** Call this when a context isn't used anymore. Its tokenizer will be used for the next document parsed by this thread. */
+    protected void releaseContext (ParseContext context)
+    {
+        if (!reuseTokenizers)
+            return;
+        
+        XMLTokenizer tokenizer = context.getTokenizer ();
+        tokenizer.reset (EMPTY_SOURCE);
+        idleTokenizer.set (tokenizer);
+    }
+    
+    protected Document parse (ParseContext context)
+    {
+        Document doc = new Document ();
+        
+        XMLTokenizer tokenizer = context.getTokenizer ();
         Token token;
 
         while ((token = tokenizer.next ()) != null)
@@ -146,31 +274,48 @@ public class XMLParser
                 
                 tokenizer.setOffset (dtdTokenizer.getOffset ());
                 
-                entityResolver = new DocTypeEntityResolver (docType, entityResolver);
+                context.setEntityResolver (new DocTypeEntityResolver (docType, context.getEntityResolver ()));
                 
                 continue;
             }
             
-            Node n = toNode (token);
+            Node n = toNode (context, token);
             doc.addNode (n);
             
             if (token.getType() == Type.BEGIN_ELEMENT)
             {
-                parseElement (tokenizer, (Element)n);
+                parseRootElement (context, (Element)n);
             }
         }
         
         if (doc.getRootElement () == null)
             throw new XMLParseException ("No root element found");
         
-        if (entityResolver instanceof DocTypeEntityResolver)
-        {
-            entityResolver = entityResolver.getParent ();
-        }
-        
         return doc;
     }
 
+    /**
+     * Parse an XML source and report the content of the root element to <code>handler</code>
+     * without building a tree.
+     * 
+     * @see anyxml.XMLEventParser
+     */
+    public Document parse (XMLSource source, XMLHandler handler)
+    {
+        return new XMLEventParser (this).parse (source, handler);
+    }
+    
+    /**
+     * Iterate over the elements which match <code>path</code> (for example <code>/feed/record</code>)
+     * without building the whole document.
+     * 
+     * @see anyxml.ElementIterator
+     */
+    public ElementIterator iterate (XMLSource source, String path)
+    {
+        return new ElementIterator (this, source, path);
+    }
+    
     protected DocType parseDocType (XMLTokenizer tokenizer)
     {
         Token startToken = tokenizer.next ();
@@ -756,12 +901,36 @@ public class XMLParser
     {
         XMLTokenizer tokenizer = new XMLTokenizer (source);
         tokenizer.setTreatEntitiesAsText (treatEntitiesAsText);
+        tokenizer.setTrusted (trusted);
         return tokenizer;
     }
 
-    /** Parse all tokens up to the end tag recursively into an element. */
-    protected void parseElement (XMLTokenizer tokenizer, Element parent)
+    /** Parse the root element of the document. By default, this just calls {@link #parseElement(ParseContext, Element)}. */
+    protected void parseRootElement (ParseContext context, Element root)
+    {
+        parseElement (context, root);
+    }
+    
+    /**
+     * Parse all tokens up to the end tag into an element.
+     * 
+     * <p>This is only called for the root element and by <code>ElementIterator</code>; the children
+     * are parsed in the loop of {@link #parseElementContent(ParseContext, Element, int)}. To see every
+     * element, override {@link #startElement(ParseContext, Element)} and {@link #endElement(ParseContext, Element)}.
+     */
+    protected void parseElement (ParseContext context, Element parent)
+    {
+        if (parseStartTag (context, parent))
+            parseElementBody (context, parent);
+    }
+    
+    /** Parse the attributes of an element up to the end of the start tag.
+     * 
+     * @return <code>false</code> if the element is empty (i.e. the start tag ends with "/&gt;")
+     */
+    protected boolean parseStartTag (ParseContext context, Element parent)
     {
+        XMLTokenizer tokenizer = context.getTokenizer ();
         // This loop reads all the attributes and the whitespace between then
         Token token = null;
         while (true)
@@ -777,10 +946,50 @@ public class XMLParser
                 throw new XMLParseException ("Expected whitespace between attributes of element a but found "+token, token);
             
             // TODO Expand entities
-            parent.addAttribute ((Attribute)toNode (token));
+            parent.addAttribute ((Attribute)toNode (context, token));
         }
         
-        // Get rid of namespace prefix and add the namespace to the element
+        if (parent.isCompactNode ())
+            parseCompactName (parent);
+        else
+            parseName (parent);
+
+        if (token == null)
+            throw new XMLParseException ("Unexpected end-of-file while parsing attributes of element "+parent.getName (), tokenizer.getSource (), tokenizer.getOffset ());
+        
+        String postSpace = token.getPrefixWhiteSpace();
+        parent.setPostSpace (postSpace);
+        if ("/>".equals (token.getText ().trim ()))
+        {
+            parent.setCompactEmpty (true);
+            parent.setEndOffset (token.getEndOffset ());
+            parent.startContent ();
+            parent.endContent ();
+            startElement (context, parent);
+            endElement (context, parent);
+            return false;
+        }
+        
+        parent.startContent ();
+        startElement (context, parent);
+        return true;
+    }
+    
+    /** Called after the start tag of every element was parsed. The element has its attributes but no children, yet. */
+    protected void startElement (ParseContext context, Element element)
+    {
+        // Nothing to do
+    }
+    
+    /** Called after the end tag of every element was parsed; for empty elements, this is called right after {@link #startElement(ParseContext, Element)}. */
+    protected void endElement (ParseContext context, Element element)
+    {
+        // Nothing to do
+    }
+    
+    /** Get rid of namespace prefix and add the namespace to the element */
+    protected void parseName (Element parent)
+    {
         int pos = parent.getName ().indexOf (':');
         if (pos == 0)
             throw new XMLParseException ("Missing namespace prefix before colon: '"+parent.getName ()+"'", parent.getStartToken ());
@@ -803,86 +1012,174 @@ public class XMLParser
             parent.setBeginName (beginName);
             parent.setEndName (endName);
         }
-
-        if (token == null)
-            throw new XMLParseException ("Unexpected end-of-file while parsing attributes of element "+parent.getName (), tokenizer.getSource (), tokenizer.getOffset ());
+    }
+    
+    /** Like {@link #parseName(Element)} but for compact elements; the name isn't created. */
+    protected void parseCompactName (Element parent)
+    {
+        XMLSource source = parent.getSource ();
+        int start = parent.getNameOffset ();
+        int end = parent.getNameEndOffset ();
+        int pos = start;
+        while (pos < end && source.charAt (pos) != ':')
+            pos ++;
         
-        if (token.getType() == Type.BEGIN_ELEMENT_END)
-        {
-            String postSpace = token.getPrefixWhiteSpace();
-            parent.setPostSpace (postSpace);
-            if ("/>".equals (token.getText ().trim ()))
-            {
-                parent.setCompactEmpty (true);
-                return;
-            }
-        }
+        if (pos == end)
+            return;
+        if (pos == start)
+            throw new XMLParseException ("Missing namespace prefix before colon: '"+parent.getName ()+"'", parent.getStartToken ());
+        
+        String prefix = source.substring (start, pos);
+        Namespace ns = parent.getDocument ().getNamespace (prefix);
+        if (ns == null)
+            throw new XMLParseException ("The namespace prefix "+prefix+" is not defined: '"+parent.getName ()+"'", parent.getStartToken ());
+        if (pos + 1 == end)
+            throw new XMLParseException ("Missing element name after namespace prefix: '"+parent.getName ()+"'", parent.getStartToken ());
+        
+        parent.setNamespace (ns);
+        parent.setNameOffset (pos + 1);
+    }
 
-        token = parseElementContent (tokenizer, parent, null);
+    /** Parse the children of an element and its end tag */
+    protected void parseElementBody (ParseContext context, Element parent)
+    {
+        Token token = parseElementContent (context, parent);
         if (token == null)
             throw new XMLParseException ("Unexpected end-of-file while parsing children of element "+parent.getName (), parent.getStartToken ());
     }
 
     /**
-     * @param tokenizer
-     * @param parent
+     * Parse the content of an element until the end tag.
+     * 
+     * @return the end tag or <code>null</code> at EOF
+     */
+    protected Token parseElementContent (ParseContext context, Element parent)
+    {
+        return parseElementContent (context, parent, Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Parse the content of an element until the end tag or until the tokenizer reaches <code>endOffset</code>.
+     * 
+     * <p>Child elements are parsed in the same loop with an explicit stack of open elements,
+     * so the nesting depth isn't limited by the size of the thread stack. The start tags of
+     * the children are parsed with {@link #parseStartTag(ParseContext, Element)}, so
+     * {@link #startElement(ParseContext, Element)} and {@link #endElement(ParseContext, Element)}
+     * are called for them but {@link #parseElement(ParseContext, Element)} isn't.
+     * 
+     * @return the end tag or <code>null</code> if EOF or <code>endOffset</code> was reached
      */
-    protected Token parseElementContent (XMLTokenizer tokenizer, Element parent, Set<String> recursionTrap)
+    protected Token parseElementContent (ParseContext context, Element parent, int endOffset)
     {
+        XMLTokenizer tokenizer = context.getTokenizer ();
+        List<Element> stack = new ArrayList<Element> ();
+        Element current = parent;
+        
         // This loop goes over the element content and stops after processing the end tag
-        while (true)
+        while (!stack.isEmpty () || tokenizer.getOffset () < endOffset)
         {
             Token token = tokenizer.next ();
             if (token == null)
-                return null;
+            {
+                if (stack.isEmpty ())
+                    return null;
+                
+                throw new XMLParseException ("Unexpected end-of-file while parsing children of element "+current.getName (), current.getStartToken ());
+            }
             
             if (token.getType() == Type.END_ELEMENT)
             {
-                String endName = token.getText ();
-                endName = endName.substring (2, endName.length () - 1);
-                String name = endName.trim ();
+                if (!current.isCompactNode () || !isCompactEndTag (current, token))
+                    parseEndTag (current, token);
                 
-                String elementName = parent.getName ();
-                if (parent.getNamespace ().getPrefix ().length () != 0)
-                    elementName = parent.getNamespace ().getPrefix () + ":" + elementName;
+                current.setEndOffset (token.getEndOffset ());
+                current.endContent ();
+                endElement (context, current);
                 
-                if (!name.trim ().equals (elementName))
-                {
-                    Location l = new Location (token);
-                    throw new XMLParseException ("End element '"+name+"' at line "+l.getLine ()+", column "+l.getColumn ()+" doesn't match with '"+parent.getName ()+"'", parent.getStartToken ());
-                }
+                if (stack.isEmpty ())
+                    return token;
                 
-                if (endName.length () != parent.getName ().length ())
-                    parent.setEndName (endName);
-                
-                parent.getStartToken ().setEndOffset (token.getEndOffset ());
-                
-                return token;
+                current = stack.remove (stack.size () - 1);
+                continue;
             }
-            else if (expandEntities && token.getType () == Type.ENTITY)
+            else if (token.getType () == Type.ENTITY && isExpandEntities (context))
             {
-                if (recursionTrap == null)
-                    recursionTrap = new HashSet<String> ();
-                expandEntity (parent, tokenizer, token, recursionTrap);
+                expandEntity (context, current, token);
                 continue;
             }
             
-            Node n = toNode (token);
-            parent.addNode (n);
+            Node n = toNode (context, token);
+            current.addNode (n);
             
             if (token.getType() == Type.BEGIN_ELEMENT)
             {
                 Element child = (Element)n;
-                parseElement (tokenizer, child);
+                if (parseStartTag (context, child))
+                {
+                    stack.add (current);
+                    current = child;
+                }
             }
         }
+        
+        return null;
     }
 
-    protected void expandEntity (Element parent, XMLTokenizer parentTokenizer, Token entityToken, Set<String> recursionTrap)
+    /** Check that the end tag matches the start tag of <code>element</code> */
+    protected void parseEndTag (Element element, Token token)
+    {
+        String endName = token.getText ();
+        endName = endName.substring (2, endName.length () - 1);
+        String name = endName.trim ();
+        
+        String elementName = element.getName ();
+        if (element.getNamespace ().getPrefix ().length () != 0)
+            elementName = element.getNamespace ().getPrefix () + ":" + elementName;
+        
+        if (!name.trim ().equals (elementName))
+        {
+            Location l = new Location (token);
+            throw new XMLParseException ("End element '"+name+"' at line "+l.getLine ()+", column "+l.getColumn ()+" doesn't match with '"+element.getName ()+"'", element.getStartToken ());
+        }
+        
+        if (endName.length () != element.getName ().length ())
+            element.initEndName (endName);
+    }
+    
+    /** Does the end tag contain exactly the name in the start tag of the compact <code>element</code>?
+     * 
+     *  <p>This compares the characters in the source, so no strings are created.
+     *  If this returns <code>false</code>, the end tag is checked with {@link #parseEndTag(Element, Token)}.
+     */
+    protected boolean isCompactEndTag (Element element, Token token)
+    {
+        XMLSource source = element.getSource ();
+        if (source != token.getSource ())
+            return false;
+        
+        int start = element.getQualifiedNameOffset ();
+        int length = element.getNameEndOffset () - start;
+        int pos = token.getStartOffset () + 2;
+        if (token.getEndOffset () - 1 - pos != length)
+            return false;
+        
+        for (int i=0; i<length; i++)
+        {
+            if (source.charAt (start + i) != source.charAt (pos + i))
+                return false;
+        }
+        
+        return true;
+    }
+    
+    protected void expandEntity (ParseContext context, Element parent, Token entityToken)
     {
         String entity = entityToken.getText ();
+        
+        // The element doesn't look like its source anymore
+        parent.markModified ();
 
-        String expandedEntity = getEntityResolver ().expand (entity);
+        String expandedEntity = context.getEntityResolver ().expand (entity);
         if (expandedEntity == null)
             throw new XMLParseException ("Entity "+entity+" is not defined", entityToken);
         
@@ -892,22 +1189,25 @@ public class XMLParser
             return;
         }
         
+        Set<String> recursionTrap = context.getRecursionTrap ();
         if (recursionTrap.contains (entity))
             throw new XMLParseException ("Expansion of "+entity+" leads to infinite recursion", entityToken);
         
         //System.out.println (expandedEntity);
         
         XMLStringSource source = new XMLStringSource (expandedEntity);
+        XMLTokenizer parentTokenizer = context.getTokenizer ();
         XMLTokenizer entityTokenizer = new XMLTokenizer (source);
         entityTokenizer.setEntityResolver (parentTokenizer.getEntityResolver ());
         entityTokenizer.setTreatEntitiesAsText (parentTokenizer.isTreatEntitiesAsText ());
         entityTokenizer.setCharValidator (parentTokenizer.getCharValidator ());
+        entityTokenizer.setTrusted (parentTokenizer.isTrusted ());
         
         Token token;
         try
         {
             recursionTrap.add (entity);
-            token = parseElementContent (entityTokenizer, parent, recursionTrap);
+            token = parseElementContent (context.createEntityContext (entityTokenizer), parent);
             recursionTrap.remove (entity);
         }
         catch (XMLParseException e)
@@ -922,6 +1222,15 @@ public class XMLParser
         throw new XMLParseException ("Expanded entity "+entity+" is not well-formed since it contains the end-token for '"+parent.getName ()+"'", entityToken);
     }
 
+    /** Turn a token into a node; entities get the entity resolver of the document being parsed. */
+    protected Node toNode (ParseContext context, Token token)
+    {
+        Node n = isCompactNodes (context) ? toCompactNode (token) : toNode (token);
+        if (n instanceof Entity)
+            ((Entity)n).setResolver (context.getEntityResolver ());
+        return n;
+    }
+    
     /** This turns a token into a node.
      * 
      *  <p>Override this to implement custom node types. 
@@ -962,6 +1271,30 @@ public class XMLParser
         throw new XMLParseException ("Unexpected token "+token, token); //@COBEX
     }
 
+    /** Turn a token into a compact node which keeps only offsets into the source.
+     * 
+     *  <p>Tokens without a compact node type (like processing instructions) are passed to {@link #toNode(Token)}.
+     */
+    protected Node toCompactNode (Token token)
+    {
+        XMLSource source = token.getSource ();
+        int start = token.getStartOffset ();
+        int end = token.getEndOffset ();
+        
+        switch (token.getType ())
+        {
+        case TEXT:
+        case CDATA:
+        case DTD_WHITESPACE:
+            return new Text (token.getType (), source, start, end);
+        case ENTITY: return new Entity (source, start, end, entityResolver);
+        case ATTRIBUTE: return new Attribute (source, start, end);
+        case BEGIN_ELEMENT: return new Element (source, start, end);
+        case COMMENT: return new Comment (source, start, end);
+        default: return toNode (token);
+        }
+    }
+    
     protected Node createDocTypeText (Token token)
     {
         return new DocTypeText (token);
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes XML from a sequence of calls like <code>startElement()</code>, <code>attribute()</code>,
+ * <code>text()</code> and <code>endElement()</code> instead of a tree of nodes.
+ * 
+ * <p>Only the names of the open elements are kept, so the memory doesn't depend on the
+ * size of the output. Use this for documents which are too big to build in memory.
+ * Existing nodes (for example, an element which was parsed or built as a tree) can be
+ * written in between with {@link #write(Node)}.
+ * 
+ * <p>The characters are written by an <code>XMLWriter</code>, so escaping, indentation
+ * and <code>padCompact</code> work the same way. The output is the same as that of a tree
+ * with the same nodes. Elements without children are written as empty elements
+ * (&lt;x/&gt;). Hooks in <code>XMLWriter.write(Node, String)</code> are called with
+ * <code>null</code> as the node for the markup written by this class.
+ * 
+ * <pre>
+ * XMLPushWriter out = new XMLPushWriter (writer);
+ * out.startElement ("feed").attribute ("version", "1.0");
+ * for (Record r: records)
+ *     out.startElement ("record").text (r.getName ()).endElement ();
+ * out.close ();
+ * </pre>
+ */
+public class XMLPushWriter
+{
+    private final XMLWriter writer;
+    /** The names of the open elements */
+    private final List<String> names = new ArrayList<String> ();
+    /** The start tag of the innermost element still needs its '&gt;' (attributes can be added) */
+    private boolean startTagOpen;
+    /** The last child of the current element was an empty element */
+    private boolean afterEmpty;
+    /**
+     * When indenting, a text which is the first child of an element is kept until it's clear
+     * whether it's the only child (then it's written without line breaks around it).
+     */
+    private String pendingText;
+    private boolean pendingCDATA;
+    
+    public XMLPushWriter (Writer writer)
+    {
+        this (new XMLWriter (writer));
+    }
+    
+    public XMLPushWriter (XMLWriter writer)
+    {
+        if (writer == null)
+            throw new IllegalArgumentException ("writer is null");
+        
+        this.writer = writer;
+    }
+    
+    /** The writer which is used to produce the output; use it to set the indent */
+    public XMLWriter getWriter ()
+    {
+        return writer;
+    }
+    
+    /** The number of open elements */
+    public int getDepth ()
+    {
+        return names.size ();
+    }
+    
+    public XMLPushWriter startElement (String name) throws IOException
+    {
+        if (name == null || name.length () == 0)
+            throw new IllegalArgumentException ("name is empty");
+        
+        beforeChild (true);
+        
+        if (writer.getIndent () != null && writer.getLevel () > 0)
+        {
+            writer.nl ();
+            writer.indent ();
+        }
+        
+        writer.write (null, "<");
+        writer.write (null, name);
+        
+        names.add (name);
+        startTagOpen = true;
+        return this;
+    }
+    
+    /** Add an attribute to the element which was just started */
+    public XMLPushWriter attribute (String name, String value) throws IOException
+    {
+        if (!startTagOpen)
+            throw new IllegalStateException ("Attributes must follow startElement(); "
+                    + (names.isEmpty () ? "no element is open" : "element "+currentName ()+" already has content"));
+        
+        new Attribute (name, value).toXML (writer);
+        return this;
+    }
+    
+    /** Add text; '&lt;', '&gt;' and '&amp;' are escaped */
+    public XMLPushWriter text (String text) throws IOException
+    {
+        addText (text, false);
+        return this;
+    }
+    
+    /** Add a CDATA section */
+    public XMLPushWriter cdata (String text) throws IOException
+    {
+        if (text.contains ("]]>"))
+            throw new XMLParseException ("The text of a CDATA section must not contain ']]>': ["+text+"]");
+        
+        addText (text, true);
+        return this;
+    }
+    
+    public XMLPushWriter comment (String text) throws IOException
+    {
+        Comment c = new Comment (text);
+        beforeChild (false);
+        c.toXML (writer);
+        return this;
+    }
+    
+    public XMLPushWriter processingInstruction (String target, String text) throws IOException
+    {
+        ProcessingInstruction pi = new ProcessingInstruction (target, text);
+        beforeChild (false);
+        pi.toXML (writer);
+        return this;
+    }
+    
+    /**
+     * Write an existing node (for example, an element with all its children) as the next child.
+     * 
+     * <p>The indentation of elements matches the output of the tree; texts are written as they are.
+     */
+    public XMLPushWriter write (Node node) throws IOException
+    {
+        beforeChild (XMLUtils.isElement (node));
+        node.toXML (writer);
+        return this;
+    }
+    
+    /** Close the innermost element */
+    public XMLPushWriter endElement () throws IOException
+    {
+        if (names.isEmpty ())
+            throw new IllegalStateException ("No element is open");
+        
+        String name = names.remove (names.size () - 1);
+        if (startTagOpen)
+        {
+            // No children
+            startTagOpen = false;
+            writer.write (null, writer.isPadCompact () ? " />" : "/>");
+            afterEmpty = !names.isEmpty ();
+            return this;
+        }
+        
+        boolean singleText = (pendingText != null);
+        if (singleText)
+            writePendingText ();
+        
+        writer.leaveElement ();
+        if (writer.getIndent () != null && !singleText)
+        {
+            writer.nl ();
+            writer.indent ();
+        }
+        
+        writer.write (null, "</");
+        writer.write (null, name);
+        writer.write (null, ">");
+        afterEmpty = false;
+        return this;
+    }
+    
+    /** End all open elements and flush the output */
+    public void finish () throws IOException
+    {
+        while (!names.isEmpty ())
+            endElement ();
+        writer.flush ();
+    }
+    
+    public void flush () throws IOException
+    {
+        writer.flush ();
+    }
+    
+    /** End all open elements and close the writer */
+    public void close () throws IOException
+    {
+        finish ();
+        writer.close ();
+    }
+    
+    private String currentName ()
+    {
+        return names.get (names.size () - 1);
+    }
+    
+    private void addText (String text, boolean cdata) throws IOException
+    {
+        boolean indent = writer.getIndent () != null;
+        if (indent && startTagOpen && !isWhitespace (text))
+        {
+            // Might be the only child
+            closeStartTag ();
+            pendingText = text;
+            pendingCDATA = cdata;
+            return;
+        }
+        
+        boolean newLine = indent && afterEmpty && !isWhitespace (text);
+        beforeChild (false);
+        if (newLine)
+        {
+            writer.nl ();
+            writer.indent ();
+        }
+        writeText (text, cdata);
+    }
+    
+    /** Finish the start tag of the current element and handle the indentation before a new child */
+    private void beforeChild (boolean element) throws IOException
+    {
+        afterEmpty = false;
+        if (names.isEmpty ())
+            return;
+        
+        boolean first = startTagOpen;
+        closeStartTag ();
+        
+        if (writer.getIndent () != null)
+        {
+            if (pendingText != null)
+            {
+                // There is more than one child
+                writer.nl ();
+                writer.indent ();
+                writePendingText ();
+            }
+            else if (first && !element)
+            {
+                writer.nl ();
+                writer.indent ();
+            }
+        }
+    }
+    
+    private void closeStartTag () throws IOException
+    {
+        if (startTagOpen)
+        {
+            startTagOpen = false;
+            writer.write (null, ">");
+            writer.enterElement ();
+        }
+    }
+    
+    private void writePendingText () throws IOException
+    {
+        String text = pendingText;
+        pendingText = null;
+        writeText (text, pendingCDATA);
+    }
+    
+    private void writeText (String text, boolean cdata) throws IOException
+    {
+        if (cdata)
+        {
+            writer.write (null, "<![CDATA[");
+            writer.write (null, text);
+            writer.write (null, "]]>");
+        }
+        else
+            writer.writeEscapedText (null, text);
+    }
+    
+    private static boolean isWhitespace (String text)
+    {
+        for (int i=0; i<text.length (); i++)
+        {
+            if (!Character.isWhitespace (text.charAt (i)))
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An XML source which reads from a <code>Reader</code> or an <code>InputStream</code>
+ * as the characters are requested.
+ * 
+ * <p>The characters are kept in a list of fixed-size chunks. When the characters before
+ * some offset aren't needed anymore, {@link #release(int)} recycles all chunks before that
+ * offset. That way, the memory needed only depends on the size of the biggest token and
+ * not on the size of the document. The parsers which don't keep tokens (<code>XMLEventParser</code>,
+ * <code>PathMatcher</code> and the iterator of <code>XMLParser.iterate()</code>) call it as they
+ * go; <code>XMLParser.parse()</code> doesn't since the nodes of the document read their text
+ * from the source. When you use the tokenizer directly, call it yourself.
+ * 
+ * <p>Line numbers of released characters are only counted when {@link #setTrackLines(boolean)}
+ * was called before. Otherwise, the lines and columns of a <code>Location</code> are counted
+ * from the first character which was still available when the line index was created.
+ * 
+ * <p>{@link #length()} returns the number of characters read so far plus a small look-ahead
+ * until the end of the input has been reached. This is enough for <code>XMLTokenizer</code>
+ * which always checks the length before reading the next character.
+ * 
+ * <p>Note that nodes created by <code>XMLParser</code> read their text lazily from the
+ * source; don't release parts of the source which are still used by nodes.
+ * 
+ * <p>Like all sources, the number of characters is limited to <code>Integer.MAX_VALUE</code>.
+ * Instances of this class are not thread-safe.
+ * 
+ * @see anyxml.XMLTokenizer
+ */
+public class XMLStreamSource implements LineIndexSource
+{
+    /** The default size of a chunk in characters */
+    public final static int DEFAULT_CHUNK_SIZE = 8192;
+    /** How many characters {@link #length()} tries to read beyond the last accessed offset */
+    public final static int LOOK_AHEAD = 64;
+    
+    private final Reader reader;
+    private final int chunkSize;
+    /** The chunks which are still in use */
+    private final List<char[]> chunks = new ArrayList<char[]> ();
+    /** Released chunks which can be reused */
+    private final List<char[]> freeChunks = new ArrayList<char[]> ();
+    /** The offset of the first character in <code>chunks.get(0)</code> */
+    private int firstOffset;
+    /** The number of characters which have been read so far */
+    private int end;
+    private boolean eof;
+    /** The highest offset which has been accessed */
+    private int highWater;
+    
+    /** Lines and columns (needed by <code>Location</code>); released lines are discarded */
+    private LineIndex lineIndex;
+    /** Count the lines of characters before they are released? */
+    private boolean trackLines;
+    
+    public XMLStreamSource (InputStream in)
+    {
+        this (new XMLInputStreamReader (in));
+    }
+    
+    public XMLStreamSource (Reader reader)
+    {
+        this (reader, DEFAULT_CHUNK_SIZE);
+    }
+    
+    public XMLStreamSource (Reader reader, int chunkSize)
+    {
+        if (reader == null)
+            throw new IllegalArgumentException ("reader is null");
+        if (chunkSize < 1)
+            throw new IllegalArgumentException ("chunkSize must be > 0: "+chunkSize);
+        
+        this.reader = reader;
+        this.chunkSize = chunkSize;
+    }
+    
+    /** The number of characters read so far; this is the real length after the end of the input has been reached. */
+    public int length ()
+    {
+        if (!eof && end < highWater + LOOK_AHEAD)
+            fill (highWater + LOOK_AHEAD);
+        
+        return end;
+    }
+
+    public char charAt (int offset)
+    {
+        if (offset >= end)
+        {
+            fill (offset + 1);
+            if (offset >= end)
+                throw new IndexOutOfBoundsException ("Offset "+offset+" is beyond the end of the input ("+end+")");
+        }
+        else if (offset < firstOffset)
+            throw new IndexOutOfBoundsException ("Offset "+offset+" has already been released; first available offset is "+firstOffset);
+        
+        if (offset > highWater)
+            highWater = offset;
+        
+        return get (offset);
+    }
+
+    public String substring (int start, int end)
+    {
+        if (start == end)
+            return "";
+        
+        charAt (start);
+        charAt (end - 1);
+        
+        StringBuilder buffer = new StringBuilder (end - start);
+        int index = start - firstOffset;
+        int remaining = end - start;
+        while (remaining > 0)
+        {
+            int inChunk = index % chunkSize;
+            int len = Math.min (remaining, chunkSize - inChunk);
+            buffer.append (chunks.get (index / chunkSize), inChunk, len);
+            index += len;
+            remaining -= len;
+        }
+        return buffer.toString ();
+    }
+    
+    public boolean isTrackLines ()
+    {
+        return trackLines;
+    }
+    
+    /**
+     * Count the lines of the characters before they are released, so <code>Location</code> always
+     * returns the real line and column. This scans all the characters once more, so it's off by default.
+     */
+    public XMLStreamSource setTrackLines (boolean trackLines)
+    {
+        this.trackLines = trackLines;
+        return this;
+    }
+    
+    /** True, if the whole input has been read */
+    public boolean isEOF ()
+    {
+        return eof;
+    }
+    
+    /** The first offset which can still be accessed */
+    public int getFirstOffset ()
+    {
+        return firstOffset;
+    }
+    
+    /**
+     * Tell the source that all characters before <code>offset</code> are no longer needed.
+     * 
+     * <p>Usually, you'll call this with the start offset of the oldest token which you
+     * still need or with <code>XMLTokenizer.getOffset()</code> if you don't keep any tokens.
+     * Only whole chunks are released; it's safe to call this method often.
+     */
+    public void release (int offset)
+    {
+        offset = Math.min (offset, end);
+        int count = Math.min (chunks.size () - 1, (offset - firstOffset) / chunkSize);
+        if (count <= 0)
+            return;
+        
+        if (trackLines || lineIndex != null)
+            getLineIndex ().discard (firstOffset + count * chunkSize);
+        
+        for (int i=0; i<count; i++)
+        {
+            char[] chunk = chunks.remove (0);
+            firstOffset += chunkSize;
+            
+            // Keep a few chunks for reuse; the rest is garbage
+            if (freeChunks.size () < 2)
+                freeChunks.add (chunk);
+        }
+    }
+    
+    /** Close the underlying reader */
+    public void close () throws IOException
+    {
+        reader.close ();
+    }
+
+    /** Read from the reader until at least <code>required</code> characters are available or EOF is reached */
+    protected void fill (int required)
+    {
+        try
+        {
+            while (!eof && end < required)
+            {
+                int index = end - firstOffset;
+                int inChunk = index % chunkSize;
+                if (index / chunkSize >= chunks.size ())
+                {
+                    char[] chunk = freeChunks.isEmpty () ? new char[chunkSize] : freeChunks.remove (freeChunks.size () - 1);
+                    chunks.add (chunk);
+                }
+                
+                char[] chunk = chunks.get (chunks.size () - 1);
+                int len = reader.read (chunk, inChunk, chunkSize - inChunk);
+                if (len == -1)
+                    eof = true;
+                else
+                    end += len;
+            }
+        }
+        catch (IOException e)
+        {
+            throw new XMLParseException ("Error reading from stream: "+e.getMessage (), e);
+        }
+    }
+    
+    private char get (int offset)
+    {
+        int index = offset - firstOffset;
+        return chunks.get (index / chunkSize)[index % chunkSize];
+    }
+    
+    public LineIndex getLineIndex ()
+    {
+        if (lineIndex == null)
+            lineIndex = new LineIndex (this, firstOffset);
+        
+        return lineIndex;
+    }
+    
+    /** The first offset after the released characters for which line and column information is available */
+    public int getDiscardedOffset ()
+    {
+        return getLineIndex ().getBaseOffset ();
+    }
+    
+    /** The line at <code>getDiscardedOffset()</code> */
+    public int getDiscardedLine ()
+    {
+        return getLineIndex ().getBaseLocation ().getLine ();
+    }
+    
+    /** The column at <code>getDiscardedOffset()</code> */
+    public int getDiscardedColumn ()
+    {
+        return getLineIndex ().getBaseLocation ().getColumn ();
+    }
+    
+    /** The start of the line which contains <code>getDiscardedOffset()</code> */
+    public int getDiscardedLineStartOffset ()
+    {
+        return getLineIndex ().getBaseLocation ().getLineStartOffset ();
+    }
+}
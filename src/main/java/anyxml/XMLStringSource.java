@@ -31,9 +31,10 @@
  */
 package anyxml;
 
-public class XMLStringSource implements XMLSource
+public class XMLStringSource implements LineIndexSource
 {
     private String data;
+    private LineIndex lineIndex;
     
     public XMLStringSource (String data)
     {
@@ -55,4 +56,12 @@ public class XMLStringSource implements XMLSource
         return data.substring (start, end);
     }
 
+    public synchronized LineIndex getLineIndex ()
+    {
+        if (lineIndex == null)
+            lineIndex = new LineIndex (this);
+        
+        return lineIndex;
+    }
+
 }
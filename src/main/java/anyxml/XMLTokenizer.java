@@ -136,7 +136,7 @@ public class XMLTokenizer
         DOCTYPE_CDATA;
     }
     
-    protected final XMLSource source;
+    protected XMLSource source;
     /** The current position in the source */
     protected int pos;
     /** true if we're currently inside of a start tag */
@@ -144,15 +144,43 @@ public class XMLTokenizer
     /** Should the tokenizer return entities or treat them as text? Default is true. */
     private boolean treatEntitiesAsText = true;
     /** The character validator for this tokenizer. */
-    private CharValidator charValidator = new CharValidator ();
+    private CharValidator charValidator = CharValidator.DEFAULT;
     /** The entity resolver to use to expand and verify entities. */
     private EntityResolver entityResolver;
+    /** If true, the input is assumed to contain only valid characters, names and entities. Default is false. */
+    private boolean trusted;
+    /** The token which is filled by <code>advance()</code> */
+    private Token cursor;
+    private Type tokenType;
+    private int tokenStart;
+    private int tokenEnd;
     
     public XMLTokenizer (XMLSource source)
     {
         this.source = source;
     }
     
+    /** Start over with a new source. The settings of the tokenizer are kept.
+     * 
+     * <p>This allows to use the same tokenizer for many small documents.
+     * Subclasses with additional state must override this method.
+     */
+    public XMLTokenizer reset (XMLSource source)
+    {
+        if (source == null)
+            throw new IllegalArgumentException ("source is null");
+        
+        this.source = source;
+        pos = 0;
+        inStartElement = false;
+        if (cursor != null)
+            cursor.setSource (source);
+        tokenType = null;
+        tokenStart = 0;
+        tokenEnd = 0;
+        return this;
+    }
+    
     public XMLTokenizer setTreatEntitiesAsText (boolean treatEntitiesAsText)
     {
         this.treatEntitiesAsText = treatEntitiesAsText;
@@ -164,6 +192,24 @@ public class XMLTokenizer
         return treatEntitiesAsText;
     }
     
+    /** In trusted mode, the tokenizer only looks for the delimiters of the XML structure
+     *  and doesn't validate each character, name or entity.
+     *  
+     *  <p>Use this for input which you know to be valid, for example documents written
+     *  by <code>XMLWriter</code>. Structural errors like missing end quotes or '--' in
+     *  comments are still detected.
+     */
+    public XMLTokenizer setTrusted (boolean trusted)
+    {
+        this.trusted = trusted;
+        return this;
+    }
+    
+    public boolean isTrusted ()
+    {
+        return trusted;
+    }
+    
     public CharValidator getCharValidator ()
     {
         return charValidator;
@@ -192,14 +238,81 @@ public class XMLTokenizer
     /** Fetch the next token from the source. Returns <code>null</code> if
      * there are no more tokens in the input.
      * 
+     * <p>This is a wrapper for {@link #advance()} which returns a new token
+     * every time it's called.
+     * 
      * @return The next token or <code>null</code> at EOF
      */
     public Token next ()
     {
-        if (pos >= source.length ())
+        if (!advance ())
             return null;
         
-        Token token = createToken ();
+        // Hand out the cursor; advance() will create a new one
+        Token token = cursor;
+        cursor = null;
+        return token;
+    }
+    
+    /** Move to the next token in the source.
+     * 
+     * <p>Use {@link #tokenType()}, {@link #tokenStart()} and {@link #tokenEnd()} to
+     * examine the token. As long as you don't call {@link #next()}, the same
+     * token object is reused, so walking a document this way doesn't
+     * allocate anything per token.
+     * 
+     * @return <code>false</code> at EOF
+     */
+    public boolean advance ()
+    {
+        if (cursor == null)
+            cursor = createToken ();
+        else
+        {
+            cursor.setStartOffset (pos);
+            cursor.setEndOffset (pos);
+        }
+        
+        if (!parseNext (cursor))
+            return false;
+        
+        cursor.setEndOffset (pos);
+        
+        tokenType = cursor.getType ();
+        tokenStart = cursor.getStartOffset ();
+        tokenEnd = pos;
+        return true;
+    }
+    
+    /** The type of the current token (see {@link #advance()}) */
+    public Type tokenType ()
+    {
+        return tokenType;
+    }
+    
+    /** The start offset of the current token (see {@link #advance()}) */
+    public int tokenStart ()
+    {
+        return tokenStart;
+    }
+    
+    /** The end offset of the current token (see {@link #advance()}) */
+    public int tokenEnd ()
+    {
+        return tokenEnd;
+    }
+    
+    /** Parse the next token at the current position into <code>token</code>.
+     * 
+     * <p>The start offset of <code>token</code> has already been set; the end offset
+     * will be set by the caller.
+     * 
+     * @return <code>false</code> if there are no more tokens in the input.
+     */
+    protected boolean parseNext (Token token)
+    {
+        if (pos >= source.length ())
+            return false;
         
         char c = source.charAt (pos);
         if (inStartElement)
@@ -244,9 +357,7 @@ public class XMLTokenizer
             parseText (token);
         }
         
-        token.setEndOffset (pos);
-        
-        return token;
+        return true;
     }
 
     /** All tokens are created here.
@@ -432,7 +543,7 @@ public class XMLTokenizer
             }
             else
             {
-                String msg = charValidator.isValid (source, pos);
+                String msg = trusted ? null : charValidator.isValid (source, pos);
                 if (msg != null)
                     throw new XMLParseException ("Illegal character found in CDATA. "+msg, source, pos);
                 
@@ -482,7 +593,7 @@ public class XMLTokenizer
             }
             else
             {
-                String msg = charValidator.isValid (source, pos);
+                String msg = trusted ? null : charValidator.isValid (source, pos);
                 if (msg != null)
                     throw new XMLParseException ("Illegal character found in comment. "+msg, source, pos);
                 
@@ -521,7 +632,7 @@ public class XMLTokenizer
             }
             else
             {
-                String msg = charValidator.isValid (source, pos);
+                String msg = trusted ? null : charValidator.isValid (source, pos);
                 if (msg != null)
                     throw new XMLParseException ("Illegal character found in processing instruction. "+msg, source, pos);
 
@@ -587,7 +698,7 @@ public class XMLTokenizer
             }
             else
             {
-                String msg = charValidator.isValid (source, pos);
+                String msg = trusted ? null : charValidator.isValid (source, pos);
                 if (msg != null)
                     throw new XMLParseException ("Illegal character found in attribute value. "+msg, source, pos);
                 
@@ -610,7 +721,13 @@ public class XMLTokenizer
     {
         int startPos = pos;
         
-        if (pos < source.length () && charValidator.isNameStartChar (source.charAt (pos)))
+        if (trusted)
+        {
+            // Just look for the end of the name
+            while (pos < source.length () && !isNameDelimiter (source.charAt (pos)))
+                pos ++;
+        }
+        else if (pos < source.length () && charValidator.isNameStartChar (source.charAt (pos)))
         {
             pos ++;
         
@@ -624,6 +741,25 @@ public class XMLTokenizer
         }
     }
     
+    /** Characters which end a name in trusted mode */
+    protected boolean isNameDelimiter (char c)
+    {
+        switch (c)
+        {
+        case '<':
+        case '>':
+        case '/':
+        case '=':
+        case '"':
+        case '\'':
+        case '&':
+        case ';':
+            return true;
+        }
+        
+        return charValidator.isWhitespace (c);
+    }
+    
     /** Read a piece of text.
      * 
      *  <p>The resulting token will contain the text as is with all
@@ -664,7 +800,7 @@ public class XMLTokenizer
                     throw new XMLParseException ("Please replace the '>' of ']]>' in character data with '&gt;'", source, pos+2);
             }
             
-            String msg = charValidator.isValid (source, pos);
+            String msg = trusted ? null : charValidator.isValid (source, pos);
             if (msg != null)
                 throw new XMLParseException ("Illegal character found in text. "+msg, source, pos);
             
@@ -689,11 +825,11 @@ public class XMLTokenizer
     }
 
     /**
-     * Verify an entity. If no entityResolver is installed, this does nothing.
+     * Verify an entity. If no entityResolver is installed or the input is trusted, this does nothing.
      */
     protected void verifyEntity (int start, int end)
     {
-        if (entityResolver == null)
+        if (entityResolver == null || trusted)
             return;
         
         String entity = source.substring (start, end);
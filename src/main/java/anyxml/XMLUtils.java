@@ -58,8 +58,8 @@ public class XMLUtils //@COBEX
     /** Unescape '&lt;', '&gt;' and '&amp;' */
     public static String unescapeXMLText (String text)
     {
-        if (text == null)
-            return null;
+        if (text == null || text.indexOf ('&') == -1)
+            return text;
         
         // TODO Replace with StringBuilder
         return text
@@ -72,8 +72,8 @@ public class XMLUtils //@COBEX
     /** Unescape '&lt;', '&gt;', '&amp;', '&quot;' and '&apos;' */
     public static String unescapeXMLAttributeValue (String text)
     {
-        if (text == null)
-            return null;
+        if (text == null || text.indexOf ('&') == -1)
+            return text;
         
         // TODO Replace with StringBuilder
         return unescapeXMLText (text)
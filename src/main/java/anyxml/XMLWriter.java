@@ -34,37 +34,171 @@ package anyxml;
 import java.io.IOException;
 import java.io.Writer;
 
+/**
+ * Serializes nodes to a <code>Writer</code>.
+ * 
+ * <p>The output is collected in an internal buffer which is written to the underlying
+ * writer in large blocks: when it's full, when the outermost node passed to this writer
+ * has been written completely and in {@link #flush()} and {@link #close()}.
+ * 
+ * <p>Elements which haven't changed since they were parsed are copied from their source
+ * in one piece unless indentation or <code>padCompact</code> are used.
+ * 
+ * <p>Subclasses which write an encoding that can't represent all characters call
+ * {@link #setEncodingLimit(int)} and override {@link #canEncode(int)}. Such characters
+ * in text and attribute values are then written as character references; everywhere
+ * else, it's up to the underlying writer to report them.
+ * 
+ * <p>Override {@link #write(Node, String)} to see every string written for a node.
+ * In that case, all nodes are written one by one, and escaped attribute values are
+ * passed to that method in pieces, like the unescaped parts and the entities.
+ */
 public class XMLWriter extends Writer
 {
+    /** The maximum number of characters which are collected before they are written to the underlying writer */
+    public final static int DEFAULT_BUFFER_SIZE = 8192;
+    
+    /** Flags in <code>ESCAPE_FLAGS</code> */
+    private final static byte ESCAPE_TEXT = 1;
+    private final static byte ESCAPE_QUOT = 2;
+    private final static byte ESCAPE_APOS = 4;
+    
+    /** Which characters below 128 must be escaped where */
+    private final static byte[] ESCAPE_FLAGS = new byte[128];
+    /** The replacement for each character with a flag in <code>ESCAPE_FLAGS</code> */
+    private final static char[][] ESCAPES = new char[128][];
+    static
+    {
+        setEscape ('&', ESCAPE_TEXT, EntityResolver.AMP_ESCAPE);
+        setEscape ('<', ESCAPE_TEXT, EntityResolver.LT_ESCAPE);
+        setEscape ('>', ESCAPE_TEXT, EntityResolver.GT_ESCAPE);
+        setEscape ('"', ESCAPE_QUOT, EntityResolver.QUOT_ESCAPE);
+        setEscape ('\'', ESCAPE_APOS, EntityResolver.APOS_ESCAPE);
+    }
+    
+    private static void setEscape (char c, byte flag, String escape)
+    {
+        ESCAPE_FLAGS[c] = flag;
+        ESCAPES[c] = escape.toCharArray ();
+    }
+    
     private final Writer writer;
     protected Node current;
     private String indent = null;
     private int level = 0;
     private boolean padCompact = false;
+    
+    private char[] buffer;
+    private int pos;
+    private final int bufferSize;
+    /** How many nodes with children are being written; when this drops to 0, the buffer is written */
+    private int depth;
+    /** <code>true</code> if a subclass overrides <code>write(Node, String)</code> */
+    private final boolean hooked;
+    /** Characters below this can always be encoded */
+    private int encodingLimit = Character.MAX_CODE_POINT + 1;
 
     public XMLWriter (Writer writer)
     {
+        this (writer, DEFAULT_BUFFER_SIZE);
+    }
+    
+    public XMLWriter (Writer writer, int bufferSize)
+    {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException ("bufferSize must be > 0: "+bufferSize);
+        
         this.writer = writer;
+        this.bufferSize = bufferSize;
+        // Start small; toXML() is called for tiny nodes, too
+        buffer = new char[Math.min (bufferSize, 256)];
+        hooked = overridesWrite (getClass ());
+    }
+    
+    private static boolean overridesWrite (Class<?> type)
+    {
+        if (type == XMLWriter.class)
+            return false;
+        
+        try
+        {
+            return type.getMethod ("write", Node.class, String.class).getDeclaringClass () != XMLWriter.class;
+        }
+        catch (NoSuchMethodException e) //@COBEX Note: this code will never be executed
+        {
+            return true; //@COBEX
+        }
     }
 
+    /**
+     * Characters below <code>limit</code> can always be encoded; {@link #canEncode(int)}
+     * is asked for all others in text and attribute values.
+     */
+    protected void setEncodingLimit (int limit)
+    {
+        encodingLimit = limit;
+    }
+    
+    /**
+     * Can the output encoding represent this code point? If not, it's written as a
+     * character reference in text and attribute values.
+     * 
+     * <p>This is only called for code points at or above the limit set with
+     * {@link #setEncodingLimit(int)}.
+     */
+    protected boolean canEncode (int codePoint)
+    {
+        return true;
+    }
+    
     @Override
     public void close () throws IOException
     {
+        flushBuffer ();
         writer.close ();
     }
 
     @Override
     public void flush () throws IOException
     {
+        flushBuffer ();
         writer.flush ();
     }
+    
+    /** Write the buffered characters to the underlying writer (without flushing it) */
+    protected void flushBuffer () throws IOException
+    {
+        if (pos > 0)
+        {
+            writer.write (buffer, 0, pos);
+            pos = 0;
+        }
+    }
 
     @Override
     public void write (char[] cbuf, int off, int len) throws IOException
     {
-        writer.write (cbuf, off, len);        
+        if (len > bufferSize - pos && len >= bufferSize)
+        {
+            // Too big for the buffer
+            flushBuffer ();
+            writer.write (cbuf, off, len);
+            return;
+        }
+        
+        ensureCapacity (len);
+        System.arraycopy (cbuf, off, buffer, pos, len);
+        pos += len;
+        autoFlush ();
     }
-
+    
+    @Override
+    public void write (String str, int off, int len) throws IOException
+    {
+        append (str, off, off + len);
+        autoFlush ();
+    }
+    
     /**
      * If you want to see every node written to the underlying writer, this is the place.
      * 
@@ -75,70 +209,291 @@ public class XMLWriter extends Writer
     public void write (Node node, String s) throws IOException
     {
         current = node;
-        writer.write (s);
+        if (encodingLimit <= Character.MAX_CODE_POINT && node instanceof Text && !((Text)node).isCDATA ())
+            appendWithReferences (s);
+        else
+            append (s, 0, s.length ());
+        autoFlush ();
+    }
+    
+    /** Append <code>s</code> and replace the characters which can't be encoded with character references */
+    private void appendWithReferences (String s) throws IOException
+    {
+        int start = 0;
+        for (int pos=0; pos<s.length (); pos++)
+        {
+            if (s.charAt (pos) < encodingLimit)
+                continue;
+            
+            int len = referenceLength (s, pos);
+            if (len == 0)
+                continue;
+            
+            append (s, start, pos);
+            append (characterReference (s.codePointAt (pos)));
+            start = pos + len;
+            pos = start - 1;
+        }
+        append (s, start, s.length ());
+    }
+    
+    /**
+     * How many chars at <code>pos</code> must be replaced by a character reference?
+     * 0 if the character can be encoded, 2 for a surrogate pair and 1 otherwise.
+     * Lone surrogates are left to the underlying writer.
+     */
+    private int referenceLength (CharSequence s, int pos)
+    {
+        char c = s.charAt (pos);
+        if (c < encodingLimit)
+            return 0;
+        
+        if (c >= '\ud800' && c <= '\udfff')
+        {
+            if (!Character.isHighSurrogate (c) || pos + 1 >= s.length () || !Character.isLowSurrogate (s.charAt (pos + 1)))
+                return 0;
+            
+            return canEncode (Character.toCodePoint (c, s.charAt (pos + 1))) ? 0 : 2;
+        }
+        
+        return canEncode (c) ? 0 : 1;
+    }
+    
+    private static char[] characterReference (int codePoint)
+    {
+        return ("&#x" + Integer.toHexString (codePoint).toUpperCase () + ";").toCharArray ();
+    }
+    
+    /** Append the characters between <code>start</code> and <code>end</code> to the buffer */
+    private void append (String s, int start, int end) throws IOException
+    {
+        while (start < end)
+        {
+            int len = end - start;
+            if (pos + len > buffer.length)
+            {
+                ensureCapacity (len);
+                len = Math.min (len, buffer.length - pos);
+            }
+            
+            s.getChars (start, start + len, buffer, pos);
+            pos += len;
+            start += len;
+        }
+    }
+    
+    private void append (char[] chars) throws IOException
+    {
+        if (pos + chars.length > buffer.length)
+            ensureCapacity (chars.length);
+        
+        if (chars.length > buffer.length - pos)
+        {
+            flushBuffer ();
+            writer.write (chars);
+            return;
+        }
+        
+        System.arraycopy (chars, 0, buffer, pos, chars.length);
+        pos += chars.length;
+    }
+    
+    /** Make room for <code>len</code> characters: grow the buffer up to <code>bufferSize</code>, then flush it */
+    private void ensureCapacity (int len) throws IOException
+    {
+        if (pos + len <= buffer.length)
+            return;
+        
+        if (buffer.length < bufferSize)
+        {
+            int size = Math.min (bufferSize, Math.max (buffer.length * 2, pos + len));
+            char[] tmp = new char[size];
+            System.arraycopy (buffer, 0, tmp, 0, pos);
+            buffer = tmp;
+            
+            if (pos + len <= buffer.length)
+                return;
+        }
+        
+        flushBuffer ();
+    }
+    
+    /** Nodes without children are written directly; nothing should wait in the buffer after they have been written */
+    private void autoFlush () throws IOException
+    {
+        if (depth == 0)
+            flushBuffer ();
     }
     
     public void writeAttributeValue (Node node, String value, char quoteChar) throws IOException
     {
-        int start;
+        writeEscaped (node, value, ESCAPE_TEXT | (quoteChar == '"' ? ESCAPE_QUOT : ESCAPE_APOS));
+    }
+    
+    /** Write text and escape '&lt;', '&gt;' and '&amp;' */
+    public void writeEscapedText (Node node, String text) throws IOException
+    {
+        writeEscaped (node, text, ESCAPE_TEXT);
+    }
+    
+    /** Write an attribute value which is already escaped; only characters which can't be encoded are replaced */
+    public void writeEscapedAttributeValue (Node node, String value) throws IOException
+    {
+        writeEscaped (node, value, 0);
+    }
+    
+    private void writeEscaped (Node node, String value, int flags) throws IOException
+    {
+        int start = 0;
         int pos = 0;
-        start = pos;
-        
-        String escapeQuote = (quoteChar == '"' ? "&quot;" : "&apos;");
         
         for ( ; pos < value.length (); pos ++)
         {
             char c = value.charAt (pos);
-            String escape = null;
-            
-            if (c == quoteChar)
+            char[] escape;
+            int len = 1;
+            if (c < 128)
             {
-                escape = escapeQuote;
-            }
-            else if (c == '&')
-            {
-                escape = EntityResolver.AMP_ESCAPE;
-            }
-            else if (c == '<')
-            {
-                escape = EntityResolver.LT_ESCAPE;
+                if ((ESCAPE_FLAGS[c] & flags) == 0)
+                    continue;
+                
+                escape = ESCAPES[c];
             }
-            else if (c == '>')
+            else
             {
-                escape = EntityResolver.GT_ESCAPE;
+                if (c < encodingLimit)
+                    continue;
+                
+                len = referenceLength (value, pos);
+                if (len == 0)
+                    continue;
+                
+                escape = characterReference (value.codePointAt (pos));
             }
             
-            if (escape != null)
+            if (hooked)
             {
                 if (pos != start)
                     write (node, value.substring (start, pos));
                 
-                write (node, escape);
-                start = pos + 1;
+                write (node, new String (escape));
+            }
+            else
+            {
+                current = node;
+                append (value, start, pos);
+                append (escape);
             }
+            start = pos + len;
+            pos = start - 1;
         }
         
-        if (start < pos)
-            write (node, value.substring (start, pos));
+        if (hooked)
+        {
+            if (start < pos)
+                write (node, value.substring (start, pos));
+        }
+        else
+        {
+            current = node;
+            append (value, start, pos);
+            autoFlush ();
+        }
     }
     
     /** Write all children of a node */
     public void writeChildNodes (NodeWithChildren node) throws IOException
     {
-        for (Node n: node.getNodes ())
-            n.toXML (this);
+        depth ++;
+        try
+        {
+            for (Node n: node.getNodes ())
+                n.toXML (this);
+        }
+        finally
+        {
+            depth --;
+        }
+        autoFlush ();
     }
     
     /** Write an element with all attributes and children */
     public void write (Element e) throws IOException
     {
-        writeBeginElement (e);
+        if (canCopy (e))
+        {
+            // Nothing has changed since the element was parsed
+            current = e;
+            writeSource (e.getSource (), e.getStartOffset (), e.getEndOffset ());
+            autoFlush ();
+            return;
+        }
         
-        writeChildNodes (e);
-
-        writeEndElement (e);
+        depth ++;
+        try
+        {
+            writeBeginElement (e);
+            
+            writeChildNodes (e);
+            
+            writeEndElement (e);
+        }
+        finally
+        {
+            depth --;
+        }
+        autoFlush ();
     }
 
+    /**
+     * Can <code>e</code> be copied from its source? This is possible when it hasn't
+     * changed since it was parsed and when the writer doesn't change the formatting.
+     * Writers which override <code>write(Node, String)</code> see all nodes.
+     * Elements with characters which must be written as character references
+     * aren't copied, either.
+     */
+    protected boolean canCopy (Element e)
+    {
+        return e.isVerbatim () && !hooked && indent == null && !padCompact && e.getSource () != null
+            && canEncode (e.getSource (), e.getStartOffset (), e.getEndOffset ());
+    }
+    
+    /** Can all characters between <code>start</code> and <code>end</code> be encoded? */
+    private boolean canEncode (XMLSource source, int start, int end)
+    {
+        if (encodingLimit > Character.MAX_CODE_POINT)
+            return true;
+        
+        for (int i=start; i<end; i++)
+        {
+            char c = source.charAt (i);
+            if (c < encodingLimit)
+                continue;
+            
+            if (Character.isHighSurrogate (c) && i + 1 < end && Character.isLowSurrogate (source.charAt (i + 1)))
+            {
+                if (!canEncode (Character.toCodePoint (c, source.charAt (i + 1))))
+                    return false;
+                i ++;
+            }
+            else if ((c < '\ud800' || c > '\udfff') && !canEncode (c))
+                return false;
+        }
+        return true;
+    }
+    
+    /** Copy a part of a source to the output */
+    protected void writeSource (XMLSource source, int start, int end) throws IOException
+    {
+        while (start < end)
+        {
+            int len = Math.min (end - start, bufferSize);
+            String s = source.substring (start, start + len);
+            append (s, 0, len);
+            start += len;
+        }
+    }
+    
     /** Write the end tag of an element */
     public void writeEndElement (Element e) throws IOException
     {
@@ -253,12 +608,15 @@ public class XMLWriter extends Writer
     public void indent () throws IOException
     {
         for (int i=0; i<level; i++)
-            writer.write (indent);
+            append (indent, 0, indent.length ());
+        autoFlush ();
     }
 
     public void nl () throws IOException
     {
-        writer.write ("\n");
+        ensureCapacity (1);
+        buffer[pos ++] = '\n';
+        autoFlush ();
     }
     
     public void writeAttributes (Element e) throws IOException
@@ -267,6 +625,26 @@ public class XMLWriter extends Writer
             n.toXML (this);
     }
 
+    /** The number of elements whose start tag has been written but not the end tag */
+    int getLevel ()
+    {
+        return level;
+    }
+    
+    /** Used by <code>XMLPushWriter</code> after it has written a start tag */
+    void enterElement ()
+    {
+        depth ++;
+        level ++;
+    }
+    
+    /** Used by <code>XMLPushWriter</code> before it writes an end tag */
+    void leaveElement ()
+    {
+        depth --;
+        level --;
+    }
+    
     public void setIndent (String indent)
     {
         this.indent = indent;
@@ -49,27 +49,33 @@ public class DTDTokenizer extends XMLTokenizer
         this.pos = startPosition;
     }
     
+    @Override
+    public XMLTokenizer reset (XMLSource source)
+    {
+        docTypeLevel = 0;
+        return super.reset (source);
+    }
+    
     /** The current position in the XML source */
     public int getOffset ()
     {
         return pos;
     }
     
-    /** Fetch the next token from the source. Returns <code>null</code> if
-     * there the complete doctype declaration has been read.
+    /** Parse the next token of the DTD. Returns <code>false</code> if
+     * the complete doctype declaration has been read.
      * 
      * <p>If {@code next()} returns {@code null}, the position of the
      * tokenizer will be just after the end of the DTD declaration.
      * 
-     * @return The next token or <code>null</code> if the DTD has been read.
+     * @return <code>false</code> if the DTD has been read.
      */
-    public Token next ()
+    @Override
+    protected boolean parseNext (Token token)
     {
         if (pos >= source.length () || docTypeLevel < 0)
-            return null;
+            return false;
 
-        Token token = createToken ();
-        
         char c = source.charAt (pos);
         switch (c)
         {
@@ -175,8 +181,7 @@ public class DTDTokenizer extends XMLTokenizer
         break;
         }
         
-        token.setEndOffset (pos);
-        return token;
+        return true;
     }
     
     /** #implied, #pcdata, ... */
@@ -181,6 +181,20 @@ public class DocType extends BasicNode
         this.notationDataName = notationDataName;
     }
     
+    /** Release the source of this node and of the nodes it contains */
+    @Override
+    public long releaseSource ()
+    {
+        long size = super.releaseSource ();
+        
+        for (Node n: nodes)
+        {
+            if (n instanceof BasicNode)
+                size += ((BasicNode)n).releaseSource ();
+        }
+        return size;
+    }
+    
     @Override
     public DocType toXML (XMLWriter writer) throws IOException
     {
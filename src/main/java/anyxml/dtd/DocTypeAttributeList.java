@@ -78,6 +78,20 @@ public class DocTypeAttributeList extends BasicNode implements DocTypeNode
         return toXML ();
     }
     
+    /** Release the source of this node and of the nodes it contains */
+    @Override
+    public long releaseSource ()
+    {
+        long size = super.releaseSource ();
+        
+        for (Node n: nodes)
+        {
+            if (n instanceof BasicNode)
+                size += ((BasicNode)n).releaseSource ();
+        }
+        return size;
+    }
+    
     public DocTypeAttributeList toXML (XMLWriter writer) throws IOException
     {
         writer.write (this, "<!ATTLIST");
@@ -139,6 +139,20 @@ public class DocTypeEntity extends BasicNode implements DocTypeNode
         return toXML ();
     }
     
+    /** Release the source of this node and of the nodes it contains */
+    @Override
+    public long releaseSource ()
+    {
+        long size = super.releaseSource ();
+        
+        for (Node n: nodes)
+        {
+            if (n instanceof BasicNode)
+                size += ((BasicNode)n).releaseSource ();
+        }
+        return size;
+    }
+    
     public DocTypeEntity toXML (XMLWriter writer) throws IOException
     {
         writer.write (this, "<!ENTITY");
@@ -116,6 +116,20 @@ public class DocTypeNotation extends BasicNode implements DocTypeNode
         return toXML ();
     }
     
+    /** Release the source of this node and of the nodes it contains */
+    @Override
+    public long releaseSource ()
+    {
+        long size = super.releaseSource ();
+        
+        for (Node n: nodes)
+        {
+            if (n instanceof BasicNode)
+                size += ((BasicNode)n).releaseSource ();
+        }
+        return size;
+    }
+    
     public DocTypeNotation toXML (XMLWriter writer) throws IOException
     {
         writer.write (this, "<!NOTATION");
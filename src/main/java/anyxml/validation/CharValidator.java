@@ -2,8 +2,99 @@ package anyxml.validation;
 
 import anyxml.XMLSource;
 
+/**
+ * Validation of characters according to the XML 1.0 spec.
+ * 
+ * <p>The checks for single <code>char</code>s are answered from a precomputed table
+ * with one byte per character. The table is built from the range methods
+ * ({@link #isBaseChar(char)}, {@link #isDigit(char)}, ...). If a subclass overrides
+ * one of these methods, the table isn't used for the methods which depend on it.
+ */
 public class CharValidator
 {
+    /** Bit in <code>TABLE</code>: valid first character of a name */
+    private final static byte NAME_START_CHAR = 1;
+    /** Bit in <code>TABLE</code>: valid character inside of a name */
+    private final static byte NAME_CHAR = 2;
+    /** Bit in <code>TABLE</code>: whitespace */
+    private final static byte WHITESPACE = 4;
+    /** Bit in <code>TABLE</code>: valid character (surrogates are not valid on their own) */
+    private final static byte VALID = 8;
+    
+    /** One byte with the bits above for each char */
+    private final static byte[] TABLE = new byte[0x10000];
+    static
+    {
+        CharValidator v = new CharValidator (false);
+        for (int i=0; i<TABLE.length; i++)
+        {
+            char c = (char)i;
+            int bits = 0;
+            if (v.isNameStartChar (c))
+                bits |= NAME_START_CHAR;
+            if (v.isNameChar (c))
+                bits |= NAME_CHAR;
+            if (v.isWhitespace (c))
+                bits |= WHITESPACE;
+            if (v.isValid (i) == null)
+                bits |= VALID;
+            TABLE[i] = (byte)bits;
+        }
+    }
+    
+    /** A shared instance. <code>CharValidator</code> has no state, so this can be used by any number of parsers and threads. */
+    public final static CharValidator DEFAULT = new CharValidator ();
+    
+    /** Can the table be used for the name methods? */
+    private final boolean nameTable;
+    /** Can the table be used for <code>isValid()</code>? */
+    private final boolean validTable;
+    /** Can the table be used for <code>isWhitespace()</code>? */
+    private final boolean whitespaceTable;
+    
+    public CharValidator ()
+    {
+        this (true);
+    }
+    
+    private CharValidator (boolean useTable)
+    {
+        if (!useTable)
+        {
+            nameTable = validTable = whitespaceTable = false;
+        }
+        else if (getClass () == CharValidator.class)
+        {
+            nameTable = validTable = whitespaceTable = true;
+        }
+        else
+        {
+            nameTable = !isOverridden ("isNameStartChar", char.class)
+                && !isOverridden ("isNameChar", char.class)
+                && !isOverridden ("isLetter", char.class)
+                && !isOverridden ("isBaseChar", char.class)
+                && !isOverridden ("isIdeographic", char.class)
+                && !isOverridden ("isDigit", char.class)
+                && !isOverridden ("isCombiningChar", char.class)
+                && !isOverridden ("isExtender", char.class)
+            ;
+            validTable = !isOverridden ("isValid", int.class);
+            whitespaceTable = !isOverridden ("isWhitespace", char.class);
+        }
+    }
+    
+    private boolean isOverridden (String name, Class<?> parameterType)
+    {
+        try
+        {
+            return getClass ().getMethod (name, parameterType).getDeclaringClass () != CharValidator.class;
+        }
+        catch (NoSuchMethodException e) //@COBEX Note: this code will never be executed
+        {
+            throw new RuntimeException ("Should not happen", e); //@COBEX
+        }
+    }
+    
     /**
      * Verify the character at
      * @param source
@@ -13,6 +104,9 @@ public class CharValidator
     public String isValid (XMLSource source, int offset)
     {
         char c = source.charAt (offset);
+        if (validTable && (TABLE[c] & VALID) != 0)
+            return null;
+        
         if (Character.isHighSurrogate (c))
         {
             if (offset + 1 >= source.length ())
@@ -31,6 +125,9 @@ public class CharValidator
     /** Is the character whitespace as defined by the W3C? */
     public boolean isWhitespace (char c)
     {
+        if (whitespaceTable)
+            return (TABLE[c] & WHITESPACE) != 0;
+        
         switch (c)
         {
         case ' ':
@@ -46,6 +143,9 @@ public class CharValidator
     /** Is this a valid unicode character as defined by the W3C? */
     public String isValid (int codePoint)
     {
+        if (validTable && codePoint >= 0 && codePoint < TABLE.length && (TABLE[codePoint] & VALID) != 0)
+            return null;
+        
         if (
                codePoint == '\t'
             || codePoint == '\r'
@@ -62,12 +162,18 @@ public class CharValidator
     /** Return true if the character is valid as the first one of an XML name */
     public boolean isNameStartChar (char c)
     {
+        if (nameTable)
+            return (TABLE[c] & NAME_START_CHAR) != 0;
+        
         return isLetter (c) || c == ':' || c == '_';
     }
     
     /** Return true if the character is valid inside of an XML name */
     public boolean isNameChar (char c)
     {
+        if (nameTable)
+            return (TABLE[c] & NAME_CHAR) != 0;
+        
         return isLetter (c)
             || isDigit (c)
             || c == '.'
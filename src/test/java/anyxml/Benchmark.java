@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * A minimal harness for the micro benchmarks in this directory.
+ * 
+ * <p>Each benchmark is run a few times to warm up the JIT before the
+ * time is measured. The results are printed to <code>System.out</code>.
+ * 
+ * <p>This isn't JMH but it's good enough to compare two implementations
+ * on the same machine.
+ * 
+ * @see anyxml.CharValidatorBenchmark
+ */
+public abstract class Benchmark
+{
+    private final String name;
+    
+    public Benchmark (String name)
+    {
+        this.name = name;
+    }
+    
+    /** Run the code once. The result is used to keep the JIT from removing the code. */
+    public abstract Object run () throws Exception;
+    
+    /** Run the benchmark and print the time per run.
+     * 
+     * @param size The amount of data processed by a single run (for example, the number of characters) or 0
+     * @return the average time per run in nanoseconds
+     */
+    public double measure (int warmups, int runs, long size) throws Exception
+    {
+        int sink = 0;
+        for (int i=0; i<warmups; i++)
+            sink += System.identityHashCode (run ());
+        
+        long start = System.nanoTime ();
+        for (int i=0; i<runs; i++)
+            sink += System.identityHashCode (run ());
+        long duration = System.nanoTime () - start;
+        
+        double perRun = (double)duration / runs;
+        StringBuilder buffer = new StringBuilder ();
+        buffer.append (String.format ("%-50s %12.1f us/run", name, perRun / 1000.0));
+        if (size > 0)
+            buffer.append (String.format (" %10.1f M/s", size * 1000.0 / perRun));
+        if (sink == 42)
+            buffer.append (' ');
+        System.out.println (buffer);
+        
+        return perRun;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import anyxml.CharValidatorTest.RangeCharValidator;
+import anyxml.validation.CharValidator;
+
+/**
+ * Compare the table-driven <code>CharValidator</code> with the range checks
+ * on an ASCII-heavy and a CJK-heavy document.
+ * 
+ * <p>Run with <code>java -cp target/classes:target/test-classes anyxml.CharValidatorBenchmark</code>
+ */
+public class CharValidatorBenchmark
+{
+    public static void main (String[] args) throws Exception
+    {
+        String ascii = createDocument ("element", "Some ASCII text with a few words &amp; entities. ");
+        String cjk = createDocument ("要素", "中文文本、日本語のテキスト。한국어 ");
+        
+        for (int round=0; round<3; round++)
+        {
+            run ("ASCII", ascii);
+            run ("CJK", cjk);
+            System.out.println ();
+        }
+    }
+    
+    private static void run (String corpus, final String xml) throws Exception
+    {
+        measure ("tokenize "+corpus+" (table)", xml, new CharValidator ());
+        measure ("tokenize "+corpus+" (ranges)", xml, new RangeCharValidator ());
+    }
+    
+    private static void measure (String name, final String xml, final CharValidator validator) throws Exception
+    {
+        final XMLStringSource source = new XMLStringSource (xml);
+        new Benchmark (name) {
+            @Override
+            public Object run () throws Exception
+            {
+                XMLTokenizer tokenizer = new XMLTokenizer (source).setCharValidator (validator);
+                int count = 0;
+                while (tokenizer.advance ())
+                    count ++;
+                return count;
+            }
+        }.measure (20, 50, xml.length ());
+    }
+
+    public static String createDocument (String elementName, String text)
+    {
+        StringBuilder buffer = new StringBuilder ();
+        buffer.append ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n");
+        for (int i=0; i<5000; i++)
+        {
+            buffer.append ("  <").append (elementName).append (" id=\"").append (i).append ("\" name=\"").append (elementName).append (i).append ("\">");
+            buffer.append (text).append (text);
+            buffer.append ("<!-- ").append (text).append ("-->");
+            buffer.append ("</").append (elementName).append (">\n");
+        }
+        buffer.append ("</root>\n");
+        return buffer.toString ();
+    }
+}
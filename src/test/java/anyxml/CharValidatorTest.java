@@ -33,6 +33,63 @@ public class CharValidatorTest
         assertEquals ("Allowed values are #x09 | #x0a | #x0d | [#x0020-#xD7FF] | [#xE000-#xFFFD] | [#x10000-#x10FFFF]: [#xfffe]", check ("\ufffe"));
     }
     
+    /** A validator which uses the range methods instead of the table */
+    public static class RangeCharValidator extends CharValidator
+    {
+        @Override
+        public boolean isBaseChar (char c)
+        {
+            return super.isBaseChar (c);
+        }
+        
+        @Override
+        public String isValid (int codePoint)
+        {
+            return super.isValid (codePoint);
+        }
+        
+        @Override
+        public boolean isWhitespace (char c)
+        {
+            return super.isWhitespace (c);
+        }
+    }
+    
+    @Test
+    public void testTableMatchesRanges () throws Exception
+    {
+        CharValidator table = new CharValidator ();
+        CharValidator ranges = new RangeCharValidator ();
+        
+        for (int i=0; i<0x10000; i++)
+        {
+            char c = (char)i;
+            assertEquals ("isNameStartChar "+i, ranges.isNameStartChar (c), table.isNameStartChar (c));
+            assertEquals ("isNameChar "+i, ranges.isNameChar (c), table.isNameChar (c));
+            assertEquals ("isWhitespace "+i, ranges.isWhitespace (c), table.isWhitespace (c));
+            assertEquals ("isValid "+i, ranges.isValid (i), table.isValid (i));
+            
+            XMLStringSource source = new XMLStringSource (String.valueOf (c));
+            assertEquals ("isValid(source) "+i, ranges.isValid (source, 0), table.isValid (source, 0));
+        }
+    }
+    
+    @Test
+    public void testOverriddenRangeMethod () throws Exception
+    {
+        CharValidator v = new CharValidator () {
+            @Override
+            public boolean isDigit (char c)
+            {
+                return c == '#' || super.isDigit (c);
+            }
+        };
+        
+        assertTrue (v.isNameChar ('#'));
+        assertFalse (v.isNameStartChar ('#'));
+        assertFalse (new CharValidator ().isNameChar ('#'));
+    }
+    
     public String check (String string)
     {
         XMLStringSource source = new XMLStringSource (string);
@@ -46,10 +46,64 @@ import anyxml.ProcessingInstruction;
 import anyxml.Text;
 import anyxml.XMLInputStreamReader;
 import anyxml.XMLParseException;
+import anyxml.XMLParser;
+import anyxml.XMLStringSource;
 import anyxml.XMLTokenizer.Type;
 
 public class DocumentTest
 {
+    @Test
+    public void testReleaseSource () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\"?>\n" +
+            "<!DOCTYPE a [\n<!ENTITY e \"x\">\n<!ATTLIST a b CDATA #IMPLIED>\n]>\n" +
+            "<a b='1 &amp; 2'><!-- c --><x:b xmlns:x='urn:x'>t&e;<![CDATA[<]]></x:b ><?pi?></a>\n";
+        XMLParser[] parsers = { new XMLParser (), new XMLParser ().setCompactNodes (true) };
+        for (XMLParser parser: parsers)
+        {
+            XMLStringSource source = new XMLStringSource (xml);
+            Document doc = parser.parse (source);
+            Element b = doc.getRootElement ().getChild ("x:b");
+            
+            // A copy still references the source of the document
+            Element copy = b.copy ();
+            assertSame (source, copy.getSource ());
+            // Only the text which the copy needs is counted, not the whole source
+            long size = copy.releaseSource ();
+            assertTrue (String.valueOf (size), size > 0 && size < 2L * xml.length ());
+            assertNull (copy.getSource ());
+            assertNull (copy.getStartToken ());
+            assertEquals (-1, copy.getStartOffset ());
+            assertEquals ("<x:b xmlns:x='urn:x'>t&e;<![CDATA[<]]></x:b >", copy.toXML ());
+            assertEquals (0L, copy.releaseSource ());
+            assertSame (source, b.getSource ());
+            
+            size = doc.releaseSource ();
+            assertTrue (String.valueOf (size), size > 0 && size <= 2L * xml.length ());
+            assertEquals (xml, doc.toXML ());
+            assertNull (doc.getRootElement ().getSource ());
+            assertNull (doc.getRootElement ().getAttribute ("b").getToken ());
+            assertEquals ("1 & 2", doc.getRootElement ().getAttributeValue ("b"));
+            assertNull (doc.getDocType ().getToken ());
+            assertEquals ("b", b.getName ());
+            assertEquals (0L, doc.releaseSource ());
+        }
+    }
+    
+    @Test
+    public void testReleaseSourceSize () throws Exception
+    {
+        String xml = "<root><a x='1'>text</a></root>";
+        Document doc = new XMLParser ().setCompactNodes (true).parse (new XMLStringSource (xml));
+        
+        // The attribute value "1" and "text"; getChild() has already copied the name
+        Element a = doc.getRootElement ().getChild ("a");
+        assertEquals (2L * (1 + 4), a.releaseSource ());
+        assertEquals (0L, a.releaseSource ());
+        assertEquals (2L * "root".length (), doc.releaseSource ());
+        assertEquals (xml, doc.toXML ());
+    }
+    
     @Test
     public void testDocument () throws Exception
     {
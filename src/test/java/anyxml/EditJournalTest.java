@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.UnmappableCharacterException;
+
+import org.junit.Test;
+
+public class EditJournalTest
+{
+    @Test
+    public void testUnchanged () throws Exception
+    {
+        Document doc = XMLParser.parse (XMLParserTest.POM_XML);
+        EditJournal journal = doc.createEditJournal ();
+        assertEquals (0, journal.getPatches ().size ());
+        assertEquals (XMLParserTest.POM_XML, journal.apply ());
+    }
+    
+    @Test
+    public void testMinimalPatches () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\"?>\n<a>\n  <b x='1' y=\"2\">text</b>\n  <c/>\n</a>\n";
+        Document doc = XMLParser.parse (xml);
+        Element b = doc.getChild ("/a/b");
+        b.setText ("new");
+        b.setAttribute ("y", "3");
+        
+        EditJournal journal = new EditJournal (doc);
+        assertEquals ("[SourcePatch(40, 1, \"3\"), SourcePatch(43, 4, \"new\")]", journal.getPatches ().toString ());
+        assertEquals (doc.toXML (), journal.apply ());
+    }
+    
+    @Test
+    public void testChanges () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\"?>\n<!-- c -->\n<a x='1'>\n  <b y=\"2\" >text &amp; more</b >\n  <c/>\n"
+            + "  <d><e>\u00e4\ud834\udd1e</e><f/></d>\n</a>\n";
+        
+        for (int i=0; i<16; i++)
+        {
+            Document doc = XMLParser.parse (xml);
+            Element a = doc.getRootElement ();
+            Element b = a.getChild ("b");
+            Element d = a.getChild ("d");
+            switch (i)
+            {
+            case 0: b.setAttribute ("y", "a \"quoted\" value"); break;
+            case 1: b.removeAttribute ("y"); break;
+            case 2: b.setName ("bb"); break;
+            case 3: b.setText ("\u20ac"); break;
+            case 4: a.getChild ("c").addNode (new Text ("now with text")); break;
+            case 5: d.getChild ("e").setText ("\ud834\udd1f"); break;
+            case 6: a.removeNode (a.getChild ("c")); break;
+            case 7: a.addNode (0, d.getChild ("e")); break;
+            case 8: d.addNode (a.getChild ("c")); break;
+            case 9: a.addNode (0, a.getChild ("d")); break;
+            case 10: a.addNode (a.getChild ("b").copy ()); break;
+            case 11: doc.addNode (2, new Comment ("new")); break;
+            case 12: doc.setEncoding ("UTF-8"); break;
+            case 13: a.getChild ("c").setCompactEmpty (false); break;
+            case 14: d.getChild ("f").setAttribute ("z", "9"); d.getChild ("e").addAttribute ("q", ">"); break;
+            case 15: a.setAttribute ("x", "2"); a.addNode (new Element ("g")); break;
+            }
+            
+            EditJournal journal = new EditJournal (doc);
+            assertFalse ("Case "+i, journal.getPatches ().isEmpty ());
+            assertEquals ("Case "+i, doc.toXML (), journal.apply ());
+            
+            int end = -1;
+            for (SourcePatch p: journal.getPatches ())
+            {
+                assertTrue ("Case "+i, p.getOffset () > end);
+                end = p.getEndOffset ();
+            }
+        }
+    }
+    
+    @Test
+    public void testSortedChildren () throws Exception
+    {
+        // On Java 8, sort() and removeIf() of ArrayList don't call the methods which report changes
+        String xml = "<a><b/><d><e/><f/></d></a>";
+        Document doc = XMLParser.parse (xml);
+        XMLWriterTest.reverseSort (doc.getChild ("/a/d").getNodes ());
+        
+        EditJournal journal = new EditJournal (doc);
+        assertEquals ("[SourcePatch(10, 4, \"\"), SourcePatch(18, 0, \"<e/>\")]", journal.getPatches ().toString ());
+        assertEquals ("<a><b/><d><f/><e/></d></a>", journal.apply ());
+        
+        doc = XMLParser.parse (xml);
+        Element d = doc.getChild ("/a/d");
+        assertTrue (XMLWriterTest.removeIf (d.getNodes (), d.getChild ("e")));
+        journal = new EditJournal (doc);
+        assertEquals ("[SourcePatch(10, 4, \"\")]", journal.getPatches ().toString ());
+        assertEquals ("<a><b/><d><f/></d></a>", journal.apply ());
+    }
+    
+    @Test
+    public void testNotParsed () throws Exception
+    {
+        try
+        {
+            new EditJournal (new Document (new Element ("a")));
+            fail ("No exception was thrown");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertEquals ("The document wasn't parsed", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testApplyToFile () throws Exception
+    {
+        StringBuilder buffer = new StringBuilder ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n");
+        for (int i=0; i<5000; i++)
+            buffer.append ("  <e id='").append (i).append ("'>\u00e4\u20ac \ud834\udd1e ").append (i).append ("</e>\n");
+        buffer.append ("</root>\n");
+        String xml = buffer.toString ();
+        String longText = buffer.substring (0, 100000);
+        
+        for (int mapped=0; mapped<2; mapped++)
+        {
+            for (int i=0; i<5; i++)
+            {
+                File f = createFile (xml, "UTF-8");
+                Document doc = mapped == 1 ? new XMLParser ().parse (new XMLMappedFileSource (f, null, 1024)) : XMLParser.parse (f);
+                Element root = doc.getRootElement ();
+                switch (i)
+                {
+                case 0: root.getChildren ().get (10).setText (longText); break;
+                case 1: root.getChildren ().get (10).setText (""); break;
+                case 2: root.getChildren ().get (4990).setAttribute ("id", "\u00e4"); break;
+                case 3: root.getChildren ().get (0).setAttribute ("id", "\u00e4\u00e4"); root.getChildren ().get (3000).setText ("x"); break;
+                case 4: root.getChildren ().get (20).setText ("\ud834\udd1f \u00e4\u20ac"); break;
+                }
+                
+                String expected = doc.toXML ();
+                long size = doc.createEditJournal ().apply (f);
+                
+                String message = "Case "+i+", mapped="+mapped;
+                assertEquals (message, f.length (), size);
+                assertEquals (message, expected, XMLIOSource.toString (f));
+            }
+        }
+    }
+    
+    @Test
+    public void testApplyWithByteOrderMark () throws Exception
+    {
+        String xml = "\ufeff<a><b>x</b></a>";
+        File f = createFile (xml, "UTF-8");
+        Document doc = XMLParser.parse (f);
+        doc.getChild ("/a/b").setText ("\u00e4");
+        doc.createEditJournal ().apply (f);
+        assertEquals (xml.replace ("x", "\u00e4"), readFile (f, "UTF-8"));
+    }
+    
+    @Test
+    public void testUnmappableLeavesFileAlone () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n<a><b>\u00e4</b><c/></a>";
+        File f = createFile (xml, "ISO-8859-1");
+        Document doc = XMLParser.parse (f);
+        doc.getChild ("/a/c").setAttribute ("x", "1");
+        doc.getChild ("/a/b").setText ("\u20ac");
+        
+        try
+        {
+            doc.createEditJournal ().apply (f);
+            fail ("No exception was thrown");
+        }
+        catch (UnmappableCharacterException e)
+        {
+            // Expected
+        }
+        assertEquals (xml, readFile (f, "ISO-8859-1"));
+    }
+    
+    private File createFile (String xml, String encoding) throws IOException
+    {
+        File f = File.createTempFile ("EditJournalTest", ".xml");
+        f.deleteOnExit ();
+        FileOutputStream out = new FileOutputStream (f);
+        out.write (xml.getBytes (encoding));
+        out.close ();
+        return f;
+    }
+    
+    private String readFile (File f, String encoding) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile (f, "r");
+        try
+        {
+            byte[] data = new byte[(int)raf.length ()];
+            raf.readFully (data);
+            return new String (data, encoding);
+        }
+        finally
+        {
+            raf.close ();
+        }
+    }
+}
@@ -33,7 +33,9 @@ package anyxml;
 import static org.junit.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CyclicBarrier;
 
 import org.junit.Test;
 
@@ -709,4 +711,227 @@ public class ElementTest
         Element copy = e.copy ();
         assertEquals (e.toXML (), copy.toXML ());
     }
+    
+    private Element createList (int count)
+    {
+        Element items = new Element ("items");
+        for (int i=0; i<count; i++)
+            items.addNode (new Element (i % 2 == 0 ? "a" : "b").setAttribute ("no", String.valueOf (i)));
+        return items;
+    }
+    
+    private String numbers (List<Element> list)
+    {
+        StringBuilder buffer = new StringBuilder ();
+        for (Element e: list)
+        {
+            if (buffer.length () > 0)
+                buffer.append (",");
+            buffer.append (e.getAttributeValue ("no"));
+        }
+        return buffer.toString ();
+    }
+    
+    @Test
+    public void testChildIndex () throws Exception
+    {
+        Element items = createList (20);
+        assertEquals ("1,3,5,7,9,11,13,15,17,19", numbers (items.getChildren ("b")));
+        assertEquals ("", numbers (items.getChildren ("c")));
+        assertEquals ("7", items.getChild ("b[3]").getAttributeValue ("no"));
+        
+        // Appending updates the index
+        items.addNode (new Element ("c").setAttribute ("no", "20"));
+        items.addNode (new Text ("x"));
+        items.addNode (new Element ("b").setAttribute ("no", "21"));
+        assertEquals ("20", numbers (items.getChildren ("c")));
+        assertEquals ("1,3,5,7,9,11,13,15,17,19,21", numbers (items.getChildren ("b")));
+        
+        // All other changes rebuild it
+        items.addNode (0, new Element ("c").setAttribute ("no", "-1"));
+        assertEquals ("-1,20", numbers (items.getChildren ("c")));
+        assertEquals ("21", items.getChild ("b[10]").getAttributeValue ("no"));
+        
+        items.removeNode (0);
+        items.removeNode (items.getChild ("c"));
+        assertEquals ("", numbers (items.getChildren ("c")));
+        
+        items.getChild ("a").setName ("c");
+        assertEquals ("0", numbers (items.getChildren ("c")));
+        assertEquals ("2", items.getChild ("a").getAttributeValue ("no"));
+        
+        items.getNodes ().set (1, new Element ("c").setAttribute ("no", "x"));
+        assertEquals ("0,x", numbers (items.getChildren ("c")));
+        
+        items.clearChildren ();
+        assertEquals ("", numbers (items.getChildren ("b")));
+        assertEquals ("<items>x</items>", items.toXML ());
+        
+        items.clearNodes ();
+        assertNull (items.getChild ("a"));
+    }
+    
+    @Test
+    public void testChildIndexNamespace () throws Exception
+    {
+        Document doc = XMLParser.parse ("<items xmlns:x='urn:x'><a/><x:a/><b/><a/><x:a/><a/><a/><a/><a/><a/><a/><a/><a/><a/><a/><a/><a/></items>");
+        Element items = doc.getRootElement ();
+        Namespace x = doc.getNamespace ("x");
+        
+        assertEquals (16, items.getChildren ("a").size ());
+        assertEquals (2, items.getChildren ("a", x).size ());
+        assertEquals (14, items.getChildren ("a", Namespace.NO_NAMESPACE).size ());
+        assertSame (items.getNode (4), items.getChild ("x:a[1]"));
+        
+        // Without index
+        assertEquals (1, new Element ("e").addNodes (new Element ("a"), new Element ("a", x)).getChildren ("a", x).size ());
+    }
+    
+    @Test
+    public void testConcurrentReads () throws Exception
+    {
+        final Element items = new Element ("items");
+        for (int i=0; i<200; i++)
+            items.addNode (new Element ("abc".substring (i % 3, i % 3 + 1)));
+        assertTrue (items.nodeCount () >= NodeWithChildren.INDEX_THRESHOLD);
+        
+        // Before each round, a change makes the index and the positions invalid, so the readers rebuild them at the same time
+        final CyclicBarrier barrier = new CyclicBarrier (8, new Runnable () {
+            public void run ()
+            {
+                items.getNodes ().set (0, items.getNode (0));
+            }
+        });
+        
+        final List<Throwable> errors = Collections.synchronizedList (new ArrayList<Throwable> ());
+        Thread[] threads = new Thread[8];
+        for (int i=0; i<threads.length; i++)
+        {
+            threads[i] = new Thread () {
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        for (int j=0; j<1000; j++)
+                        {
+                            barrier.await ();
+                            assertEquals (67, items.getChildren ("b").size ());
+                            assertSame (items.getNode (32), items.getChild ("c[10]"));
+                            assertEquals (100, items.childIndexOf ((Element)items.getNode (100)));
+                            assertEquals (150, items.nodeIndexOf (items.getNode (150)));
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        errors.add (t);
+                        barrier.reset ();
+                    }
+                }
+            };
+            threads[i].start ();
+        }
+        
+        for (Thread t: threads)
+            t.join ();
+        
+        assertEquals ("[]", errors.toString ());
+    }
+    
+    @Test
+    public void testGetChildrenNamespace () throws Exception
+    {
+        // The namespace of each child is compared, not the one of the parent
+        Document doc = XMLParser.parse ("<x:r xmlns:x='urn:x'><a/><x:a/></x:r>");
+        Element r = doc.getRootElement ();
+        Namespace x = doc.getNamespace ("x");
+        
+        List<Element> children = r.getChildren ("a", x);
+        assertEquals (1, children.size ());
+        assertSame (r.getNode (1), children.get (0));
+        
+        children = r.getChildren ("a", Namespace.NO_NAMESPACE);
+        assertEquals (1, children.size ());
+        assertSame (r.getNode (0), children.get (0));
+        
+        assertEquals (1, r.getChildren (null, x).size ());
+    }
+    
+    @Test
+    public void testDocumentIsUpdated () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a><b><c/></b></a>");
+        Element b = doc.getChild ("/a/b");
+        Element c = b.getChild ("c");
+        assertSame (doc, c.getDocument ());
+        
+        b.remove ();
+        assertNull (b.getDocument ());
+        assertNull (c.getDocument ());
+        
+        Document other = XMLParser.parse ("<x/>");
+        other.getRootElement ().addNode (b);
+        assertSame (other, b.getDocument ());
+        assertSame (other, c.getDocument ());
+        
+        // Children which are added to a detached element get the document when it is added
+        Element d = new Element ("d");
+        Element e = new Element (d, "e");
+        assertNull (e.getDocument ());
+        c.addNode (d);
+        assertSame (other, e.getDocument ());
+        assertEquals ("/x/b/c/d/e", e.getChildPath ());
+    }
+    
+    @Test
+    public void testSiblings () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a>t<b/><c/><!--x--><d/></a>");
+        Element a = doc.getRootElement ();
+        Element b = a.getChild ("b");
+        Element c = a.getChild ("c");
+        Element d = a.getChild ("d");
+        
+        assertEquals ("t", b.previousSibling ().toXML ());
+        assertSame (c, b.nextSibling ());
+        assertSame (b, c.previousSibling ());
+        assertEquals ("<!--x-->", c.nextSibling ().toXML ());
+        assertNull (d.nextSibling ());
+        assertNull (a.nextSibling ());
+        assertNull (a.previousSibling ());
+        assertNull (new Element ("x").nextSibling ());
+        
+        assertEquals (0, a.childIndexOf (b));
+        assertEquals (2, a.childIndexOf (d));
+        assertEquals (-1, b.childIndexOf (c));
+        assertEquals (4, a.nodeIndexOf (d));
+        
+        // The positions follow the changes
+        a.removeNode (0);
+        a.addNode (1, new Element ("x"));
+        assertEquals ("<a><b/><x/><c/><!--x--><d/></a>", a.toXML ());
+        assertEquals ("x", ((Element)b.nextSibling ()).getName ());
+        assertEquals (3, a.childIndexOf (d));
+        assertEquals ("/a/d[3]", d.getChildPath ());
+        
+        a.getNodes ().remove (b);
+        assertEquals (-1, a.childIndexOf (b));
+        assertEquals (-1, a.nodeIndexOf (b));
+        assertEquals ("<!--x-->", d.previousSibling ().toXML ());
+        assertSame (c, a.getChild ("x").nextSibling ());
+    }
+    
+    @Test
+    public void testSortParsedNodes () throws Exception
+    {
+        Document doc = XMLParser.parse ("<r><a/><b/></r>");
+        XMLWriterTest.reverseSort (doc.getRootElement ().getNodes ());
+        assertEquals ("<r><b/><a/></r>", doc.toXML ());
+        assertEquals ("b", doc.getRootElement ().getChild (0).getName ());
+        
+        doc = XMLParser.parse ("<r>x<a/></r>");
+        Element r = doc.getRootElement ();
+        assertTrue (XMLWriterTest.removeIf (r.getNodes (), r.getNode (0)));
+        assertEquals ("<r><a/></r>", doc.toXML ());
+    }
 }
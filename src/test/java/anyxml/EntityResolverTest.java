@@ -479,4 +479,45 @@ public class EntityResolverTest
         assertEquals (s, e.getText ());
         assertTrue (e.isWhitespace ());
     }
+    
+    @Test
+    public void testHTMLEntities () throws Exception
+    {
+        HTMLEntityResolver resolver = new HTMLEntityResolver ();
+        assertEquals ("\u00a0", resolver.expand ("&nbsp;"));
+        assertEquals ("<", resolver.expand ("&lt;"));
+        assertTrue (resolver.isDefined ("copy"));
+        assertFalse (resolver.isDefined ("xxx"));
+        assertNull (resolver.expand ("&xxx;"));
+        
+        resolver.add ("nbsp", " ");
+        resolver.add ("xxx", "y");
+        assertEquals (" ", resolver.expand ("&nbsp;"));
+        assertEquals ("y", resolver.expand ("&xxx;"));
+        
+        // The table is shared but changes are not
+        assertEquals ("\u00a0", new HTMLEntityResolver ().expand ("&nbsp;"));
+        assertNull (new HTMLEntityResolver ().expand ("&xxx;"));
+        
+        resolver.clear ();
+        assertEquals ("\u00a0", resolver.expand ("&nbsp;"));
+        assertNull (resolver.expand ("&xxx;"));
+    }
+    
+    @Test
+    public void testHTMLEntitiesWithParent () throws Exception
+    {
+        EntityResolver parent = new EntityResolver ();
+        parent.add ("xxx", "y");
+        
+        HTMLEntityResolver resolver = new HTMLEntityResolver (parent);
+        assertEquals ("y", resolver.expand ("&xxx;"));
+        assertEquals ("\u00e9", resolver.expand ("&eacute;"));
+    }
+    
+    @Test
+    public void testHTMLEncode () throws Exception
+    {
+        assertEquals ("&lt;a&gt; &amp; &eacute;&nbsp;&copy;", new HTMLEntityResolver ().encode ("<a> & \u00e9\u00a0\u00a9"));
+    }
 }
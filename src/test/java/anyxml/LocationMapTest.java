@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class LocationMapTest
+{
+    @Test
+    public void testSameAsLocation () throws Exception
+    {
+        Document doc = XMLParser.parse (XMLParserTest.POM_XML);
+        LocationMap map = new LocationMap (doc);
+        XMLStringSource xml = new XMLStringSource (doc.toXML ());
+        
+        List<Node> nodes = new ArrayList<Node> ();
+        for (Node n: doc.getNodes ())
+            collect (n, nodes);
+        assertTrue (nodes.size () > 20);
+        
+        for (Node n: nodes)
+        {
+            Location expected = new Location (doc, n);
+            Location actual = map.getLocation (n);
+            assertNotNull (n.toString (), actual);
+            assertEquals (n.toString (), expected.toString (), actual.toString ());
+            assertEquals (n.toString (), expected.getOffset (), actual.getOffset ());
+            
+            Location inXML = new Location (xml, actual.getOffset ());
+            assertEquals (n.toString (), inXML.toString (), actual.toString ());
+            assertEquals (n.toString (), inXML.getLineStartOffset (), actual.getLineStartOffset ());
+        }
+        
+        assertEquals (nodes.size (), map.size ());
+        assertFalse (map.contains (doc));
+        assertEquals (doc.toXML ().length (), map.length ());
+    }
+    
+    @Test
+    public void testModified () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a>\n\t<b x='1'/>\n</a>");
+        Element a = doc.getRootElement ();
+        Element c = new Element ("c");
+        a.addNode (1, c);
+        c.addNode (new Text ("\n"));
+        
+        LocationMap map = new LocationMap (doc);
+        assertEquals ("2:9", map.getLocation (c).toString ());
+        assertEquals ("<a>\n\t<c>\n</c><b x='1'/>\n</a>", doc.toXML ());
+        
+        Element b = a.getChild ("b");
+        assertEquals ("3:5", map.getLocation (b).toString ());
+        assertEquals ("3:7", map.getLocation (b.getAttribute ("x")).toString ());
+        assertEquals (new Location (doc, b).toString (), map.getLocation (b).toString ());
+    }
+    
+    @Test
+    public void testOffsets () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a><b>text</b><c/></a>");
+        Element a = doc.getRootElement ();
+        LocationMap map = new LocationMap (a);
+        
+        Element b = a.getChild ("b");
+        assertEquals (3, map.getOffset (b));
+        assertEquals (14, map.getEndOffset (b));
+        assertEquals (6, map.getOffset (b.getNode (0)));
+        assertEquals (10, map.getEndOffset (b.getNode (0)));
+        assertEquals (0, map.getOffset (a));
+        assertEquals (map.length (), map.getEndOffset (a));
+        
+        Element d = new Element ("d");
+        assertFalse (map.contains (d));
+        assertNull (map.getLocation (d));
+        assertEquals (-1, map.getOffset (d));
+        assertEquals (-1, map.getEndOffset (d));
+    }
+    
+    @Test
+    public void testCarriageReturn () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a>\r\n<b/>\r<c/>\n<d/></a>");
+        LocationMap map = new LocationMap (doc);
+        Element a = doc.getRootElement ();
+        assertEquals ("2:1/5", format (map.getLocation (a.getChild ("b"))));
+        assertEquals ("3:1/10", format (map.getLocation (a.getChild ("c"))));
+        assertEquals ("4:1/15", format (map.getLocation (a.getChild ("d"))));
+    }
+    
+    private String format (Location l)
+    {
+        return l.toString () + "/" + l.getLineStartOffset ();
+    }
+    
+    private void collect (Node node, List<Node> nodes)
+    {
+        nodes.add (node);
+        if (node instanceof Element)
+        {
+            for (Node n: ((Element)node).getAttributeMap ().values ())
+                nodes.add (n);
+        }
+        if (node instanceof NodeWithChildren)
+        {
+            for (Node n: ((NodeWithChildren)node).getNodes ())
+                collect (n, nodes);
+        }
+    }
+}
@@ -32,6 +32,9 @@ package anyxml;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.StringReader;
+import java.util.Random;
+
 import org.junit.Test;
 
 import anyxml.Document;
@@ -142,6 +145,125 @@ public class LocationTest
         check (" \t\ta", 4, "1:18/0");
     }
     
+    @Test
+    public void testLineIndex () throws Exception
+    {
+        String input = randomText (new Random (1), 5000);
+        XMLStringSource source = new XMLStringSource (input);
+        Location.ReusableXMLSource scanned = new Location.ReusableXMLSource ();
+        scanned.source = input;
+        
+        Random r = new Random (2);
+        for (int i=0; i<2000; i++)
+        {
+            int offset = r.nextInt (input.length () + 2);
+            compare (new Location (scanned, offset), new Location (source, offset));
+        }
+        for (int offset=input.length (); offset>=0; offset--)
+            compare (new Location (scanned, offset), new Location (source, offset));
+    }
+    
+    @Test
+    public void testLineIndexCarriageReturnLineFeed () throws Exception
+    {
+        check ("a\r\nb", 1, "1:2/0");
+        check ("a\r\nb", 2, "2:1/3");
+        check ("a\r\nb", 3, "2:1/3");
+        check ("a\r\nb", 4, "2:2/3");
+        check ("a\r\r\nb", 3, "3:1/4");
+        
+        XMLStringSource source = new XMLStringSource ("a\r\nb\nc\rd");
+        assertEquals (4, source.getLineIndex ().getLine (8));
+        assertEquals (4, source.getLineIndex ().getLineCount ());
+        assertEquals (2, source.getLineIndex ().getLine (2));
+    }
+    
+    @Test
+    public void testLineIndexAfterRelease () throws Exception
+    {
+        String input = randomText (new Random (3), 20000);
+        Location.ReusableXMLSource scanned = new Location.ReusableXMLSource ();
+        scanned.source = input;
+        
+        for (int chunkSize=1; chunkSize<20; chunkSize++)
+        {
+            XMLStreamSource source = new XMLStreamSource (new StringReader (input), chunkSize).setTrackLines (true);
+            for (int offset=0; offset<input.length (); offset+=7)
+            {
+                source.charAt (offset);
+                source.release (offset);
+                int start = Math.max (offset, source.getDiscardedOffset ());
+                compare (new Location (scanned, start), new Location (source, start));
+                if (offset + 1 < input.length ())
+                    compare (new Location (scanned, offset + 1), new Location (source, offset + 1));
+                
+                Location discarded = new Location (scanned, source.getDiscardedOffset ());
+                assertEquals (discarded.getLine (), source.getDiscardedLine ());
+                assertEquals (discarded.getColumn (), source.getDiscardedColumn ());
+                assertEquals (discarded.getLineStartOffset (), source.getDiscardedLineStartOffset ());
+            }
+        }
+    }
+    
+    @Test
+    public void testLineIndexLongLine () throws Exception
+    {
+        // Like a minified file: one very long line with a few tabs
+        String input = "x\n" + randomText (new Random (4), 2000000, "abcdefgh \t") + "\ny";
+        XMLStringSource source = new XMLStringSource (input);
+        Location.ReusableXMLSource scanned = new Location.ReusableXMLSource ();
+        scanned.source = input;
+        
+        // Scanning from the start of the line for each of these would take minutes
+        Random r = new Random (5);
+        for (int i=0; i<20000; i++)
+        {
+            int offset = r.nextInt (input.length () + 1);
+            Location l = new Location (source, offset);
+            if (i % 500 == 0)
+                compare (new Location (scanned, offset), l);
+            else
+                assertEquals (2, l.getLine ());
+        }
+        
+        int checkpoint = 2 + LineIndex.CHECKPOINT_INTERVAL;
+        for (int offset=checkpoint-3; offset<checkpoint+3; offset++)
+            compare (new Location (scanned, offset), new Location (source, offset));
+        compare (new Location (scanned, input.length ()), new Location (source, input.length ()));
+        
+        // The checkpoints before a released chunk are discarded
+        input = randomText (new Random (6), 10000, "ab \t");
+        scanned.source = input;
+        XMLStreamSource stream = new XMLStreamSource (new StringReader (input), 100).setTrackLines (true);
+        for (int offset=0; offset<input.length (); offset+=37)
+        {
+            stream.charAt (offset);
+            stream.release (offset);
+            int start = Math.max (offset, stream.getDiscardedOffset ());
+            compare (new Location (scanned, start), new Location (stream, start));
+            compare (new Location (scanned, offset + 1), new Location (stream, offset + 1));
+        }
+    }
+    
+    private String randomText (Random r, int length)
+    {
+        return randomText (r, length, "ab \t\r\n");
+    }
+    
+    private String randomText (Random r, int length, String chars)
+    {
+        StringBuilder buffer = new StringBuilder (length);
+        for (int i=0; i<length; i++)
+            buffer.append (chars.charAt (r.nextInt (chars.length ())));
+        return buffer.toString ();
+    }
+    
+    private void compare (Location expected, Location actual)
+    {
+        assertEquals ("Offset "+expected.getOffset (), expected.toString ()+"/"+expected.getLineStartOffset (),
+                actual.toString ()+"/"+actual.getLineStartOffset ());
+    }
+    
     private void check (String input, int offset, String expected)
     {
         XMLStringSource source = new XMLStringSource (input);
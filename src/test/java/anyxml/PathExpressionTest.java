@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import anyxml.Document;
+import anyxml.Element;
+import anyxml.Namespace;
+import anyxml.PathExpression;
+import anyxml.XMLParseException;
+import anyxml.XMLParser;
+
+public class PathExpressionTest
+{
+    public final static String XML = 
+        "<feed xmlns:x='urn:x'>\n" +
+        "  <record id='1'><title>A</title></record>\n" +
+        "  <record id='2' type='b'><title>B</title><x:title>XB</x:title></record>\n" +
+        "  <group><record id='3'><title>C</title></record></group>\n" +
+        "  <record id='4' type='b'><note/></record>\n" +
+        "</feed>";
+    
+    private Document doc = XMLParser.parse (XML);
+    
+    private String eval (String path)
+    {
+        Element e = doc.getChild (path);
+        return e == null ? null : e.toXML ();
+    }
+    
+    @Test
+    public void testChildSteps () throws Exception
+    {
+        assertEquals ("<title>A</title>", eval ("/feed/record/title"));
+        assertEquals ("<title>A</title>", eval ("feed/record/title"));
+        assertEquals ("<title>B</title>", eval ("/feed/record[1]/title"));
+        assertEquals ("<note/>", eval ("/feed/record[2]/note"));
+        assertNull (eval ("/feed/record[3]"));
+        assertNull (eval ("/record"));
+        assertEquals ("<title>A</title>", eval ("/feed/./record/title/"));
+    }
+    
+    @Test
+    public void testFirstMatch () throws Exception
+    {
+        // getChild() only looks at the first record and it has no note
+        assertNull (eval ("/feed/record/note"));
+        assertNull (eval ("/feed/record[0]/note"));
+        
+        Document doc = XMLParser.parse ("<r><a/><a><b/></a></r>");
+        assertNull (doc.getRootElement ().getChild ("a/b"));
+        assertNull (doc.getChild ("/r/a/b"));
+    }
+    
+    @Test
+    public void testFindFirst () throws Exception
+    {
+        // The first record has no note, so the search continues with the next record
+        PathExpression path = PathExpression.compile ("/feed/record/note");
+        assertEquals ("<note/>", path.findFirst (doc).toXML ());
+        assertSame (path.findFirst (doc), path.findFirst (doc.getRootElement ()));
+        assertNull (PathExpression.compile ("/feed/record[0]/note").findFirst (doc));
+        
+        Document doc = XMLParser.parse ("<r><a/><a><b/></a></r>");
+        assertEquals ("<b/>", PathExpression.compile ("a/b").findFirst (doc.getRootElement ()).toXML ());
+    }
+    
+    @Test
+    public void testDescendant () throws Exception
+    {
+        assertEquals ("<title>A</title>", eval ("//title"));
+        assertEquals ("<title>C</title>", eval ("/feed/group//title"));
+        assertEquals ("C", doc.getChild ("//record[@id='3']").getText ());
+        assertEquals ("<note/>", eval ("//note"));
+        assertNull (eval ("/feed/group//note"));
+        
+        // The index of a descendant counts the siblings
+        assertEquals ("2", doc.getChild ("//record[1]").getAttributeValue ("id"));
+        assertEquals ("3", doc.getChild ("//group/record[0]").getAttributeValue ("id"));
+        
+        Element group = doc.getChild ("/feed/group");
+        assertSame (group.getChild ("record"), doc.getRootElement ().getChild ("//record[@id='3']"));
+    }
+    
+    @Test
+    public void testPredicates () throws Exception
+    {
+        assertEquals ("2", doc.getChild ("/feed/record[@type]").getAttributeValue ("id"));
+        assertEquals ("4", doc.getChild ("/feed/record[@type='b'][1]").getAttributeValue ("id"));
+        assertEquals ("<note/>", eval ("/feed/record[@type=\"b\"][1]/note"));
+        assertEquals ("3", doc.getChild ("/feed/*[2]/record").getAttributeValue ("id"));
+        assertNull (doc.getChild ("/feed/record[@type='c']"));
+    }
+    
+    @Test
+    public void testNamespaces () throws Exception
+    {
+        assertEquals ("<x:title>XB</x:title>", eval ("/feed/record[1]/x:title"));
+        assertEquals ("<x:title>XB</x:title>", eval ("//x:*"));
+        assertEquals ("<title>A</title>", eval ("//title"));
+        
+        Namespace x = doc.getNamespace ("x");
+        assertNull (doc.getChild ("//title", x));
+        assertEquals ("<x:title>XB</x:title>", PathExpression.compile ("//title").findFirst (doc, x).toXML ());
+        
+        try
+        {
+            doc.getChild ("//y:title");
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Namespace prefix 'y' is not defined", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testRelativeToElement () throws Exception
+    {
+        Element record = doc.getChild ("/feed/record[1]");
+        assertSame (record, record.getChild (""));
+        assertSame (record, record.getChild ("."));
+        assertEquals ("<title>B</title>", record.getChild ("title").toXML ());
+        assertSame (doc.getRootElement (), record.getChild ("/feed"));
+        assertNull (new Element ("e").getChild ("/e"));
+        
+        PathExpression path = PathExpression.compile ("record[@id='4']/note");
+        assertFalse (path.isAbsolute ());
+        assertEquals (2, path.getStepCount ());
+        assertEquals ("<note/>", path.evaluate (doc.getRootElement ()).toXML ());
+    }
+    
+    @Test
+    public void testDocumentOrder () throws Exception
+    {
+        // The outer "a" matches first but the inner "a" has the earlier "b"
+        Document doc = XMLParser.parse ("<r><a><a><b id='1'/></a><b id='2'/></a></r>");
+        assertEquals ("2", doc.getChild ("//a/b").getAttributeValue ("id"));
+        assertEquals ("1", PathExpression.compile ("//a/b").findFirst (doc).getAttributeValue ("id"));
+        assertEquals ("1", PathExpression.compile ("/r//a/b").findFirst (doc).getAttributeValue ("id"));
+        
+        assertTrue (PathExpression.isBefore (doc.getChild ("//a"), doc.getChild ("//b")));
+        assertFalse (PathExpression.isBefore (doc.getChild ("//b[@id='2']"), doc.getChild ("//b[@id='1']")));
+    }
+    
+    @Test
+    public void testEquals () throws Exception
+    {
+        assertEquals (new PathExpression ("/feed/record"), PathExpression.compile ("/feed/record"));
+        assertEquals (new PathExpression ("/feed/record").hashCode (), PathExpression.compile ("/feed/record").hashCode ());
+        assertFalse (new PathExpression ("/feed/record").equals (new PathExpression ("feed/record")));
+    }
+    
+    @Test
+    public void testCache () throws Exception
+    {
+        assertSame (PathExpression.compile ("/feed/record"), PathExpression.compile ("/feed/record"));
+        assertNotSame (new PathExpression ("/feed/record"), PathExpression.compile ("/feed/record"));
+    }
+    
+    @Test
+    public void testSyntaxErrors () throws Exception
+    {
+        String[] paths = { "a[", "a[x]", "a[1][2]", "a[@]", "a[@b=c]", "a[@b='c]", "a//", "a///b", ":a", "a:", "a[1]b" };
+        String[] messages = {
+            "Expected index or attribute at position 2 of path 'a['",
+            "Expected index or attribute at position 2 of path 'a[x]'",
+            "Only one index is allowed at position 4 of path 'a[1][2]'",
+            "Expected attribute name at position 3 of path 'a[@]'",
+            "Expected quoted attribute value at position 5 of path 'a[@b=c]'",
+            "Missing closing quote at position 8 of path 'a[@b='c]'",
+            "Expected element name after '//' at position 3 of path 'a//'",
+            "Unexpected '/' at position 3 of path 'a///b'",
+            "Expected namespace prefix and name at position 0 of path ':a'",
+            "Expected namespace prefix and name at position 0 of path 'a:'",
+            "Expected '/' at position 4 of path 'a[1]b'",
+        };
+        
+        for (int i=0; i<paths.length; i++)
+        {
+            try
+            {
+                new PathExpression (paths[i]);
+                fail ("No exception was thrown for "+paths[i]);
+            }
+            catch (IllegalArgumentException e)
+            {
+                assertEquals (messages[i], e.getMessage ());
+            }
+        }
+    }
+}
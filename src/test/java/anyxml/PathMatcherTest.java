@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PathMatcherTest
+{
+    private final static String XML = PathExpressionTest.XML;
+    
+    private Map<String, List<String>> match (String xml, String... paths)
+    {
+        PathMatcher matcher = new PathMatcher ();
+        for (String path: paths)
+            matcher.add (path);
+        return matcher.match (new XMLStringSource (xml));
+    }
+    
+    @Test
+    public void testElements () throws Exception
+    {
+        // Without a prefix, the namespace is ignored
+        Map<String, List<String>> result = match (XML, "/feed/record/title", "//title", "/feed/record[1]/x:title", "/feed/missing", "feed/group");
+        assertEquals ("{/feed/record/title=[A, B, XB], //title=[A, B, XB, C], /feed/record[1]/x:title=[XB], /feed/missing=[], feed/group=[C]}", result.toString ());
+    }
+    
+    @Test
+    public void testAttributes () throws Exception
+    {
+        Map<String, List<String>> result = match (XML, "/feed/record/@id", "//record[@type]/@id", "//@type", "/feed/record/@missing", "/feed/@xmlns:x");
+        assertEquals ("{/feed/record/@id=[1, 2, 4], //record[@type]/@id=[2, 4], //@type=[b, b], /feed/record/@missing=[], /feed/@xmlns:x=[urn:x]}", result.toString ());
+    }
+    
+    @Test
+    public void testSameAsDocument () throws Exception
+    {
+        String xml = "<!DOCTYPE a [ <!ENTITY e 'entity'> ]><a><b>x &lt; <![CDATA[<y>]]> &e; <!-- c --><c>z</c></b><b/></a>";
+        Document doc = XMLParser.parse (xml);
+        
+        Map<String, List<String>> result = match (xml, "/a/b", "/a");
+        assertEquals (doc.getChild ("/a/b").getText (), result.get ("/a/b").get (0));
+        assertEquals ("", result.get ("/a/b").get (1));
+        assertEquals (doc.getRootElement ().getText (), result.get ("/a").get (0));
+    }
+    
+    @Test
+    public void testUndefinedEntity () throws Exception
+    {
+        String xml = "<r><b>x&foo;y</b></r>";
+        XMLParser parser = new XMLParser ().setEntityResolver (new HTMLEntityResolver ());
+        try
+        {
+            new PathMatcher (parser).add ("/r/b").match (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 8: Entity &foo; is not defined", e.getMessage ());
+        }
+        
+        // Same as the parser
+        try
+        {
+            parser.parse (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 8: Entity &foo; is not defined", e.getMessage ());
+        }
+        
+        // Entities in skipped elements aren't expanded
+        assertEquals ("{/r/c=[]}", new PathMatcher (parser).add ("/r/c").match (new XMLStringSource (xml)).toString ());
+        assertEquals ("{/r/b=[x<y]}", new PathMatcher (parser).add ("/r/b").match (new XMLStringSource ("<r><b>x&lt;y</b></r>")).toString ());
+    }
+    
+    @Test
+    public void testStreamSource () throws Exception
+    {
+        final XMLStreamSource source = new XMLStreamSource (new XMLSourceTest.FeedReader (100000), 256);
+        final int[] records = new int[1];
+        new PathMatcher ().add ("/feed/record/@id", new PathHandler () {
+            public void matched (String path, String value, int offset)
+            {
+                assertEquals (String.valueOf (records[0]), value);
+                assertTrue (source.getFirstOffset () > offset - 1024);
+                records[0] ++;
+            }
+        }).match (source);
+        
+        assertEquals (100000, records[0]);
+        
+        // The end of a skipped start tag can be right at the start of a chunk
+        String xml = "<feed><x><record a='1'><y></y></record><record/></x><z>t</z></feed>";
+        for (int chunkSize=1; chunkSize<xml.length (); chunkSize++)
+        {
+            Map<String, List<String>> result = new PathMatcher ().add ("/feed/z").match (new XMLStreamSource (new StringReader (xml), chunkSize));
+            assertEquals ("{/feed/z=[t]}", result.toString ());
+        }
+    }
+    
+    @Test
+    public void testNestedElements () throws Exception
+    {
+        // Elements are reported at their end tag
+        Map<String, List<String>> result = match ("<a>1<a>2<a>3</a></a></a>", "//a", "/a/a");
+        assertEquals ("{//a=[3, 23, 123], /a/a=[23]}", result.toString ());
+    }
+    
+    @Test
+    public void testHandler () throws Exception
+    {
+        final List<String> values = new ArrayList<String> ();
+        PathHandler handler = new PathHandler () {
+            public void matched (String path, String value, int offset)
+            {
+                values.add (path + "=" + value + "@" + offset);
+            }
+        };
+        
+        PathMatcher matcher = new PathMatcher ()
+            .add ("/feed/record/@id", handler)
+            .add ("/feed/record/title", handler)
+            .add ("/feed/group//title");
+        assertEquals ("[/feed/record/@id, /feed/record/title, /feed/group//title]", matcher.toString ());
+        
+        Map<String, List<String>> result = matcher.match (new XMLStringSource (XML));
+        assertEquals ("{/feed/group//title=[C]}", result.toString ());
+        assertEquals ("[/feed/record/@id=1@25, /feed/record/title=A@40, /feed/record/@id=2@68, /feed/record/title=B@92, /feed/record/title=XB@108, /feed/record/@id=4@199]", values.toString ());
+        
+        assertEquals ("<title>A</title>", XML.substring (40, 56));
+        
+        // The matcher can be used again
+        values.clear ();
+        result = matcher.match (new XMLStringSource ("<feed><record id='9'/></feed>"));
+        assertEquals ("{/feed/group//title=[]}", result.toString ());
+        assertEquals ("[/feed/record/@id=9@6]", values.toString ());
+    }
+    
+    @Test
+    public void testDuplicatePath () throws Exception
+    {
+        Map<String, List<String>> result = match ("<r><a id='1'>x</a><a id='2'>y</a></r>", "/r/a", "/r/a/@id", "/r/a");
+        assertEquals ("{/r/a=[x, y], /r/a/@id=[1, 2]}", result.toString ());
+    }
+    
+    @Test
+    public void testSkippedContentIsNotChecked () throws Exception
+    {
+        Map<String, List<String>> result = match ("<a><b><c></d></b><e>1</e></a>", "/a/e");
+        assertEquals ("{/a/e=[1]}", result.toString ());
+        
+        try
+        {
+            match ("<a><b><c></d></b><e>1</e></a>", "/a/b/x");
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 7: End element 'd' at line 1, column 10 doesn't match with 'c'", e.getMessage ());
+        }
+        
+        try
+        {
+            match ("<a><b><c>", "/a/e");
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 4: Unexpected end-of-file while parsing children of element b", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testInvalidPaths () throws Exception
+    {
+        String[] paths = { "/", "@id", "/a/@", "/a/@b[1]", "/a[" };
+        String[] messages = {
+            "Path must contain an element name: '/'",
+            "Path must contain an element name: '@id'",
+            "Expected attribute name at position 4 of path '/a/@'",
+            "Expected attribute name at position 4 of path '/a/@b[1]'",
+            "Expected index or attribute at position 3 of path '/a['",
+        };
+        
+        for (int i=0; i<paths.length; i++)
+        {
+            try
+            {
+                new PathMatcher ().add (paths[i]);
+                fail ("No exception was thrown for "+paths[i]);
+            }
+            catch (IllegalArgumentException e)
+            {
+                assertEquals (messages[i], e.getMessage ());
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class PathSetTest
+{
+    private final static String[] PATHS = {
+        "/feed/record/title",
+        "feed/record/title",
+        "/feed/record[1]/title",
+        "/feed/record[2]/note",
+        "/feed/record[3]",
+        "/record",
+        "/feed/record/note",
+        "/feed/record[0]/note",
+        "//title",
+        "/feed/group//title",
+        "//record[@id='3']",
+        "//note",
+        "/feed/group//note",
+        "//record[1]",
+        "//group/record[0]",
+        "/feed/record[@type]",
+        "/feed/record[@type='b'][1]",
+        "/feed/*/record",
+        "/feed/record/x:title",
+        "//x:*",
+        "/",
+        "",
+    };
+    
+    private Document doc = XMLParser.parse (PathExpressionTest.XML);
+    
+    private String toXML (Element e)
+    {
+        return e == null ? null : e.toXML ();
+    }
+    
+    @Test
+    public void testDocument () throws Exception
+    {
+        PathSet set = new PathSet (PATHS);
+        assertEquals (PATHS.length, set.size ());
+        
+        Map<PathExpression, Element> results = set.evaluate (doc);
+        assertEquals (PATHS.length, results.size ());
+        
+        int i = 0;
+        for (Map.Entry<PathExpression, Element> entry: results.entrySet ())
+        {
+            String path = PATHS[i ++];
+            assertEquals (path, entry.getKey ().getPath ());
+            assertSame (path, PathExpression.compile (path).findFirst (doc), entry.getValue ());
+        }
+    }
+    
+    @Test
+    public void testElement () throws Exception
+    {
+        Element record = doc.getChild ("/feed/record[1]");
+        PathSet set = new PathSet ("", "title", "x:title", "*[1]", "//title", "/feed/group", "/feed/record/x:title", "note");
+        
+        for (Map.Entry<PathExpression, Element> entry: set.evaluate (record).entrySet ())
+            assertSame (entry.getKey ().getPath (), entry.getKey ().findFirst (record), entry.getValue ());
+        
+        assertSame (record, set.evaluate (record).get (PathExpression.compile ("")));
+    }
+    
+    @Test
+    public void testDuplicates () throws Exception
+    {
+        PathSet set = new PathSet ("/feed/record", "/feed/record", "/feed/record[0]");
+        set.add (new PathExpression ("/feed/record"));
+        assertEquals ("[/feed/record, /feed/record[0]]", set.toString ());
+        
+        Map<PathExpression, Element> results = set.evaluate (doc);
+        assertSame (results.get (new PathExpression ("/feed/record")), results.get (new PathExpression ("/feed/record[0]")));
+    }
+    
+    @Test
+    public void testDocumentOrder () throws Exception
+    {
+        Document doc = XMLParser.parse ("<r><a><a><b id='1'/></a><b id='2'/></a><c><b id='3'/></c></r>");
+        PathSet set = new PathSet ("//a/b", "//b", "/r/a/b", "//c/b", "//a//b[0]");
+        
+        for (Map.Entry<PathExpression, Element> entry: set.evaluate (doc).entrySet ())
+            assertSame (entry.getKey ().getPath (), entry.getKey ().findFirst (doc), entry.getValue ());
+    }
+    
+    @Test
+    public void testUndefinedPrefix () throws Exception
+    {
+        try
+        {
+            new PathSet ("/feed/record", "//y:title").evaluate (doc);
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Namespace prefix 'y' is not defined", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testStream () throws Exception
+    {
+        PathSet set = new PathSet (PATHS);
+        Map<PathExpression, Element> results = set.evaluate (new XMLStringSource (PathExpressionTest.XML));
+        
+        int i = 0;
+        for (Map.Entry<PathExpression, Element> entry: results.entrySet ())
+        {
+            String path = PATHS[i ++];
+            Element e = entry.getValue ();
+            assertEquals (path, toXML (PathExpression.compile (path).findFirst (doc)), toXML (e));
+            
+            if (e != null)
+            {
+                assertFalse (e.isCompactNode ());
+                assertNull (e.getDocument ());
+            }
+        }
+        
+        assertEquals ("<record id='2' type='b'><title>B</title><x:title>XB</x:title></record>",
+                results.get (PathExpression.compile ("/feed/record[@type]")).toXML ());
+    }
+    
+    @Test
+    public void testStreamStopsEarly () throws Exception
+    {
+        // The error after the record isn't reported because parsing stops when all paths are found
+        String xml = "<feed><record id='1'>A &amp; B<!-- c --><?pi x?></record><a></b></feed>";
+        PathSet set = new PathSet ("/feed/record", "//record[@id='1']");
+        Map<PathExpression, Element> results = set.evaluate (new XMLStringSource (xml));
+        
+        assertEquals ("<record id='1'>A &amp; B<!-- c --><?pi x?></record>", results.get (PathExpression.compile ("/feed/record")).toXML ());
+        
+        try
+        {
+            new PathSet ("/feed/record", "/feed/x").evaluate (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 58: End element 'b' at line 1, column 61 doesn't match with 'a'", e.getMessage ());
+        }
+    }
+}
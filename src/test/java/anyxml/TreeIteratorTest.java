@@ -74,6 +74,28 @@ public class TreeIteratorTest
         assertFalse (iter.hasNext ());
     }
     
+    @Test
+    public void testDeepDocument () throws Exception
+    {
+        Element root = new Element ("e");
+        Element e = root;
+        for (int i=0; i<1000; i++)
+        {
+            Element child = new Element ("e");
+            e.addNode (child);
+            e = child;
+        }
+        
+        TreeIterator iter = new TreeIterator (root);
+        int count = 0;
+        while (iter.hasNext ())
+        {
+            iter.next ();
+            count ++;
+        }
+        assertEquals (1000, count);
+    }
+    
     @Test
     public void testComplexDocument () throws Exception
     {
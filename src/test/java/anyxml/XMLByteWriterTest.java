@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+
+import anyxml.XMLTokenizer.Type;
+
+public class XMLByteWriterTest
+{
+    private final static String TEXT = "a\u00e4\u20ac\ud83d\ude00<&>\u0000\u007f\u0080\u07ff\u0800\uffff";
+    
+    @Test
+    public void testUTF8 () throws Exception
+    {
+        Document doc = createDocument (null);
+        String xml = doc.toXML ();
+        
+        for (int size=1; size<20; size++)
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream ();
+            XMLByteWriter writer = new XMLByteWriter (out, null, size);
+            assertEquals ("UTF-8", writer.getEncoding ());
+            doc.toXML (writer);
+            writer.flush ();
+            assertEquals (xml, new String (out.toByteArray (), "UTF-8"));
+        }
+    }
+    
+    @Test
+    public void testDocumentEncoding () throws Exception
+    {
+        Document doc = createDocument ("ISO-8859-1");
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter.write (doc, out);
+        
+        String expected = doc.toXML ()
+            .replace ("\u20ac", "&#x20AC;")
+            .replace ("\ud83d\ude00", "&#x1F600;")
+            .replace ("\u07ff", "&#x7FF;")
+            .replace ("\u0800", "&#x800;")
+            .replace ("\uffff", "&#xFFFF;");
+        assertArrayEquals (expected.getBytes ("ISO-8859-1"), out.toByteArray ());
+    }
+    
+    @Test
+    public void testParsedDocument () throws Exception
+    {
+        // Verbatim elements with characters which need a reference can't be copied
+        Document doc = new XMLParser ().parse (new XMLStringSource ("<a x='\u20ac'><b>\u00e4\u20ac</b></a>"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (out, "ISO-8859-1");
+        doc.toXML (writer);
+        writer.flush ();
+        assertEquals ("<a x='&#x20AC;'><b>\u00e4&#x20AC;</b></a>", new String (out.toByteArray (), "ISO-8859-1"));
+        
+        doc = new XMLParser ().parse (new XMLStringSource ("<a><!--\u20ac--></a>"));
+        writer = new XMLByteWriter (new ByteArrayOutputStream (), "ISO-8859-1");
+        try
+        {
+            doc.toXML (writer);
+            writer.flush ();
+            fail ("No exception was thrown");
+        }
+        catch (IOException e)
+        {
+            assertEquals ("Character U+20AC can't be encoded in ISO-8859-1; "
+                    + "it's only allowed as a character reference in text and attribute values", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testASCII () throws Exception
+    {
+        Element e = new Element ("a");
+        e.addAttribute ("x", "\u00e4");
+        e.addNode (new Text ("\u00e4\ud83d\ude00"));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (out, "US-ASCII");
+        e.toXML (writer);
+        writer.flush ();
+        assertEquals ("<a x=\"&#xE4;\">&#xE4;&#x1F600;</a>", new String (out.toByteArray (), "US-ASCII"));
+        
+        // A character reference would be wrong in comments, CDATA, processing instructions and names
+        assertUnmappable ("US-ASCII", new Comment ("x"), "<!--\u00e4-->");
+        assertUnmappable ("US-ASCII", new Text (Type.CDATA, "x"), "<![CDATA[\u00e4]]>");
+        assertUnmappable ("US-ASCII", new ProcessingInstruction ("x", "y"), "<?x \u00e4?>");
+        assertUnmappable ("US-ASCII", new Element ("x"), "<\u00e4");
+    }
+    
+    @Test
+    public void testOtherUnmappable () throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (out, "windows-1252");
+        writer.write (new Text ("x"), "\u20ac\u0100\ud83d\ude00");
+        writer.close ();
+        assertEquals ("\u20ac&#x100;&#x1F600;", new String (out.toByteArray (), "windows-1252"));
+        
+        assertUnmappable ("windows-1252", new Comment ("x"), "<!--\u0100-->");
+    }
+    
+    private void assertUnmappable (String encoding, Node node, String s) throws Exception
+    {
+        XMLByteWriter writer = new XMLByteWriter (new ByteArrayOutputStream (), encoding);
+        try
+        {
+            writer.write (node, s);
+            writer.close ();
+            fail ("No exception was thrown");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testOtherEncoding () throws Exception
+    {
+        Document doc = createDocument ("UTF-16");
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter.write (doc, out);
+        assertArrayEquals (doc.toXML ().getBytes ("UTF-16"), out.toByteArray ());
+    }
+    
+    @Test
+    public void testStatefulEncoding () throws Exception
+    {
+        // close() must switch ISO-2022-JP back to ASCII
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (out, "ISO-2022-JP");
+        writer.write (new Text ("x"), "a\u65e5\u672c");
+        writer.close ();
+        assertArrayEquals ("a\u65e5\u672c".getBytes ("ISO-2022-JP"), out.toByteArray ());
+    }
+    
+    @Test
+    public void testXMLEncodingName () throws Exception
+    {
+        XMLByteWriter writer = new XMLByteWriter (new ByteArrayOutputStream (), "Latin-1");
+        assertEquals ("ISO-8859-1", writer.getEncoding ());
+    }
+    
+    @Test
+    public void testChannelAndBuffer () throws Exception
+    {
+        Document doc = createDocument ("UTF-8");
+        byte[] expected = doc.toXML ().getBytes ("UTF-8");
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (Channels.newChannel (out), doc.getEncoding ());
+        doc.toXML (writer);
+        writer.flush ();
+        assertArrayEquals (expected, out.toByteArray ());
+        
+        ByteBuffer buffer = ByteBuffer.allocate (expected.length + 10);
+        writer = new XMLByteWriter (buffer, doc.getEncoding ());
+        doc.toXML (writer);
+        writer.flush ();
+        assertEquals (expected.length, buffer.position ());
+        byte[] actual = new byte[expected.length];
+        buffer.flip ();
+        buffer.get (actual);
+        assertArrayEquals (expected, actual);
+    }
+    
+    @Test
+    public void testLoneSurrogate () throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream ();
+        XMLByteWriter writer = new XMLByteWriter (out, null);
+        writer.write (new Text ("x"), "a\udc00b\ud800c\ud800");
+        writer.close ();
+        assertEquals ("a?b?c?", new String (out.toByteArray (), "UTF-8"));
+        
+        out = new ByteArrayOutputStream ();
+        writer = new XMLByteWriter (out, "ISO-8859-1");
+        writer.write (new Text ("x"), "a\udc00b\ud800c\ud83d\ude00\ud800");
+        writer.close ();
+        assertEquals ("a?b?c&#x1F600;?", new String (out.toByteArray (), "ISO-8859-1"));
+        
+        // A pair which is split between two blocks is still recognized
+        out = new ByteArrayOutputStream ();
+        writer = new XMLByteWriter (out, "ISO-8859-1");
+        writer.write (new Comment ("x"), "<!--\ud83d");
+        try
+        {
+            writer.write (new Comment ("x"), "\ude00-->");
+            writer.close ();
+            fail ("No exception was thrown");
+        }
+        catch (IOException e)
+        {
+            // Expected
+        }
+    }
+    
+    private Document createDocument (String encoding)
+    {
+        Document doc = new Document ();
+        if (encoding != null)
+            doc.setEncoding (encoding);
+        Element root = new Element ("root");
+        doc.addNode (root);
+        for (int i=0; i<20; i++)
+        {
+            Element e = new Element ("e");
+            e.addAttribute ("value", TEXT);
+            e.addNode (new Text (TEXT));
+            root.addNode (e);
+        }
+        return doc;
+    }
+}
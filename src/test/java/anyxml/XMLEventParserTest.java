@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+
+import org.junit.Test;
+
+public class XMLEventParserTest
+{
+    /** Records all events in a string */
+    public static class RecordingHandler implements XMLHandler
+    {
+        public final StringBuilder buffer = new StringBuilder ();
+        
+        public void startElement (String name, Namespace namespace, EventAttributes attributes)
+        {
+            buffer.append ("start(").append (name);
+            if (namespace != Namespace.NO_NAMESPACE)
+                buffer.append (",").append (namespace.getURI ());
+            for (int i=0; i<attributes.getLength (); i++)
+                buffer.append (",").append (attributes.getName (i)).append ("=").append (attributes.getValue (i));
+            buffer.append (")\n");
+        }
+        
+        public void endElement (String name, Namespace namespace)
+        {
+            buffer.append ("end(").append (name).append (")\n");
+        }
+        
+        public void text (Token token)
+        {
+            buffer.append ("text(").append (token.getText ()).append (")\n");
+        }
+        
+        public void entity (Token token)
+        {
+            buffer.append ("entity(").append (token.getText ()).append (")\n");
+        }
+        
+        public void comment (Token token)
+        {
+            buffer.append ("comment(").append (token.getText ()).append (")\n");
+        }
+        
+        public void processingInstruction (Token token)
+        {
+            buffer.append ("pi(").append (token.getText ()).append (")\n");
+        }
+    }
+    
+    private String events (String xml)
+    {
+        RecordingHandler handler = new RecordingHandler ();
+        new XMLParser ().parse (new XMLStringSource (xml), handler);
+        return handler.buffer.toString ();
+    }
+    
+    @Test
+    public void testEvents () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\"?>\n" +
+            "<!-- c -->\n" +
+            "<root a='1' b=\"x &amp; &quot;y&quot;\">\n" +
+            "<child/><child  x = 'y' ></child >" +
+            "<![CDATA[<cdata>]]><?pi data?><!--c2-->a&lt;b</root>\n" +
+            "<!-- end -->";
+        
+        assertEquals ("pi(<?xml version=\"1.0\"?>)\n" + 
+            "comment(<!-- c -->)\n" + 
+            "start(root,a=1,b=x & \"y\")\n" + 
+            "text(\n" + 
+            ")\n" + 
+            "start(child)\n" + 
+            "end(child)\n" + 
+            "start(child,x=y)\n" + 
+            "end(child)\n" + 
+            "text(<![CDATA[<cdata>]]>)\n" + 
+            "pi(<?pi data?>)\n" + 
+            "comment(<!--c2-->)\n" + 
+            "text(a&lt;b)\n" + 
+            "end(root)\n" + 
+            "comment(<!-- end -->)\n", events (xml));
+    }
+    
+    @Test
+    public void testEntities () throws Exception
+    {
+        RecordingHandler handler = new RecordingHandler ();
+        XMLParser parser = new XMLParser ();
+        parser.setTreatEntitiesAsText (false);
+        parser.parse (new XMLStringSource ("<a>x&amp;y</a>"), handler);
+        
+        assertEquals ("start(a)\n" + 
+            "text(x)\n" + 
+            "entity(&amp;)\n" + 
+            "text(y)\n" + 
+            "end(a)\n", handler.buffer.toString ());
+    }
+    
+    @Test
+    public void testNamespaces () throws Exception
+    {
+        assertEquals ("start(a,xmlns:x=urn:x)\n" + 
+            "start(b,urn:x)\n" + 
+            "end(b)\n" + 
+            "start(c,urn:x)\n" + 
+            "end(c)\n" + 
+            "end(a)\n", events ("<a xmlns:x='urn:x'><x:b/><x:c></x:c></a>"));
+    }
+    
+    @Test
+    public void testAttributes () throws Exception
+    {
+        final EventAttributes[] result = new EventAttributes[1];
+        final String[] values = new String[4];
+        new XMLParser ().parse (new XMLStringSource ("<a x='1&lt;2' y = \"2\" />"), new RecordingHandler () {
+            @Override
+            public void startElement (String name, Namespace namespace, EventAttributes attributes)
+            {
+                result[0] = attributes;
+                values[0] = attributes.getValue ("x");
+                values[1] = attributes.getRawValue (0);
+                values[2] = attributes.getValue ("y");
+                values[3] = attributes.getValue ("z");
+                assertTrue (attributes.hasName (1, "y"));
+                assertEquals (1, attributes.indexOf ("y"));
+                assertTrue (attributes.hasValue (0, "1<2"));
+                assertFalse (attributes.hasValue (0, "1&lt;2"));
+                assertTrue (attributes.hasValue (1, "2"));
+                assertFalse (attributes.hasValue (1, "22"));
+                assertEquals (" y = \"2\"", attributes.toAttribute (1).toXML ());
+            }
+        });
+        
+        assertEquals ("1<2", values[0]);
+        assertEquals ("1&lt;2", values[1]);
+        assertEquals ("2", values[2]);
+        assertNull (values[3]);
+        assertEquals (0, result[0].getLength ());
+    }
+    
+    @Test
+    public void testDeepDocument () throws Exception
+    {
+        StringBuilder buffer = new StringBuilder ();
+        for (int i=0; i<1000; i++)
+            buffer.append ("<e>");
+        for (int i=0; i<1000; i++)
+            buffer.append ("</e>");
+        
+        String events = events (buffer.toString ());
+        assertEquals (2000, events.split ("\n").length);
+    }
+    
+    @Test
+    public void testStreamSource () throws Exception
+    {
+        final XMLStreamSource source = new XMLStreamSource (new XMLSourceTest.FeedReader (100000), 256);
+        final int[] records = new int[1];
+        Document doc = new XMLParser ().parse (source, new RecordingHandler () {
+            @Override
+            public void startElement (String name, Namespace namespace, EventAttributes attributes)
+            {
+                if (!"record".equals (name))
+                    return;
+                
+                // Each record has more than 30 characters
+                assertEquals (String.valueOf (records[0]), attributes.getValue ("id"));
+                assertTrue (source.getFirstOffset () > records[0] * 30 - 1024);
+                records[0] ++;
+            }
+            
+            @Override
+            public void text (Token token)
+            {
+                // Don't record anything
+            }
+            
+            @Override
+            public void endElement (String name, Namespace namespace)
+            {
+                // Don't record anything
+            }
+        });
+        
+        assertEquals (100000, records[0]);
+        assertEquals ("<feed></feed>\n", doc.toXML ());
+        
+        String xml = "<feed><x><record a='1'><y></y></record><record/></x><z a='2'>t</z></feed>";
+        for (int chunkSize=1; chunkSize<xml.length (); chunkSize++)
+        {
+            RecordingHandler handler = new RecordingHandler ();
+            new XMLParser ().parse (new XMLStreamSource (new StringReader (xml), chunkSize), handler);
+            assertEquals (events (xml), handler.buffer.toString ());
+        }
+    }
+    
+    private void assertSameError (String xml)
+    {
+        String expected = null;
+        try
+        {
+            new XMLParser ().parse (new XMLStringSource (xml));
+            fail ("XMLParser didn't throw an exception for "+xml);
+        }
+        catch (XMLParseException e)
+        {
+            expected = e.getMessage ();
+        }
+        
+        try
+        {
+            events (xml);
+            fail ("XMLEventParser didn't throw an exception for "+xml);
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals (expected, e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testErrors () throws Exception
+    {
+        assertSameError ("<a>\n<b></c></a>");
+        assertSameError ("<a>\n<b>");
+        assertSameError ("<a>\n<b x='1'");
+        assertSameError ("<a>\n<b x='1' x='2'/></a>");
+        assertSameError ("<a>\n<b x='1'y='2'/></a>");
+        assertSameError ("<a>\n<x:b/></a>");
+        assertSameError ("<a>\n<:b/></a>");
+        assertSameError ("<a xmlns:x='urn:x'>\n<x:/></a>");
+        assertSameError ("<a/><b/>");
+        assertSameError ("text<a/>");
+        assertSameError ("<!-- no root -->");
+        assertSameError ("<a><!DOCTYPE a></a>");
+    }
+}
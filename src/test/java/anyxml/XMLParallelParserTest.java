@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class XMLParallelParserTest
+{
+    /** An executor which counts the tasks */
+    public static class CountingExecutor extends ThreadPoolExecutor
+    {
+        public final AtomicInteger count = new AtomicInteger ();
+        
+        public CountingExecutor (int threads)
+        {
+            super (threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable> ());
+        }
+        
+        @Override
+        protected void beforeExecute (Thread t, Runnable r)
+        {
+            count.incrementAndGet ();
+        }
+    }
+    
+    private CountingExecutor executor = new CountingExecutor (4);
+    
+    @After
+    public void shutdown ()
+    {
+        executor.shutdown ();
+    }
+    
+    private XMLParallelParser createParser ()
+    {
+        return new XMLParallelParser (executor, 4).setThreshold (0);
+    }
+    
+    public static String createDocument (int records)
+    {
+        StringBuilder buffer = new StringBuilder ();
+        buffer.append ("<?xml version=\"1.0\"?>\n<!-- head -->\n<feed xmlns:x=\"urn:x\" a='1'>\n  text &amp; more\n");
+        for (int i=0; i<records; i++)
+        {
+            buffer.append ("  <record id=\"").append (i).append ("\" q='\"/' >\n");
+            buffer.append ("    <!-- a <comment> with > in it -->\n");
+            buffer.append ("    <x:name>Name ").append (i).append ("</x:name>\n");
+            buffer.append ("    <data><![CDATA[<not-a-tag> ]] > ]]></data>\n");
+            buffer.append ("    <?pi <not a tag> ?>\n");
+            buffer.append ("    <empty/><empty a=\"x\" />\n");
+            buffer.append ("    <nested><a><b>&lt;").append (i).append ("&gt;</b></a></nested>\n");
+            buffer.append ("  </record>\n");
+            if (i % 10 == 0)
+                buffer.append ("  <!-- between -->\n  <short/>\n");
+        }
+        buffer.append ("</feed>\n<!-- tail -->\n");
+        return buffer.toString ();
+    }
+    
+    private void assertSameAsSequential (String xml, XMLParser parser)
+    {
+        Document expected = new XMLParser ().parse (new XMLStringSource (xml));
+        Document actual = parser.parse (new XMLStringSource (xml));
+        
+        assertEquals (expected.toXML (), actual.toXML ());
+        assertEquals (xml, actual.toXML ());
+        assertEquals (expected.getRootElement ().getNodes ().size (), actual.getRootElement ().getNodes ().size ());
+        
+        for (Element e: actual.getRootElement ().getChildren ())
+        {
+            assertSame (actual.getRootElement (), e.getParent ());
+            assertSame (actual, e.getDocument ());
+        }
+    }
+    
+    @Test
+    public void testVerbatim () throws Exception
+    {
+        String xml = createDocument (200);
+        Document doc = createParser ().parse (new XMLStringSource (xml));
+        assertTrue (doc.getRootElement ().isVerbatim ());
+        
+        xml = "<!DOCTYPE feed [\n<!ENTITY e 'value'>\n]>\n" + xml.substring (xml.indexOf ("<feed")).replace ("Name 150<", "Name &e;<");
+        doc = createParser ().setExpandEntities (true).parse (new XMLStringSource (xml));
+        assertFalse (doc.getRootElement ().isVerbatim ());
+        assertTrue (doc.toXML ().contains ("Name value<"));
+    }
+    
+    @Test
+    public void testSameAsSequential () throws Exception
+    {
+        String xml = createDocument (500);
+        assertSameAsSequential (xml, createParser ());
+        
+        // Stage 1 and stage 2 must have used several tasks
+        assertTrue ("Tasks: "+executor.count.get (), executor.count.get () > 4);
+    }
+    
+    @Test
+    public void testChunksStartInsideMarkup () throws Exception
+    {
+        // The chunks are at least 64K, so these span several chunks
+        StringBuilder filler = new StringBuilder ();
+        for (int i=0; i<20000; i++)
+            filler.append ("<a> ");
+        
+        String xml = createDocument (100);
+        int pos = xml.indexOf ("  <record", xml.length () / 2);
+        xml = xml.substring (0, pos)
+            + "  <!-- " + filler + " -->\n"
+            + "  <attr value=\"" + filler.toString ().replace ('<', '\'').replace ('>', '\'') + "\" q='" + filler.toString ().replace ('<', '"').replace ('>', '"') + "'/>\n"
+            + "  <?pi " + filler + " ?>\n"
+            + "  <deep><deeper>" + filler.toString ().replace ("<a> ", "<b/> ") + "</deeper></deep>\n"
+            + xml.substring (pos);
+        
+        assertSameAsSequential (xml, createParser ());
+    }
+    
+    @Test
+    public void testNamespaces () throws Exception
+    {
+        Document doc = createParser ().parse (new XMLStringSource (createDocument (100)));
+        
+        Element name = doc.getRootElement ().getChild ("record").getChild ("name");
+        assertEquals ("urn:x", name.getNamespace ().getURI ());
+        assertSame (doc.getNamespace ("x"), name.getNamespace ());
+    }
+    
+    @Test
+    public void testNamespaceDeclarationInContent () throws Exception
+    {
+        String xml = "<root>\n  <a xmlns:y=\"urn:y\"/>\n  <y:b/>\n</root>";
+        assertSameAsSequential (xml, createParser ());
+    }
+    
+    @Test
+    public void testEmptyRoot () throws Exception
+    {
+        assertSameAsSequential ("<root/>", createParser ());
+        assertSameAsSequential ("<root></root>", createParser ());
+        assertSameAsSequential ("<root>text</root>", createParser ());
+    }
+    
+    @Test
+    public void testExpandEntities () throws Exception
+    {
+        XMLParallelParser parser = createParser ();
+        parser.setEntityResolver (new HTMLEntityResolver ());
+        parser.setTreatEntitiesAsText (false);
+        
+        String xml = createDocument (200).replace ("Name ", "Name&nbsp;");
+        Document doc = parser.parse (new XMLStringSource (xml));
+        
+        XMLParser sequential = new XMLParser ();
+        sequential.setEntityResolver (new HTMLEntityResolver ());
+        sequential.setTreatEntitiesAsText (false);
+        Document expected = sequential.parse (new XMLStringSource (xml));
+        
+        assertEquals (expected.toXML (), doc.toXML ());
+    }
+    
+    @Test
+    public void testErrorSameAsSequential () throws Exception
+    {
+        String xml = createDocument (300);
+        int pos = xml.indexOf ("</a>", xml.length () / 2);
+        xml = xml.substring (0, pos) + "</c>" + xml.substring (pos + 4);
+        
+        String expected = null;
+        try
+        {
+            new XMLParser ().parse (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            expected = e.getMessage ();
+        }
+        
+        try
+        {
+            createParser ().parse (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals (expected, e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testMissingEndTag () throws Exception
+    {
+        String xml = createDocument (50);
+        xml = xml.substring (0, xml.indexOf ("</feed>"));
+        
+        try
+        {
+            createParser ().parse (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 3, column 1: Unexpected end-of-file while parsing children of element feed", e.getMessage ());
+        }
+    }
+}
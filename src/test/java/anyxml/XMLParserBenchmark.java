@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * Throughput of <code>XMLParser</code> in strict and in trusted mode.
+ * 
+ * <p>Run with <code>java -cp target/classes:target/test-classes anyxml.XMLParserBenchmark</code>
+ */
+public class XMLParserBenchmark
+{
+    public static void main (String[] args) throws Exception
+    {
+        String ascii = CharValidatorBenchmark.createDocument ("element", "Some ASCII text with a few words &amp; entities. ");
+        String cjk = CharValidatorBenchmark.createDocument ("要素", "中文文本、日本語のテキスト。한국어 ");
+        
+        for (int round=0; round<3; round++)
+        {
+            measure ("parse ASCII (strict)", ascii, new XMLParser ());
+            measure ("parse ASCII (trusted)", ascii, new XMLParser ().setTrusted (true));
+            measure ("parse CJK (strict)", cjk, new XMLParser ());
+            measure ("parse CJK (trusted)", cjk, new XMLParser ().setTrusted (true));
+            System.out.println ();
+        }
+    }
+    
+    public static void measure (String name, String xml, final XMLParser parser) throws Exception
+    {
+        final XMLStringSource source = new XMLStringSource (xml);
+        new Benchmark (name) {
+            @Override
+            public Object run () throws Exception
+            {
+                return parser.parse (source);
+            }
+        }.measure (20, 50, xml.length ());
+    }
+}
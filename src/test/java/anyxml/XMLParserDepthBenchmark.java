@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * Throughput of <code>XMLParser</code> for deeply nested and for flat documents
+ * of the same size.
+ * 
+ * <p>Run with <code>java -cp target/classes:target/test-classes anyxml.XMLParserDepthBenchmark</code>
+ */
+public class XMLParserDepthBenchmark
+{
+    public static void main (String[] args) throws Exception
+    {
+        String shallow = createDocument (2000, 1);
+        String deep = createDocument (4, 500);
+        String veryDeep = createDocument (1, 20000);
+        
+        for (int round=0; round<3; round++)
+        {
+            XMLParserBenchmark.measure ("parse shallow (depth 2)", shallow, new XMLParser ());
+            XMLParserBenchmark.measure ("parse deep (depth 501)", deep, new XMLParser ());
+            try
+            {
+                XMLParserBenchmark.measure ("parse very deep (depth 20001)", veryDeep, new XMLParser ());
+            }
+            catch (StackOverflowError e)
+            {
+                System.out.println ("parse very deep (depth 20001): "+e);
+            }
+            System.out.println ();
+        }
+    }
+    
+    /**
+     * Create a document with <code>count</code> groups of nested elements below the root;
+     * the document always contains about 20000 elements.
+     * 
+     * @param depth How many elements to nest in each tree
+     */
+    public static String createDocument (int count, int depth)
+    {
+        int elements = Math.max (1, 20000 / count / depth);
+        StringBuilder buffer = new StringBuilder ();
+        buffer.append ("<root>\n");
+        for (int i=0; i<count; i++)
+        {
+            for (int j=0; j<elements; j++)
+            {
+                for (int k=0; k<depth; k++)
+                    buffer.append ("<e a='").append (k).append ("'>");
+                buffer.append ("text");
+                for (int k=0; k<depth; k++)
+                    buffer.append ("</e>");
+                buffer.append ('\n');
+            }
+        }
+        buffer.append ("</root>\n");
+        return buffer.toString ();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+/**
+ * Throughput of <code>XMLParser</code> for many small (about 1KB) messages.
+ * 
+ * <p>Compares a new parser and entity resolver per message with one
+ * parser that is reused for all messages.
+ * 
+ * <p>Run with <code>java -cp target/classes:target/test-classes anyxml.XMLParserMessageBenchmark</code>
+ */
+public class XMLParserMessageBenchmark
+{
+    public static void main (String[] args) throws Exception
+    {
+        final String message = createMessage ();
+        final XMLParser shared = new XMLParser ();
+        shared.setEntityResolver (new HTMLEntityResolver ());
+        
+        for (int round=0; round<3; round++)
+        {
+            new Benchmark ("new parser per message") {
+                @Override
+                public Object run () throws Exception
+                {
+                    Object result = null;
+                    for (int i=0; i<1000; i++)
+                    {
+                        XMLParser parser = new XMLParser ();
+                        parser.setEntityResolver (new HTMLEntityResolver ());
+                        result = parser.parse (new XMLStringSource (message));
+                    }
+                    return result;
+                }
+            }.measure (20, 50, 1000L * message.length ());
+            
+            new Benchmark ("shared parser") {
+                @Override
+                public Object run () throws Exception
+                {
+                    Object result = null;
+                    for (int i=0; i<1000; i++)
+                        result = shared.parse (new XMLStringSource (message));
+                    return result;
+                }
+            }.measure (20, 50, 1000L * message.length ());
+            System.out.println ();
+        }
+    }
+    
+    /** Create a message of about 1KB which uses a few HTML entities */
+    public static String createMessage ()
+    {
+        StringBuilder buffer = new StringBuilder ();
+        buffer.append ("<?xml version=\"1.0\"?>\n<message id='42'>\n");
+        int i = 0;
+        while (buffer.length () < 1000)
+        {
+            buffer.append ("  <item no='").append (i++).append ("' type=\"text\">Caf&eacute; &amp; cr&egrave;me&nbsp;br&ucirc;l&eacute;e</item>\n");
+        }
+        buffer.append ("</message>\n");
+        return buffer.toString ();
+    }
+}
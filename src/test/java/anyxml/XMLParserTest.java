@@ -34,6 +34,10 @@ package anyxml;
 import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -52,6 +56,7 @@ import anyxml.XMLIOSource;
 import anyxml.XMLInputStreamReader;
 import anyxml.XMLParseException;
 import anyxml.XMLParser;
+import anyxml.XMLStreamSource;
 import anyxml.XMLStringSource;
 import anyxml.XMLTokenizer.Type;
 
@@ -324,6 +329,493 @@ public class XMLParserTest
         assertEquals (" a='x'", a.toXML ());
     }
     
+    @Test
+    public void testTrustedRoundtrip () throws Exception
+    {
+        Document doc = new XMLParser ().setTrusted (true).parse (new XMLStringSource (XMLTokenizerTest.XML));
+        assertEquals (XMLTokenizerTest.XML, doc.toXML ());
+        Document strict = new XMLParser ().parse (new XMLStringSource (XMLTokenizerTest.XML));
+        assertEquals (strict.getChild ("/root/e").getText (), doc.getChild ("/root/e").getText ());
+    }
+    
+    @Test
+    public void testTrustedSkipsCharValidation () throws Exception
+    {
+        String xml = "<a x='\u0001'>\u0001<![CDATA[\u0001]]><!--\u0001--></a>";
+        Document doc = new XMLParser ().setTrusted (true).parse (new XMLStringSource (xml));
+        assertEquals (xml, doc.toXML ());
+        
+        try
+        {
+            new XMLParser ().parse (new XMLStringSource (xml));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException ex)
+        {
+            assertTrue (ex.getMessage (), ex.getMessage ().contains ("Illegal character found in attribute value"));
+        }
+    }
+    
+    @Test
+    public void testTrustedStructuralErrors () throws Exception
+    {
+        String[] inputs = {
+            "<a x='1>b</a>",
+            "<a><!-- x -- y --></a>",
+            "<a>b</c>",
+            "<a>b",
+            "<a x='<'/>",
+        };
+        
+        for (String xml: inputs)
+        {
+            try
+            {
+                new XMLParser ().setTrusted (true).parse (new XMLStringSource (xml));
+                fail ("No exception was thrown for "+xml);
+            }
+            catch (XMLParseException ex)
+            {
+                // Expected
+            }
+        }
+    }
+    
+    public static final String NS_XML = 
+        "<?xml version=\"1.0\"?>\n" +
+        "<!-- comment -->\n" +
+        "<x:root xmlns:x=\"urn:x\" a = 'v &amp; w' b=\"'\" >\n" +
+        "  <x:e x:c='1'>text &lt; more<![CDATA[<cdata>]]></x:e >\n" +
+        "  <e/><f  />&amp;<?pi data?>\n" +
+        "</x:root>\n";
+    
+    @Test
+    public void testCompactNodesRoundtrip () throws Exception
+    {
+        String[] inputs = { XMLTokenizerTest.XML, POM_XML, NS_XML };
+        for (String xml: inputs)
+        {
+            Document doc = new XMLParser ().setCompactNodes (true).parse (new XMLStringSource (xml));
+            assertEquals (xml, doc.toXML ());
+            assertEquals (xml, doc.copy ().toXML ());
+            
+            Document tree = new XMLParser ().parse (new XMLStringSource (xml));
+            assertEquals (tree.getRootElement ().getText (), doc.getRootElement ().getText ());
+        }
+        
+        Document doc = new XMLParser ().setCompactNodes (true).setExpandEntities (true)
+            .setEntityResolver (new HTMLEntityResolver ())
+            .parse (new XMLStringSource ("<a>caf&eacute;&nbsp;<b c='&amp;'/></a>"));
+        assertEquals ("<a>caf\u00e9\u00a0<b c='&amp;'/></a>", doc.toXML ());
+    }
+    
+    @Test
+    public void testCompactNodes () throws Exception
+    {
+        Document doc = new XMLParser ().setCompactNodes (true).parse (new XMLStringSource (NS_XML));
+        Element root = doc.getRootElement ();
+        assertTrue (root.isCompactNode ());
+        assertEquals ("root", root.getName ());
+        assertEquals ("x:root", root.getBeginName ());
+        assertEquals ("x:root", root.getEndName ());
+        assertEquals ("urn:x", root.getNamespace ().getURI ());
+        assertEquals (39, root.getStartOffset ());
+        assertEquals (NS_XML.length () - 1, root.getEndOffset ());
+        assertEquals (Type.BEGIN_ELEMENT, root.getStartToken ().getType ());
+        assertEquals (NS_XML.substring (39, NS_XML.length () - 1), root.getStartToken ().getText ());
+        
+        Attribute a = root.getAttribute ("a");
+        assertTrue (a.isCompactNode ());
+        assertEquals ("v & w", a.getValue ());
+        assertEquals (" = ", a.getEqualsSpace ());
+        assertEquals ("'", root.getAttributeValue ("b"));
+        
+        Element e = root.getChild ("x:e");
+        assertEquals ("e", e.getName ());
+        assertEquals ("x:e ", e.getEndName ());
+        assertEquals ("text &lt; more<cdata>", e.getText ());
+        assertEquals ("  ", root.getChild ("f").getPostSpace ());
+        
+        // Changes must work like for normal nodes
+        Document tree = new XMLParser ().parse (new XMLStringSource (NS_XML));
+        Element[] elements = { e, tree.getRootElement ().getChild ("x:e") };
+        Attribute[] attributes = { a, tree.getRootElement ().getAttribute ("a") };
+        for (int i=0; i<2; i++)
+        {
+            elements[i].setName ("g");
+            attributes[i].setValue ("\"");
+        }
+        assertEquals (tree.toXML (), doc.toXML ());
+        
+        // Stream sources discard the parsed data, so they can't back compact nodes
+        doc = new XMLParser ().setCompactNodes (true).parse (new XMLStreamSource (new StringReader ("<a>x</a>")));
+        assertFalse (doc.getRootElement ().isCompactNode ());
+    }
+    
+    @Test
+    public void testCompactNodesErrors () throws Exception
+    {
+        String[] inputs = { "<a><b></c></a>", "<x:a/>", "<a xmlns:x='urn:x'><x:/></a>", "<a><b>", "<a x='1' x='2'/>" };
+        for (String xml: inputs)
+        {
+            String expected = null;
+            try
+            {
+                new XMLParser ().parse (new XMLStringSource (xml));
+                fail ("No exception was thrown");
+            }
+            catch (XMLParseException e)
+            {
+                expected = e.getMessage ();
+            }
+            
+            try
+            {
+                new XMLParser ().setCompactNodes (true).parse (new XMLStringSource (xml));
+                fail ("No exception was thrown");
+            }
+            catch (XMLParseException e)
+            {
+                assertEquals (expected, e.getMessage ());
+            }
+        }
+    }
+    
+    @Test
+    public void testParseDoesntChangeParser () throws Exception
+    {
+        HTMLEntityResolver resolver = new HTMLEntityResolver ();
+        XMLParser parser = new XMLParser ();
+        parser.setEntityResolver (resolver);
+        
+        String xml = "<!DOCTYPE a [\n<!ENTITY e 'value'>\n]>\n<a>&e;&nbsp;</a>";
+        Document doc = parser.parse (new XMLStringSource (xml));
+        assertEquals ("value\u00a0", doc.getRootElement ().getText ());
+        assertSame (resolver, parser.getEntityResolver ());
+        
+        try
+        {
+            parser.parse (new XMLStringSource ("<!DOCTYPE a [\n<!ENTITY e 'value'>\n]>\n<a>&e;</b>"));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            // Expected
+        }
+        assertSame (resolver, parser.getEntityResolver ());
+        
+        try
+        {
+            parser.parse (new XMLStringSource ("<a>&e;</a>"));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 4: Entity &e; is not defined", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testSharedParser () throws Exception
+    {
+        final XMLParser parser = new XMLParser ();
+        parser.setEntityResolver (new HTMLEntityResolver ());
+        
+        final List<Throwable> errors = Collections.synchronizedList (new ArrayList<Throwable> ());
+        Thread[] threads = new Thread[8];
+        for (int i=0; i<threads.length; i++)
+        {
+            final int id = i;
+            threads[i] = new Thread () {
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        for (int j=0; j<200; j++)
+                        {
+                            String value = id+"/"+j;
+                            String xml = "<!DOCTYPE a [\n<!ENTITY e '"+value+"'>\n]>\n<a><b>&e;</b>&amp;</a>";
+                            Document doc = parser.parse (new XMLStringSource (xml));
+                            assertEquals (value, doc.getRootElement ().getChild ("b").getText ());
+                        }
+                    }
+                    catch (Throwable t)
+                    {
+                        errors.add (t);
+                    }
+                }
+            };
+            threads[i].start ();
+        }
+        
+        for (Thread t: threads)
+            t.join ();
+        
+        assertEquals ("[]", errors.toString ());
+    }
+    
+    @Test
+    public void testOverriddenCreateTokenizer () throws Exception
+    {
+        // Tokenizers aren't reused, so the subclass sees every source
+        final List<XMLSource> sources = new ArrayList<XMLSource> ();
+        XMLParser parser = new XMLParser () {
+            @Override
+            protected XMLTokenizer createTokenizer (XMLSource source)
+            {
+                sources.add (source);
+                return super.createTokenizer (source);
+            }
+        };
+        
+        XMLSource a = new XMLStringSource ("<a/>");
+        XMLSource b = new XMLStringSource ("<b/>");
+        assertEquals ("<a/>", parser.parse (a).toXML ());
+        assertEquals ("<b/>", parser.parse (b).toXML ());
+        assertEquals (2, sources.size ());
+        assertSame (a, sources.get (0));
+        assertSame (b, sources.get (1));
+    }
+    
+    @Test
+    public void testReuseParser () throws Exception
+    {
+        XMLParser parser = new XMLParser ();
+        for (int i=0; i<3; i++)
+        {
+            Document doc = parser.parse (new XMLStringSource ("<a x='"+i+"'>text &amp; more</a>"));
+            assertEquals ("<a x='"+i+"'>text &amp; more</a>", doc.toXML ());
+        }
+        
+        // Configuration changes must be applied to the reused tokenizer
+        parser.setTreatEntitiesAsText (false);
+        Document doc = parser.parse (new XMLStringSource ("<a>text &amp; more</a>"));
+        assertEquals (Type.ENTITY, doc.getRootElement ().getNode (1).getType ());
+        
+        try
+        {
+            parser.parse (new XMLStringSource ("<a>\u0001</a>"));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            // Expected
+        }
+        
+        parser.setTrusted (true);
+        doc = parser.parse (new XMLStringSource ("<a>\u0001</a>"));
+        assertEquals ("\u0001", doc.getRootElement ().getText ());
+        
+        // Parsing while another document is parsed by the same thread
+        parser = new XMLParser ();
+        Iterator<Element> iter = parser.iterate (new XMLStringSource ("<a><b>1</b><b>2</b></a>"), "/a/b");
+        assertEquals ("1", iter.next ().getText ());
+        assertEquals ("<c/>", parser.parse (new XMLStringSource ("<c/>")).toXML ());
+        assertEquals ("2", iter.next ().getText ());
+        assertFalse (iter.hasNext ());
+    }
+    
+    @Test
+    public void testDeepNesting () throws Exception
+    {
+        int depth = 100000;
+        StringBuilder buffer = new StringBuilder ();
+        for (int i=0; i<depth; i++)
+            buffer.append ("<e>");
+        buffer.append ("text");
+        for (int i=0; i<depth; i++)
+            buffer.append ("</e>");
+        
+        Document doc = new XMLParser ().parse (new XMLStringSource (buffer.toString ()));
+        
+        Element e = doc.getRootElement ();
+        int count = 1;
+        while (e.hasChildren ())
+        {
+            e = e.getChild (0);
+            count ++;
+        }
+        assertEquals (depth, count);
+        assertEquals ("text", e.getText ());
+        
+        try
+        {
+            new XMLParser ().parse (new XMLStringSource (buffer.substring (0, buffer.length () - 4)));
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException ex)
+        {
+            assertEquals ("Line 1, column 1: Unexpected end-of-file while parsing children of element e", ex.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testElementHooks () throws Exception
+    {
+        final StringBuilder buffer = new StringBuilder ();
+        XMLParser parser = new XMLParser () {
+            @Override
+            protected void startElement (ParseContext context, Element element)
+            {
+                buffer.append ("<").append (element.getName ()).append (element.getAttributeValue ("x"));
+            }
+            
+            @Override
+            protected void endElement (ParseContext context, Element element)
+            {
+                buffer.append (">").append (element.getName ()).append (element.getChildren ().size ());
+            }
+        };
+        
+        parser.parse (new XMLStringSource ("<a x='1'><b x='2'><c/></b><d></d></a>"));
+        assertEquals ("<a1<b2<cnull>c0>b1<dnull>d0>a2", buffer.toString ());
+    }
+    
+    @Test
+    public void testIterate () throws Exception
+    {
+        String xml = "<?xml version=\"1.0\"?>\n" +
+            "<feed xmlns:x=\"urn:x\">\n" +
+            "  <title>Not a record</title>\n" +
+            "  <records>\n" +
+            "    <!-- first -->\n" +
+            "    <record id='1'><x:name>a</x:name></record>\n" +
+            "    <other><record id='nested'/></other>\n" +
+            "    <record id=\"2\" >\n  <empty/>\n  </record >\n" +
+            "  </records>\n" +
+            "  <records/>\n" +
+            "  <records><record id='3'/></records>\n" +
+            "</feed>\n";
+        
+        Iterator<Element> iter = new XMLParser ().iterate (new XMLStringSource (xml), "/feed/records/record");
+        
+        assertTrue (iter.hasNext ());
+        Element e = iter.next ();
+        assertEquals ("<record id='1'><x:name>a</x:name></record>", e.toXML ());
+        assertEquals ("urn:x", e.getChild (0).getNamespace ().getURI ());
+        assertEquals ("records", e.getParentElement ().getName ());
+        
+        e = iter.next ();
+        assertEquals ("<record id=\"2\" >\n  <empty/>\n  </record >", e.toXML ());
+        
+        e = iter.next ();
+        assertEquals ("<record id='3'/>", e.toXML ());
+        
+        assertFalse (iter.hasNext ());
+        assertFalse (iter.hasNext ());
+    }
+    
+    @Test
+    public void testIterateRoot () throws Exception
+    {
+        Iterator<Element> iter = new XMLParser ().iterate (new XMLStringSource ("<a><b/></a>"), "/a");
+        assertEquals ("<a><b/></a>", iter.next ().toXML ());
+        assertFalse (iter.hasNext ());
+        
+        ElementIterator skipped = new XMLParser ().iterate (new XMLStringSource ("<!-- c --><a><b/></a>"), "/b");
+        assertFalse (skipped.hasNext ());
+        assertEquals ("<!-- c -->", skipped.getDocument ().toXML ());
+        assertNull (skipped.getDocument ().getRootElement ());
+    }
+    
+    @Test
+    public void testIterateSkipsOtherElements () throws Exception
+    {
+        String xml = "<feed><header a='/'><x><y/><!-- </x> --></x><x/></header><record id='1'/><other><record/></other><record id='2'>\n</record></feed>";
+        ElementIterator iter = new XMLParser ().iterate (new XMLStringSource (xml), "/feed/record");
+        
+        assertEquals ("<record id='1'/>", iter.next ().toXML ());
+        assertEquals ("<record id='2'>\n</record>", iter.next ().toXML ());
+        assertFalse (iter.hasNext ());
+        
+        // A big root element which doesn't match isn't kept
+        XMLStreamSource source = new XMLStreamSource (new XMLSourceTest.FeedReader (100000), 256);
+        iter = new XMLParser ().iterate (source, "/other/record");
+        assertFalse (iter.hasNext ());
+        assertTrue (source.getFirstOffset () > 1000000);
+        
+        try
+        {
+            new XMLParser ().iterate (new XMLStringSource ("<a/><b/>"), "/b").hasNext ();
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 5: Only one root element allowed per document", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testIterateStream () throws Exception
+    {
+        XMLStreamSource source = new XMLStreamSource (new XMLSourceTest.FeedReader (100000), 256);
+        Iterator<Element> iter = new XMLParser ().iterate (source, "/feed/record");
+        
+        int records = 0;
+        while (iter.hasNext ())
+        {
+            Element e = iter.next ();
+            assertEquals ("<record id='"+records+"'>text "+records+"</record>", e.toXML ());
+            assertTrue (source.getFirstOffset () > e.getStartToken ().getStartOffset () - 1024);
+            records ++;
+        }
+        
+        assertEquals (100000, records);
+    }
+    
+    @Test
+    public void testIterateErrors () throws Exception
+    {
+        try
+        {
+            new XMLParser ().iterate (new XMLStringSource ("<a/>"), "a/b");
+            fail ("No exception was thrown");
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertEquals ("Expected an absolute path like '/feed/record' but was: a/b", e.getMessage ());
+        }
+        
+        Iterator<Element> iter = new XMLParser ().iterate (new XMLStringSource ("<a>\n<b/>\n<b/>\n</c>"), "/a/b");
+        iter.next ();
+        iter.next ();
+        try
+        {
+            iter.hasNext ();
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 1, column 1: End element 'c' at line 4, column 1 doesn't match with 'a'", e.getMessage ());
+        }
+        
+        iter = new XMLParser ().iterate (new XMLStringSource ("<a>\n<b/>"), "/a/b");
+        iter.next ();
+        try
+        {
+            iter.hasNext ();
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("Line 2, column 5: Unexpected end-of-file while parsing children of element a", e.getMessage ());
+        }
+    }
+    
+    @Test
+    public void testIterateDocType () throws Exception
+    {
+        String xml = "<!DOCTYPE a [\n<!ENTITY e 'value'>\n]>\n<a><b>&e;</b></a>";
+        XMLParser parser = new XMLParser ();
+        parser.setTreatEntitiesAsText (false);
+        Iterator<Element> iter = parser.iterate (new XMLStringSource (xml), "/a/b");
+        
+        assertEquals ("<b>&e;</b>", iter.next ().toXML ());
+        assertFalse (iter.hasNext ());
+        assertNull (parser.getEntityResolver ());
+    }
+    
     @Test
     public void testAttributesNameNull () throws Exception
     {
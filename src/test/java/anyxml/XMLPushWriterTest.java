@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.junit.Test;
+
+import anyxml.XMLTokenizer.Type;
+
+public class XMLPushWriterTest
+{
+    @Test
+    public void testSimple () throws Exception
+    {
+        StringWriter buffer = new StringWriter ();
+        XMLPushWriter out = new XMLPushWriter (buffer);
+        out.startElement ("a").attribute ("x", "1 < 2").attribute ("y", "say \"hi\"");
+        out.startElement ("b").text ("a & b").endElement ();
+        out.startElement ("c").endElement ();
+        out.comment ("note").cdata ("<raw>").processingInstruction ("pi", "data");
+        assertEquals (1, out.getDepth ());
+        out.close ();
+        
+        assertEquals ("<a x=\"1 &lt; 2\" y='say \"hi\"'><b>a &amp; b</b><c/><!--note--><![CDATA[<raw>]]><?pi data?></a>", buffer.toString ());
+    }
+    
+    @Test
+    public void testSameAsTree () throws Exception
+    {
+        Random random = new Random (42);
+        for (int i=0; i<200; i++)
+        {
+            Element root = createTree (random, 0);
+            Document doc = new Document (root);
+            
+            for (int mode=0; mode<4; mode++)
+            {
+                String indent = (mode & 1) != 0 ? "  " : null;
+                boolean padCompact = (mode & 2) != 0;
+                
+                StringWriter expected = new StringWriter ();
+                XMLWriter writer = new XMLWriter (expected);
+                writer.setIndent (indent);
+                writer.setPadCompact (padCompact);
+                doc.toXML (writer);
+                writer.flush ();
+                
+                StringWriter actual = new StringWriter ();
+                writer = new XMLWriter (actual);
+                writer.setIndent (indent);
+                writer.setPadCompact (padCompact);
+                XMLPushWriter out = new XMLPushWriter (writer);
+                push (out, root);
+                out.finish ();
+                
+                assertEquals ("Tree "+i+", mode "+mode, expected.toString (), actual.toString ());
+            }
+        }
+    }
+    
+    private Element createTree (Random random, int depth)
+    {
+        Element e = new Element ("e" + depth);
+        int attributes = random.nextInt (3);
+        for (int i=0; i<attributes; i++)
+            e.addAttribute ("a" + i, random.nextBoolean () ? "v<" + i : "'" + i + "\"");
+        
+        int children = depth > 4 ? 0 : random.nextInt (5);
+        for (int i=0; i<children; i++)
+        {
+            switch (random.nextInt (6))
+            {
+            case 0: case 1: e.addNode (createTree (random, depth + 1)); break;
+            case 2: e.addNode (new Text (random.nextBoolean () ? "text & <" + i + ">" : "\n  ")); break;
+            case 3: e.addNode (new Text (Type.CDATA, "cdata " + i)); break;
+            case 4: e.addNode (new Comment ("comment " + i)); break;
+            case 5: e.addNode (new Element ("empty")); break;
+            }
+        }
+        return e;
+    }
+    
+    /** Write a tree with the calls of the push API */
+    private void push (XMLPushWriter out, Element e) throws IOException
+    {
+        out.startElement (e.getName ());
+        for (Attribute a: e.getAttributes ())
+            out.attribute (a.getName (), a.getValue ());
+        
+        for (Node n: e.getNodes ())
+        {
+            if (n instanceof Element)
+                push (out, (Element)n);
+            else if (n.getType () == Type.CDATA)
+                out.cdata (((Text)n).getText ());
+            else if (n instanceof Text)
+                out.text (((Text)n).getText ());
+            else
+                out.comment (((Comment)n).getText ());
+        }
+        out.endElement ();
+    }
+    
+    @Test
+    public void testInlineElement () throws Exception
+    {
+        Document doc = XMLParser.parse ("<record id='1'>\n  <name>parsed &amp; kept</name>\n</record>");
+        
+        StringWriter buffer = new StringWriter ();
+        XMLPushWriter out = new XMLPushWriter (buffer);
+        out.startElement ("feed");
+        out.write (doc.getRootElement ());
+        out.startElement ("record").attribute ("id", "2").endElement ();
+        out.finish ();
+        
+        assertEquals ("<feed><record id='1'>\n  <name>parsed &amp; kept</name>\n</record><record id=\"2\"/></feed>", buffer.toString ());
+    }
+    
+    @Test
+    public void testIndentedInlineElement () throws Exception
+    {
+        Element record = new Element ("record").addNode (new Element ("name").setText ("x"));
+        Document doc = new Document (new Element ("feed").addNode (record.copy ()).addNode (new Element ("end")));
+        
+        StringWriter expected = new StringWriter ();
+        XMLWriter writer = new XMLWriter (expected);
+        writer.setIndent ("\t");
+        doc.toXML (writer);
+        writer.flush ();
+        
+        StringWriter buffer = new StringWriter ();
+        writer = new XMLWriter (buffer);
+        writer.setIndent ("\t");
+        XMLPushWriter out = new XMLPushWriter (writer);
+        out.startElement ("feed").write (record).startElement ("end").endElement ().finish ();
+        
+        assertEquals (expected.toString (), buffer.toString ());
+    }
+    
+    @Test
+    public void testErrors () throws Exception
+    {
+        XMLPushWriter out = new XMLPushWriter (new StringWriter ());
+        try
+        {
+            out.endElement ();
+            fail ("No exception was thrown");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals ("No element is open", e.getMessage ());
+        }
+        
+        out.startElement ("a").text ("x");
+        try
+        {
+            out.attribute ("b", "1");
+            fail ("No exception was thrown");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals ("Attributes must follow startElement(); element a already has content", e.getMessage ());
+        }
+        
+        try
+        {
+            out.cdata ("a]]>b");
+            fail ("No exception was thrown");
+        }
+        catch (XMLParseException e)
+        {
+            assertEquals ("The text of a CDATA section must not contain ']]>': [a]]>b]", e.getMessage ());
+        }
+    }
+}
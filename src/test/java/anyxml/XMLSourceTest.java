@@ -31,22 +31,27 @@
 package anyxml;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.io.StringReader;
 
 import org.junit.Test;
 
 import anyxml.Document;
 import anyxml.XMLIOSource;
+import anyxml.XMLMappedFileSource;
 import anyxml.XMLParseException;
 import anyxml.XMLParser;
 import anyxml.XMLStringBufferSource;
 import anyxml.XMLStringBuilderSource;
+import anyxml.XMLStreamSource;
 
 public class XMLSourceTest
 {
@@ -105,6 +110,157 @@ public class XMLSourceTest
         assertEquals ("DecentXML", doc.getChild ("/project/name").getText ());
     }
     
+    @Test
+    public void testMappedFileSource () throws Exception
+    {
+        XMLMappedFileSource source = new XMLMappedFileSource (new File ("pom.xml"));
+        XMLParser parser = new XMLParser ();
+        Document doc = parser.parse (source);
+        assertEquals ("DecentXML", doc.getChild ("/project/name").getText ());
+        assertEquals (XMLIOSource.toString (new File ("pom.xml")), doc.toXML ());
+    }
+    
+    @Test
+    public void testMappedFileSourceSmallBlocks () throws Exception
+    {
+        StringBuilder buffer = new StringBuilder ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>\n");
+        for (int i=0; i<200; i++)
+            buffer.append ("  <e a='\u00e4\u20ac'>\u4e2d\ud834\udd1e x</e>\n");
+        buffer.append ("</root>\n");
+        String xml = buffer.toString ();
+        
+        File f = File.createTempFile ("XMLSourceTest", ".xml");
+        f.deleteOnExit ();
+        FileOutputStream out = new FileOutputStream (f);
+        out.write (xml.getBytes ("UTF-8"));
+        out.close ();
+        
+        XMLMappedFileSource source = new XMLMappedFileSource (f, null, 16);
+        assertEquals ("UTF-8", source.getJavaEncoding ());
+        assertEquals (xml.length (), source.length ());
+        assertEquals (xml, source.substring (0, source.length ()));
+        for (int i=xml.length () - 1; i>=0; i -= 7)
+            assertEquals (xml.charAt (i), source.charAt (i));
+        for (int i=0; i<=xml.length (); i += 5)
+        {
+            if (!Character.isLowSurrogate (xml.charAt (Math.min (i, xml.length () - 1))))
+                assertEquals (xml.substring (0, i).getBytes ("UTF-8").length, source.getByteOffset (i));
+        }
+        
+        Document doc = new XMLParser ().parse (source);
+        assertEquals (xml, doc.toXML ());
+    }
+    
+    @Test
+    public void testStreamSource () throws Exception
+    {
+        XMLStreamSource source = new XMLStreamSource (new StringReader (XMLInputStreamReaderTest.TEST_XML), 16);
+        XMLParser parser = new XMLParser ();
+        Document doc = parser.parse (source);
+        assertEquals (XMLInputStreamReaderTest.TEST_XML, doc.toXML ());
+        assertTrue (source.isEOF ());
+    }
+    
+    /** A reader which produces <code>&lt;feed&gt;</code> with many records without keeping them in memory */
+    public static class FeedReader extends Reader
+    {
+        private final int records;
+        private int record = -1;
+        private String current = "<feed>\n";
+        private int pos;
+        
+        public FeedReader (int records)
+        {
+            this.records = records;
+        }
+        
+        @Override
+        public int read (char[] cbuf, int off, int len) throws IOException
+        {
+            if (pos == current.length ())
+            {
+                record ++;
+                if (record > records)
+                    return -1;
+                
+                current = record == records ? "</feed>\n" : "\t<record id='"+record+"'>text "+record+"</record>\r\n";
+                pos = 0;
+            }
+            
+            len = Math.min (len, current.length () - pos);
+            current.getChars (pos, pos + len, cbuf, off);
+            pos += len;
+            return len;
+        }
+        
+        @Override
+        public void close () throws IOException
+        {
+            // Nothing to do
+        }
+    }
+    
+    @Test
+    public void testStreamSourceRelease () throws Exception
+    {
+        XMLStreamSource source = new XMLStreamSource (new FeedReader (100000), 64);
+        XMLTokenizer tokenizer = new XMLTokenizer (source);
+        
+        int records = 0;
+        Token token;
+        while ((token = tokenizer.next ()) != null)
+        {
+            if (token.getType () == XMLTokenizer.Type.BEGIN_ELEMENT && "<record".equals (token.getText ()))
+                records ++;
+            
+            source.release (tokenizer.getOffset ());
+            assertTrue (tokenizer.getOffset () - source.getFirstOffset () < 256);
+        }
+        
+        assertEquals (100000, records);
+        assertTrue (source.isEOF ());
+    }
+    
+    @Test
+    public void testStreamSourceLocationAfterRelease () throws Exception
+    {
+        XMLStreamSource source = new XMLStreamSource (new FeedReader (1000), 64).setTrackLines (true);
+        XMLTokenizer tokenizer = new XMLTokenizer (source);
+        
+        Token token = null;
+        for (int i=0; i<2000; i++)
+        {
+            token = tokenizer.next ();
+            source.release (tokenizer.getOffset ());
+        }
+        
+        Location location = new Location (tokenizer.getSource (), tokenizer.getOffset ());
+        XMLStringSource copy = new XMLStringSource (XMLIOSource.toString (new FeedReader (1000)));
+        Location expected = new Location (copy, tokenizer.getOffset ());
+        assertEquals (expected.toString (), location.toString ());
+        assertEquals (expected.getLineStartOffset (), location.getLineStartOffset ());
+        assertEquals (copy.substring (token.getStartOffset (), token.getEndOffset ()), token.getText ());
+    }
+    
+    @Test
+    public void testStreamSourceLocationWithoutTrackLines () throws Exception
+    {
+        XMLStreamSource source = new XMLStreamSource (new FeedReader (1000), 64);
+        XMLTokenizer tokenizer = new XMLTokenizer (source);
+        for (int i=0; i<2000; i++)
+        {
+            tokenizer.next ();
+            source.release (tokenizer.getOffset ());
+        }
+        
+        // Lines are counted from the first character which is still there
+        XMLStringSource copy = new XMLStringSource (XMLIOSource.toString (new FeedReader (1000)));
+        int firstLine = new Location (copy, source.getFirstOffset ()).getLine ();
+        Location location = new Location (source, tokenizer.getOffset ());
+        assertEquals (new Location (copy, tokenizer.getOffset ()).getLine () - firstLine + 1, location.getLine ());
+        assertEquals (source.getFirstOffset (), source.getDiscardedOffset ());
+    }
+    
     @Test
     public void testExceptionDuringRead () throws Exception
     {
@@ -39,6 +39,7 @@ import anyxml.Token;
 import anyxml.XMLParseException;
 import anyxml.XMLStringSource;
 import anyxml.XMLTokenizer;
+import anyxml.XMLTokenizer.Type;
 import anyxml.validation.CharValidator;
 
 public class XMLTokenizerTest
@@ -754,6 +755,42 @@ public class XMLTokenizerTest
             "Token (END_ELEMENT, 14:20, \"</xml>\")");
     }
     
+    @Test
+    public void testCursor () throws Exception
+    {
+        XMLTokenizer expected = new XMLTokenizer (new XMLStringSource (XML));
+        XMLTokenizer cursor = new XMLTokenizer (new XMLStringSource (XML));
+        
+        Token token;
+        while ((token = expected.next ()) != null)
+        {
+            assertTrue (cursor.advance ());
+            assertEquals (token.getType (), cursor.tokenType ());
+            assertEquals (token.getStartOffset (), cursor.tokenStart ());
+            assertEquals (token.getEndOffset (), cursor.tokenEnd ());
+        }
+        
+        assertFalse (cursor.advance ());
+    }
+    
+    @Test
+    public void testCursorMixedWithNext () throws Exception
+    {
+        XMLTokenizer t = new XMLTokenizer (new XMLStringSource ("<a x='1'>b</a>"));
+        
+        assertTrue (t.advance ());
+        assertEquals (Type.BEGIN_ELEMENT, t.tokenType ());
+        
+        Token token = t.next ();
+        assertEquals ("Token (ATTRIBUTE, 2:8, \" x='1'\")", token.toString ());
+        assertEquals (Type.ATTRIBUTE, t.tokenType ());
+        
+        assertTrue (t.advance ());
+        assertEquals (Type.BEGIN_ELEMENT_END, t.tokenType ());
+        // The token returned by next() must not change
+        assertEquals ("Token (ATTRIBUTE, 2:8, \" x='1'\")", token.toString ());
+    }
+    
     private void check (String xml, String expected)
     {
         XMLTokenizer tokenizer = new XMLTokenizer (new XMLStringSource (xml));
@@ -776,4 +813,26 @@ public class XMLTokenizerTest
         expected = expected.replaceAll ("\r\n", "\n").trim ();
         assertEquals (expected, buffer.toString ());
     }
+    
+    @Test
+    public void testReset () throws Exception
+    {
+        XMLTokenizer t = new XMLTokenizer (new XMLStringSource ("<a x='1'>b</a>"));
+        t.setTreatEntitiesAsText (false);
+        assertTrue (t.advance ());
+        assertTrue (t.advance ());
+        
+        // Reset in the middle of a start tag
+        t.reset (new XMLStringSource ("<c>&amp;</c>"));
+        check (t, "Token (BEGIN_ELEMENT, 0:2, \"<c\")\n" + 
+            "Token (BEGIN_ELEMENT_END, 2:3, \">\")\n" + 
+            "Token (ENTITY, 3:8, \"&amp;\")\n" + 
+            "Token (END_ELEMENT, 8:12, \"</c>\")");
+        
+        t.reset (new XMLStringSource ("<d/>"));
+        assertTrue (t.advance ());
+        assertEquals (Type.BEGIN_ELEMENT, t.tokenType ());
+        assertEquals (0, t.tokenStart ());
+        assertEquals ("Token (BEGIN_ELEMENT_END, 2:4, \"/>\")", t.next ().toString ());
+    }
 }
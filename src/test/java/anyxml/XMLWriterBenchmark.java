@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2008, Aaron Digulla
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ * 
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in
+ *       the documentation and/or other materials provided with the
+ *       distribution.
+ *     * Neither the name of Aaron Digulla nor the names of its
+ *       contributors may be used to endorse or promote products derived
+ *       from this software without specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS
+ * IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A
+ * PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER
+ * OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package anyxml;
+
+import java.io.StringWriter;
+
+/**
+ * Serializing a text-heavy document (parsed) and an attribute-heavy document (built
+ * in memory, so the attribute values have to be escaped) to a <code>StringWriter</code>.
+ * The last case changes a single value in a large POM-like document, so all unchanged
+ * elements can be copied from the source.
+ * 
+ * <p>Run with <code>java -cp target/classes:target/test-classes anyxml.XMLWriterBenchmark</code>
+ */
+public class XMLWriterBenchmark
+{
+    public static void main (String[] args) throws Exception
+    {
+        StringBuilder buffer = new StringBuilder ("<book>\n");
+        for (int i=0; i<20000; i++)
+            buffer.append ("  <p>Paragraph ").append (i).append (" with some text, &amp; an entity <b>and</b> markup.</p>\n");
+        buffer.append ("</book>\n");
+        final Document text = XMLParser.parse (buffer.toString ());
+        
+        final Document attributes = new Document ();
+        Element root = new Element ("rows");
+        attributes.addNode (root);
+        for (int i=0; i<20000; i++)
+        {
+            Element row = new Element ("row");
+            row.addAttribute ("id", Integer.toString (i));
+            row.addAttribute ("name", "Name \"" + i + "\"");
+            row.addAttribute ("expr", "a < b && c > d");
+            row.addAttribute ("path", "/some/long/path/to/file" + i + ".xml");
+            root.addNode (row);
+        }
+        
+        buffer.setLength (0);
+        buffer.append ("<project>\n  <dependencies>\n");
+        for (int i=0; i<5000; i++)
+            buffer.append ("    <dependency>\n      <groupId>org.example</groupId>\n      <artifactId>lib").append (i)
+                .append ("</artifactId>\n      <version>1.").append (i).append ("</version>\n    </dependency>\n");
+        buffer.append ("  </dependencies>\n</project>\n");
+        final Document pom = XMLParser.parse (buffer.toString ());
+        Element dependency = pom.getRootElement ().getChild ("dependencies").getChildren ().get (2500);
+        dependency.getChild ("version").setText ("2.0");
+        
+        final int textSize = text.toXML ().length ();
+        final int pomSize = pom.toXML ().length ();
+        final int attributeSize = attributes.toXML ().length ();
+        
+        for (int round=0; round<3; round++)
+        {
+            new Benchmark ("text-heavy") {
+                @Override
+                public Object run () throws Exception
+                {
+                    StringWriter out = new StringWriter (textSize);
+                    text.toXML (new XMLWriter (out));
+                    return out;
+                }
+            }.measure (5, 20, textSize);
+            
+            new Benchmark ("text-heavy, indented") {
+                @Override
+                public Object run () throws Exception
+                {
+                    StringWriter out = new StringWriter (textSize * 2);
+                    XMLWriter writer = new XMLWriter (out);
+                    writer.setIndent ("  ");
+                    text.toXML (writer);
+                    return out;
+                }
+            }.measure (5, 20, textSize);
+            
+            new Benchmark ("attribute-heavy") {
+                @Override
+                public Object run () throws Exception
+                {
+                    StringWriter out = new StringWriter (attributeSize);
+                    attributes.toXML (new XMLWriter (out));
+                    return out;
+                }
+            }.measure (5, 20, attributeSize);
+            
+            new Benchmark ("POM, one value changed") {
+                @Override
+                public Object run () throws Exception
+                {
+                    StringWriter out = new StringWriter (pomSize);
+                    pom.toXML (new XMLWriter (out));
+                    return out;
+                }
+            }.measure (5, 20, pomSize);
+            System.out.println ();
+        }
+    }
+}
@@ -2,7 +2,16 @@ package anyxml;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
 import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -42,6 +51,260 @@ public class XMLWriterTest
         );
     }
 
+    @Test
+    public void testAttributeEscaping () throws Exception
+    {
+        Element e = new Element ("a");
+        e.addAttribute (new Attribute ("x", "<\"'&>\u00e4", '"'));
+        e.addAttribute (new Attribute ("y", "<\"'&>\u00e4", '\''));
+        assertEquals ("<a x=\"&lt;&quot;'&amp;&gt;\u00e4\" y='&lt;\"&apos;&amp;&gt;\u00e4'/>", e.toXML ());
+    }
+    
+    @Test
+    public void testEscapedText () throws Exception
+    {
+        StringWriter buffer = new StringWriter ();
+        XMLWriter writer = new XMLWriter (buffer);
+        writer.writeEscapedText (null, "a<b>&\"c'");
+        assertEquals ("a&lt;b&gt;&amp;\"c'", buffer.toString ());
+    }
+    
+    @Test
+    public void testSmallBuffer () throws Exception
+    {
+        Document doc = XMLParser.parse (XMLParserTest.POM_XML);
+        Element e = doc.getRootElement ().getChild ("parent");
+        e.addAttribute ("long", "a value with an & which is longer than the buffer");
+        
+        for (int size=1; size<40; size++)
+        {
+            StringWriter buffer = new StringWriter ();
+            XMLWriter writer = new XMLWriter (buffer, size);
+            writer.setIndent ("  ");
+            doc.toXML (writer);
+            
+            StringWriter expected = new StringWriter ();
+            XMLWriter unbuffered = new XMLWriter (expected, 100000);
+            unbuffered.setIndent ("  ");
+            doc.toXML (unbuffered);
+            
+            assertEquals (expected.toString (), buffer.toString ());
+        }
+    }
+    
+    @Test
+    public void testHook () throws Exception
+    {
+        final List<String> parts = new ArrayList<String> ();
+        StringWriter buffer = new StringWriter ();
+        XMLWriter writer = new XMLWriter (buffer) {
+            @Override
+            public void write (Node node, String s) throws IOException
+            {
+                parts.add (s);
+                super.write (node, s);
+            }
+        };
+        
+        Element e = new Element ("a");
+        e.addAttribute ("x", "1&2");
+        e.toXML (writer);
+        
+        assertEquals ("<a x=\"1&amp;2\"/>", buffer.toString ());
+        assertTrue (parts.toString (), parts.contains ("&amp;"));
+        assertTrue (parts.toString (), parts.contains ("1"));
+    }
+    
+    @Test
+    public void testVerbatim () throws Exception
+    {
+        String xml = XMLParserTest.POM_XML;
+        Document doc = XMLParser.parse (xml);
+        Element root = doc.getRootElement ();
+        assertTrue (root.isVerbatim ());
+        assertEquals (xml, doc.toXML ());
+        assertEquals (writeNodeByNode (doc), doc.toXML ());
+        
+        Element parent = root.getChild ("parent");
+        Element version = parent.getChild ("version");
+        Element artifactId = parent.getChild ("artifactId");
+        assertTrue (version.isVerbatim ());
+        
+        ((Text)version.getNode (0)).setText ("16");
+        assertFalse (version.isVerbatim ());
+        assertFalse (parent.isVerbatim ());
+        assertFalse (root.isVerbatim ());
+        assertTrue (artifactId.isVerbatim ());
+        assertEquals (writeNodeByNode (doc), doc.toXML ());
+        assertTrue (doc.toXML ().contains ("<version>16</version>"));
+    }
+    
+    @Test
+    public void testVerbatimChanges () throws Exception
+    {
+        String xml = "<a x='1'><b y=\"2\" >text</b ><c/><d><e/></d></a>";
+        
+        for (int i=0; i<12; i++)
+        {
+            Document doc = XMLParser.parse (xml);
+            Element a = doc.getRootElement ();
+            Element b = a.getChild ("b");
+            Element d = a.getChild ("d");
+            Element changed = null;
+            switch (i)
+            {
+            case 0: b.setAttribute ("y", "3"); changed = b; break;
+            case 1: b.getAttribute ("y").setQuoteChar ('\''); changed = b; break;
+            case 2: b.addAttribute ("z", "4"); changed = b; break;
+            case 3: b.removeAttribute ("y"); changed = b; break;
+            case 4: b.setName ("B"); changed = b; break;
+            case 5: b.setText ("new"); changed = b; break;
+            case 6: d.getNodes ().remove (0); changed = d; break;
+            case 7: d.getChild ("e").setCompactEmpty (false); changed = d.getChild ("e"); break;
+            case 8: d.getNodes ().set (0, new Element ("f")); changed = d; break;
+            case 9: a.getAttribute ("x").setPreSpace ("  "); changed = a; break;
+            case 10: d.addNode (new Comment ("x")); changed = d; break;
+            case 11: b.setPostSpace (""); changed = b; break;
+            }
+            
+            assertFalse ("Case "+i, changed.isVerbatim ());
+            assertFalse ("Case "+i, a.isVerbatim ());
+            assertTrue ("Case "+i, a.getChild ("c").isVerbatim ());
+            assertEquals ("Case "+i, writeNodeByNode (doc), doc.toXML ());
+            assertFalse ("Case "+i, xml.equals (doc.toXML ()));
+        }
+    }
+    
+    /** Call <code>removeIf()</code> of Java 8 on <code>list</code>; reflection is used since the sources must compile with Java 5 */
+    public static boolean removeIf (List<Node> list, final Node node) throws Exception
+    {
+        Class<?> type = Class.forName ("java.util.function.Predicate");
+        Object predicate = Proxy.newProxyInstance (type.getClassLoader (), new Class<?>[] { type }, new InvocationHandler () {
+            public Object invoke (Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (!"test".equals (method.getName ()))
+                    throw new UnsupportedOperationException (method.toString ());
+                return args[0] == node;
+            }
+        });
+        return (Boolean)list.getClass ().getMethod ("removeIf", type).invoke (list, predicate);
+    }
+    
+    /** Call <code>replaceAll()</code> of Java 8 on <code>list</code>, replacing <code>node</code> with <code>replacement</code> */
+    public static void replaceAll (List<Node> list, final Node node, final Node replacement) throws Exception
+    {
+        Class<?> type = Class.forName ("java.util.function.UnaryOperator");
+        Object operator = Proxy.newProxyInstance (type.getClassLoader (), new Class<?>[] { type }, new InvocationHandler () {
+            public Object invoke (Object proxy, Method method, Object[] args) throws Throwable
+            {
+                if (!"apply".equals (method.getName ()))
+                    throw new UnsupportedOperationException (method.toString ());
+                return args[0] == node ? replacement : args[0];
+            }
+        });
+        list.getClass ().getMethod ("replaceAll", type).invoke (list, operator);
+    }
+    
+    /** Sort the nodes by their XML in reverse order */
+    public static void reverseSort (List<Node> list)
+    {
+        Collections.sort (list, new Comparator<Node> () {
+            public int compare (Node n1, Node n2)
+            {
+                return n2.toXML ().compareTo (n1.toXML ());
+            }
+        });
+    }
+    
+    @Test
+    public void testVerbatimUntrackedChanges () throws Exception
+    {
+        // On Java 8, these methods of ArrayList don't call the methods which report changes
+        String xml = "<r><a/><b/><d>x<e/></d></r>";
+        
+        Document doc = XMLParser.parse (xml);
+        Element r = doc.getRootElement ();
+        reverseSort (r.getNodes ());
+        assertFalse (r.isVerbatim ());
+        assertEquals ("<r><d>x<e/></d><b/><a/></r>", doc.toXML ());
+        
+        doc = XMLParser.parse (xml);
+        Element d = doc.getChild ("/r/d");
+        assertTrue (removeIf (d.getNodes (), d.getNode (0)));
+        assertFalse (doc.getRootElement ().isVerbatim ());
+        assertTrue (doc.getChild ("/r/a").isVerbatim ());
+        assertEquals ("<r><a/><b/><d><e/></d></r>", doc.toXML ());
+        
+        doc = XMLParser.parse (xml);
+        r = doc.getRootElement ();
+        replaceAll (r.getNodes (), r.getChild ("b"), new Element ("c"));
+        assertEquals ("<r><a/><c/><d>x<e/></d></r>", doc.toXML ());
+        assertEquals (writeNodeByNode (doc), doc.toXML ());
+        
+        // Changes which don't change anything don't matter
+        doc = XMLParser.parse (xml);
+        assertFalse (removeIf (doc.getRootElement ().getNodes (), new Text ("x")));
+        ((ArrayList<?>)doc.getChild ("/r/d").getNodes ()).trimToSize ();
+        assertTrue (doc.getRootElement ().isVerbatim ());
+    }
+    
+    @Test
+    public void testVerbatimEntities () throws Exception
+    {
+        String xml = "<!DOCTYPE a [\n<!ENTITY e '<x>value</x>'>\n]>\n<a><b><c>&e;</c></b><d/></a>";
+        Document doc = new XMLParser ().setExpandEntities (true).parse (new XMLStringSource (xml));
+        Element a = doc.getRootElement ();
+        Element b = a.getChild ("b");
+        assertFalse (a.isVerbatim ());
+        assertFalse (b.isVerbatim ());
+        assertTrue (a.getChild ("d").isVerbatim ());
+        assertEquals (writeNodeByNode (doc), doc.toXML ());
+        assertTrue (doc.toXML ().contains ("<c><x>value</x></c>"));
+    }
+    
+    @Test
+    public void testVerbatimIterator () throws Exception
+    {
+        XMLParser parser = new XMLParser ();
+        Iterator<Element> iter = parser.iterate (new XMLStringSource ("<a><c/><b/></a>"), "/a/b");
+        Element b = iter.next ();
+        assertTrue (b.isVerbatim ());
+        assertFalse (iter.hasNext ());
+        
+        Element a = b.getParentElement ();
+        assertFalse (a.isVerbatim ());
+        assertEquals ("<a><b/></a>", a.toXML ());
+    }
+    
+    @Test
+    public void testVerbatimFormatting () throws Exception
+    {
+        Document doc = XMLParser.parse ("<a><b/></a>");
+        StringWriter buffer = new StringWriter ();
+        XMLWriter writer = new XMLWriter (buffer);
+        writer.setPadCompact (true);
+        doc.toXML (writer);
+        assertEquals ("<a><b /></a>", buffer.toString ());
+        
+        doc.getRootElement ().releaseSource ();
+        assertEquals ("<a><b/></a>", doc.toXML ());
+    }
+    
+    /** Write the document with a writer which can't copy elements */
+    private String writeNodeByNode (Document doc) throws IOException
+    {
+        StringWriter buffer = new StringWriter ();
+        XMLWriter writer = new XMLWriter (buffer) {
+            @Override
+            public void write (Node node, String s) throws IOException
+            {
+                super.write (node, s);
+            }
+        };
+        doc.toXML (writer);
+        return buffer.toString ();
+    }
+    
     private String fixCRLF (String string)
     {
         return string.replaceAll ("\r\n", "\n").replaceAll ("\r", "\n");